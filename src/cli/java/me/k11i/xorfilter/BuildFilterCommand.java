@@ -0,0 +1,228 @@
+package me.k11i.xorfilter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a filter of the keys of a file, and writes it in the format of {@link BytesXorFilter#writeTo(java.io.OutputStream)}.
+ *
+ * <p>
+ * Usage: {@code BuildFilterCommand [options] <input> <output>}, with the options:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code --strategy <name>}: the {@link XorFilter.Strategy}, {@code MURMUR128_XOR8} by default</li>
+ * <li>{@code --format lines|fixed:<width>}: keys separated by newlines, or records of {@code width} bytes</li>
+ * <li>{@code --seed <int>}: the seed of the random numbers, random by default</li>
+ * <li>{@code --threads <n>}: the number of threads, the number of the CPUs by default</li>
+ * <li>{@code --low-memory}: build with about 1.9 times less scratch memory, but peeling on one thread; no effect on
+ * the BLOCKED and PLUS strategies</li>
+ * <li>{@code --fpp-samples <n>}: the number of random keys queried to sample the false positive rate</li>
+ * </ul>
+ *
+ * <p>
+ * The input file is mapped into memory, and each key is hashed from the mapped bytes without creating an object.
+ * The keys are the bytes of the lines or the records, and the filter is read by {@link BytesXorFilter}, which queries
+ * UTF-8 lines by {@code mightContain(CharSequence)} as well. The output is written to a temporary file whose name
+ * starts with a dot, and renamed at the end, so that a process polling the directory never reads a partial file.
+ * The heap must hold the scratch arrays, about
+ * {@link XorFilter#scratchBytes(int, XorFilter.Strategy, boolean)} bytes.
+ * </p>
+ */
+public class BuildFilterCommand {
+    private static final String USAGE = "Usage: BuildFilterCommand [--strategy <name>] [--format lines|fixed:<width>]"
+            + " [--seed <int>] [--threads <n>] [--low-memory] [--fpp-samples <n>] <input> <output>";
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            run(options);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to build the filter: " + e);
+            System.exit(1);
+        }
+    }
+
+    static class Options {
+        XorFilter.Strategy strategy = XorFilter.Strategy.MURMUR128_XOR8;
+        int width;
+        int seed = new SplittableRandom().nextInt();
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean lowMemory;
+        int fppSamples = 1_000_000;
+        int segmentSize = KeyFile.SEGMENT_SIZE;
+        Path input;
+        Path output;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            int i = 0;
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                String option = args[i];
+                if (option.equals("--low-memory")) {
+                    options.lowMemory = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("No value of " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--strategy":
+                        options.strategy = XorFilter.Strategy.valueOf(value);
+                        break;
+                    case "--format":
+                        options.width = parseFormat(value);
+                        break;
+                    case "--seed":
+                        options.seed = Integer.parseInt(value);
+                        break;
+                    case "--threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "--fpp-samples":
+                        options.fppSamples = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+            if (args.length - i != 2) {
+                throw new IllegalArgumentException("Specify the input and the output files");
+            }
+            if (options.threads <= 0 || options.fppSamples < 0) {
+                throw new IllegalArgumentException("Invalid --threads or --fpp-samples");
+            }
+            options.input = Paths.get(args[i]);
+            options.output = Paths.get(args[i + 1]);
+            return options;
+        }
+
+        private static int parseFormat(String format) {
+            if (format.equals("lines")) {
+                return 0;
+            }
+            if (format.startsWith("fixed:")) {
+                int width = Integer.parseInt(format.substring("fixed:".length()));
+                if (width > 0) {
+                    return width;
+                }
+            }
+            throw new IllegalArgumentException("Invalid format: " + format);
+        }
+    }
+
+    static void run(Options options) throws IOException {
+        XorFilter.Strategy strategy = options.strategy;
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+
+        try (KeyFile keys = options.width == 0
+                ? KeyFile.lines(options.input, options.segmentSize)
+                : KeyFile.fixedWidth(options.input, options.width, options.segmentSize)) {
+
+            long start = System.nanoTime();
+            long[] counts = pool.submit(() -> IntStream.range(0, keys.numSegments())
+                    .parallel()
+                    .mapToLong(keys::countKeys)
+                    .toArray()).join();
+            long[] offsets = new long[counts.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                offsets[i + 1] = offsets[i] + counts[i];
+            }
+            long numKeys = offsets[counts.length];
+            if (numKeys > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException(String.format(
+                        "%d keys are too many for a filter; split the file and use PartitionedXorFilter", numKeys));
+            }
+            int n = (int) numKeys;
+            long countNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] distinct = new int[1];
+            ElementsHasher hasher = (seed, hashedElements) -> {
+                long[] hashed = hashedElements.buffer();
+                IntStream.range(0, keys.numSegments())
+                        .parallel()
+                        .forEach(i -> hashSegment(keys, i, strategy, seed, hashed, (int) offsets[i]));
+                hashedElements.sortAndDeduplicate(true);
+                distinct[0] = hashedElements.size();
+            };
+            SlotLayout layout = strategy.newLayout(n);
+            Mapping mapping = pool.submit(() -> options.lowMemory
+                    ? XorFilter.buildMappingWithLowMemory(n, hasher, layout, options.seed)
+                    : XorFilter.buildMapping(n, hasher, layout, options.seed, true)).join();
+            long mappingNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+            long assignNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Path temp = options.output.toAbsolutePath().resolveSibling("." + options.output.getFileName());
+            try (FileChannel out = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                new SerializedForm(SerializedForm.KeyKind.BYTES, strategy, mapping.seed, mapping.remix, b).writeTo(out);
+            }
+            Files.move(temp, options.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long writeNanos = System.nanoTime() - start;
+
+            long totalNanos = countNanos + mappingNanos + assignNanos + writeNanos;
+            long sizeInBytes = SerializedForm.serializedSize(b);
+            System.out.printf("Keys:        %,d (%,d distinct) in %,d bytes%n", numKeys, distinct[0], keys.size());
+            System.out.printf("Strategy:    %s, seed %d, remix %d%n", strategy, mapping.seed, mapping.remix);
+            System.out.printf("Time:        %.2f s (count %.2f s, hash and peel %.2f s, assign %.2f s, write %.2f s)%n",
+                    totalNanos / 1e9, countNanos / 1e9, mappingNanos / 1e9, assignNanos / 1e9, writeNanos / 1e9);
+            System.out.printf("Throughput:  %,.0f keys/s, %,.1f MB/s%n",
+                    numKeys / (totalNanos / 1e9), keys.size() / 1e6 / (totalNanos / 1e9));
+            System.out.printf("Size:        %,d bytes, %.2f bits per key%n",
+                    sizeInBytes, b.sizeInBytes() * (double) Byte.SIZE / Math.max(distinct[0], 1));
+            System.out.printf("FPP:         %.6f expected, %s sampled%n",
+                    b.layout.falsePositiveProbability(b, strategy.bitsPerValue),
+                    options.fppSamples == 0 ? "not" : String.format("%.6f", sampleFpp(b, strategy, mapping, options.fppSamples)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void hashSegment(KeyFile keys, int segment, XorFilter.Strategy strategy, int seed, long[] hashed, int offset) {
+        int[] index = {offset};
+        keys.forEachKey(segment, (key, len) -> hashed[index[0]++] = strategy.hashing.hash(seed, key, 0, len));
+    }
+
+    /**
+     * Returns the rate of the positives of random keys of 16 bytes, which are not in the file but by a negligible
+     * chance.
+     */
+    private static double sampleFpp(KBitValueArray b, XorFilter.Strategy strategy, Mapping mapping, int numSamples) {
+        SplittableRandom r = new SplittableRandom(mapping.seed);
+        byte[] key = new byte[16];
+        long positives = 0;
+        for (int i = 0; i < numSamples; i++) {
+            for (int j = 0; j < key.length; j++) {
+                key[j] = (byte) r.nextInt();
+            }
+            long x = MurmurHashFinalizer.remix(strategy.hashing.hash(mapping.seed, key, 0, key.length), mapping.remix);
+            if (b.contains(x)) {
+                positives++;
+            }
+        }
+        return (double) positives / numSamples;
+    }
+}
@@ -0,0 +1,225 @@
+package me.k11i.xorfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keys of a file, one per line or one per record of a fixed width, read from memory-mapped segments of the file.
+ *
+ * <p>
+ * The file is split into segments of about {@link #SEGMENT_SIZE} bytes that end at the end of a key, so that the
+ * segments can be read in parallel. Each key is copied from the mapped segment into a reused array, and no object is
+ * created per key. A line ends with {@code '\n'}, and a {@code '\r'} before it is dropped; the end of the
+ * file ends the last line as well.
+ * </p>
+ */
+final class KeyFile implements Closeable {
+    static final int SEGMENT_SIZE = 1 << 28;
+
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    @FunctionalInterface
+    interface KeyConsumer {
+        /**
+         * Accepts the key of the first {@code len} bytes of {@code key}, which is overwritten after the call.
+         */
+        void accept(byte[] key, int len);
+    }
+
+    /**
+     * Opens the file of keys separated by newlines.
+     */
+    static KeyFile lines(Path path) throws IOException {
+        return lines(path, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize maximum size of a segment, unless a line is longer
+     */
+    static KeyFile lines(Path path, int segmentSize) throws IOException {
+        return open(path, 0, segmentSize);
+    }
+
+    /**
+     * Opens the file of keys of {@code width} bytes each, whose size must be a multiple of {@code width}.
+     */
+    static KeyFile fixedWidth(Path path, int width) throws IOException {
+        return fixedWidth(path, width, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize maximum size of a segment, unless a key is longer
+     */
+    static KeyFile fixedWidth(Path path, int width, int segmentSize) throws IOException {
+        if (width <= 0) {
+            throw new IllegalArgumentException("Invalid width: " + width);
+        }
+        return open(path, width, segmentSize);
+    }
+
+    private static KeyFile open(Path path, int width, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new KeyFile(channel, width, segmentSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // ---
+
+    private final FileChannel channel;
+    private final int width;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final long size;
+
+    private KeyFile(FileChannel channel, int width, int segmentSize) throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.size = channel.size();
+
+        if (width > 0 && size % width != 0) {
+            throw new IOException(String.format("The size %d is not a multiple of the width %d", size, width));
+        }
+
+        int maxSegmentSize = width > 0 ? segmentSize / width * width : segmentSize;
+        for (long start = 0; start < size; ) {
+            long end = Math.min(start + Math.max(maxSegmentSize, width), size);
+            if (width == 0 && end < size) {
+                end = endOfLine(end - 1);
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Too long line at " + start);
+            }
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments.add(segment);
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the position after the first newline at or after {@code position}, or the size of the file.
+     */
+    private long endOfLine(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int numSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of the keys of segment {@code i}.
+     */
+    long countKeys(int i) {
+        ByteBuffer segment = segments.get(i);
+        int limit = segment.limit();
+        if (width > 0) {
+            return limit / width;
+        }
+
+        long count = 0;
+        for (int pos = 0; pos < limit; count++) {
+            pos = indexOfNewline(segment, pos, limit) + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Passes the keys of segment {@code i} to {@code consumer} in order.
+     */
+    void forEachKey(int i, KeyConsumer consumer) {
+        ByteBuffer segment = segments.get(i);
+        ByteBuffer view = segment.duplicate();
+        int limit = segment.limit();
+        byte[] key = new byte[Math.max(width, 64)];
+
+        if (width > 0) {
+            for (int pos = 0; pos < limit; pos += width) {
+                view.get(key, 0, width);
+                consumer.accept(key, width);
+            }
+            return;
+        }
+
+        for (int pos = 0; pos < limit; ) {
+            int newline = indexOfNewline(segment, pos, limit);
+            int end = newline > pos && segment.get(newline - 1) == '\r' ? newline - 1 : newline;
+            int len = end - pos;
+            if (len > key.length) {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            view.position(pos);
+            view.get(key, 0, len);
+            consumer.accept(key, len);
+            pos = newline + 1;
+        }
+    }
+
+    /**
+     * Returns the index of the first {@code '\n'} from {@code from} to {@code to}, or {@code to} if there is none.
+     * Eight bytes are tested at a time: a byte of {@code v} is zero where the byte is a newline, and the lowest bit of
+     * {@code HIGH_BITS} left in {@code t} marks the first zero byte of {@code v}.
+     */
+    static int indexOfNewline(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i <= to - Long.BYTES; i += Long.BYTES) {
+            long v = buffer.getLong(i) ^ NEWLINES;
+            long t = (v - LOW_BITS) & ~v & HIGH_BITS;
+            if (t != 0) {
+                return i + (Long.numberOfTrailingZeros(t) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Unmaps the segments. No key may be read after this method.
+     */
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            DirectBuffers.release(segment);
+        }
+        segments.clear();
+        channel.close();
+    }
+}
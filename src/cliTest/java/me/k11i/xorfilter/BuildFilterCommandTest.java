@@ -0,0 +1,116 @@
+package me.k11i.xorfilter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildFilterCommandTest {
+    private static final int NUM_KEYS = 10000;
+
+    private static String key(int i) {
+        return "key-" + i + (i % 3 == 0 ? "-\u00e9\u3042" : "");
+    }
+
+    private static BytesXorFilter build(byte[] content, String... args) throws IOException {
+        Path dir = Files.createTempDirectory("xor-filter");
+        Path input = dir.resolve("keys");
+        Path output = dir.resolve("keys.xorf");
+        try {
+            Files.write(input, content);
+            String[] allArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, allArgs, 0, args.length);
+            allArgs[args.length] = input.toString();
+            allArgs[args.length + 1] = output.toString();
+
+            BuildFilterCommand.Options options = BuildFilterCommand.Options.parse(allArgs);
+            // Small segments, so that many keys are split at the segment boundaries.
+            options.segmentSize = 100;
+            BuildFilterCommand.run(options);
+
+            try (InputStream in = Files.newInputStream(output)) {
+                return BytesXorFilter.readFrom(in);
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.delete(dir);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\n", "\r\n"})
+    void testLines(String newline) throws IOException {
+        List<String> keys = IntStream.range(0, NUM_KEYS).mapToObj(BuildFilterCommandTest::key).collect(Collectors.toList());
+        String content = String.join(newline, keys) + newline + newline;
+
+        for (boolean lowMemory : new boolean[]{false, true}) {
+            BytesXorFilter filter = lowMemory
+                    ? build(content.getBytes(StandardCharsets.UTF_8), "--threads", "4", "--fpp-samples", "0", "--low-memory")
+                    : build(content.getBytes(StandardCharsets.UTF_8), "--threads", "4", "--fpp-samples", "0");
+
+            for (String key : keys) {
+                assertTrue(filter.mightContain(key), key);
+            }
+            // The empty line before the end.
+            assertTrue(filter.mightContain(""));
+            // No newline nor carriage return is part of a key.
+            long falsePositives = keys.stream()
+                    .filter(key -> filter.mightContain(key + "\r") || filter.mightContain(key + newline))
+                    .count();
+            assertTrue(falsePositives < NUM_KEYS * 0.02, "false positives: " + falsePositives);
+        }
+    }
+
+    @Test
+    void testFixedWidth() throws IOException {
+        byte[] content = new byte[NUM_KEYS * 7];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            byte[] key = String.format("%07d", i).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(key, 0, content, i * 7, 7);
+        }
+
+        BytesXorFilter filter = build(content,
+                "--format", "fixed:7", "--strategy", "XXH3_XOR16", "--seed", "1", "--fpp-samples", "1000");
+
+        for (int i = 0; i < NUM_KEYS; i++) {
+            assertTrue(filter.mightContain(content, i * 7, 7));
+        }
+    }
+
+    @Test
+    void testParse() {
+        BuildFilterCommand.Options options = BuildFilterCommand.Options.parse(new String[]{
+                "--strategy", "XXH3_XOR8", "--format", "fixed:16", "--seed", "42", "--threads", "2", "--low-memory",
+                "in", "out"});
+        assertEquals(XorFilter.Strategy.XXH3_XOR8, options.strategy);
+        assertEquals(16, options.width);
+        assertEquals(42, options.seed);
+        assertEquals(2, options.threads);
+        assertTrue(options.lowMemory);
+        assertEquals("in", options.input.toString());
+        assertEquals("out", options.output.toString());
+
+        assertEquals(0, BuildFilterCommand.Options.parse(new String[]{"--format", "lines", "in", "out"}).width);
+
+        assertThrows(IllegalArgumentException.class, () -> BuildFilterCommand.Options.parse(new String[]{"in"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> BuildFilterCommand.Options.parse(new String[]{"--format", "fixed:0", "in", "out"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> BuildFilterCommand.Options.parse(new String[]{"--threads", "0", "in", "out"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> BuildFilterCommand.Options.parse(new String[]{"--unknown", "1", "in", "out"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> BuildFilterCommand.Options.parse(new String[]{"--seed"}));
+    }
+}
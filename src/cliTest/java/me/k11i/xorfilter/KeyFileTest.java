@@ -0,0 +1,120 @@
+package me.k11i.xorfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyFileTest {
+    private interface KeyFileOpener {
+        KeyFile open(Path path, int segmentSize) throws IOException;
+    }
+
+    /**
+     * Returns the keys of all the segments, checking that {@link KeyFile#countKeys(int)} agrees.
+     */
+    private static List<String> readKeys(KeyFile keys) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < keys.numSegments(); i++) {
+            int before = result.size();
+            keys.forEachKey(i, (key, len) -> result.add(new String(key, 0, len, StandardCharsets.UTF_8)));
+            assertEquals(result.size() - before, keys.countKeys(i));
+        }
+        return result;
+    }
+
+    private static List<String> readKeys(String content, int maxSegmentSize, KeyFileOpener opener) throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".txt");
+        try {
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+            List<String> result = null;
+            for (int segmentSize = 1; segmentSize <= maxSegmentSize; segmentSize++) {
+                try (KeyFile keys = opener.open(path, segmentSize)) {
+                    List<String> read = readKeys(keys);
+                    if (result != null) {
+                        assertEquals(result, read, "segment size " + segmentSize);
+                    }
+                    result = read;
+                }
+            }
+            return result;
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testIndexOfNewline() {
+        // Bytes next to '\n' or with the high bit set are the ones that a wrong borrow would take for a newline.
+        byte[] alphabet = {'\n', '\n' + 1, '\n' - 1, (byte) ('\n' | 0x80), 0, (byte) 0xff, 'a'};
+        Random r = new Random(1);
+
+        for (int trial = 0; trial < 10000; trial++) {
+            byte[] bytes = new byte[r.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[r.nextInt(alphabet.length)];
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int from = r.nextInt(bytes.length + 1);
+            int to = from + r.nextInt(bytes.length - from + 1);
+
+            int expected = from;
+            while (expected < to && bytes[expected] != '\n') {
+                expected++;
+            }
+            assertEquals(expected, KeyFile.indexOfNewline(buffer, from, to), Arrays.toString(bytes) + " " + from + " " + to);
+        }
+    }
+
+    @Test
+    void testLines() throws IOException {
+        char[] longLine = new char[50];
+        Arrays.fill(longLine, 'x');
+        String content = "a\r\nbb\n\nccc\r\n\r\n" + new String(longLine) + "\n\u00e9\u3042\nlast";
+
+        assertEquals(
+                Arrays.asList("a", "bb", "", "ccc", "", new String(longLine), "\u00e9\u3042", "last"),
+                readKeys(content, content.length() + 1, KeyFile::lines));
+    }
+
+    @Test
+    void testLinesEndingWithNewline() throws IOException {
+        assertEquals(Arrays.asList("a", "b"), readKeys("a\nb\n", 5, KeyFile::lines));
+        assertEquals(Arrays.asList("a", "b"), readKeys("a\r\nb\r\n", 7, KeyFile::lines));
+        assertEquals(Arrays.asList("", ""), readKeys("\n\n", 3, KeyFile::lines));
+        assertEquals(Arrays.asList(), readKeys("", 1, KeyFile::lines));
+    }
+
+    @Test
+    void testFixedWidth() throws IOException {
+        // The records may contain newlines, which are not separators.
+        String content = "abc\r\n" + "\n\n\n\n\n" + "12345" + "\u00e9\u3042";
+
+        assertEquals(
+                Arrays.asList("abc\r\n", "\n\n\n\n\n", "12345", "\u00e9\u3042"),
+                readKeys(content, content.length() + 1, (path, segmentSize) -> KeyFile.fixedWidth(path, 5, segmentSize)));
+    }
+
+    @Test
+    void testFixedWidthOfWrongSize() throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".bin");
+        try {
+            Files.write(path, new byte[10]);
+            assertThrows(IOException.class, () -> KeyFile.fixedWidth(path, 3));
+            assertThrows(IllegalArgumentException.class, () -> KeyFile.fixedWidth(path, 0));
+            assertThrows(IllegalArgumentException.class, () -> KeyFile.lines(path, 0));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
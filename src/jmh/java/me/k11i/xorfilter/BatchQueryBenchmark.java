@@ -0,0 +1,80 @@
+package me.k11i.xorfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+@SuppressWarnings("unused")
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class BatchQueryBenchmark {
+    private static final int NUM_QUERIES = 1 << 20;
+    private static final int QUERY_INDEX_MOD_MASK = NUM_QUERIES - 1;
+    private static final int BATCH_SIZE = 1 << 12;
+
+    @Param(value = {
+            "1000000",
+            "16000000",
+            "128000000",
+    })
+    private int numElements;
+
+    @Param(value = {
+            "MURMUR128_XOR8",
+            "MURMUR128_XOR16",
+            "MURMUR128_BINARY_FUSE8",
+            "MURMUR128_BINARY_FUSE16",
+    })
+    private XorFilter.Strategy strategy;
+
+    private LongXorFilter filter;
+    private long[] queries;
+    private long[] resultBitmap;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        long[] keys = new SplittableRandom(0).longs(numElements).toArray();
+        filter = LongXorFilter.build(keys, strategy);
+
+        // Half of the queries are contained in the filter.
+        SplittableRandom r = new SplittableRandom(1);
+        queries = new long[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries[i] = (i & 1) == 0 ? keys[r.nextInt(numElements)] : r.nextLong();
+        }
+
+        resultBitmap = new long[BATCH_SIZE / 64];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int mightContainLoop() {
+        int off = index;
+        index = (index + BATCH_SIZE) & QUERY_INDEX_MOD_MASK;
+
+        int count = 0;
+        for (int i = off; i < off + BATCH_SIZE; i++) {
+            if (filter.mightContain(queries[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long[] mightContainAll() {
+        int off = index;
+        index = (index + BATCH_SIZE) & QUERY_INDEX_MOD_MASK;
+
+        filter.mightContainAll(queries, off, BATCH_SIZE, resultBitmap);
+        return resultBitmap;
+    }
+}
@@ -0,0 +1,115 @@
+package me.k11i.xorfilter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Build time from 10^4 to 10^9 keys. Run with {@code -prof gc} to report the allocation per build; the
+ * {@code retries} counter is the number of the failed attempts of peeling per build.
+ */
+@SuppressWarnings("unused")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx32g")
+public class BuildBenchmark {
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Retries {
+        public long retries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retries = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OnHeap {
+        @Param(value = {
+                "10000",
+                "1000000",
+                "100000000",
+        })
+        private int numElements;
+
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_BINARY_FUSE8",
+                "MURMUR128_BLOCKED8",
+                "MURMUR128_XOR8_PLUS",
+        })
+        private XorFilter.Strategy strategy;
+
+        private long[] keys;
+
+        @Setup
+        public void setUp() {
+            keys = new SplittableRandom(0).longs(numElements).toArray();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OffHeap {
+        @Param(value = {
+                "100000000",
+                "1000000000",
+        })
+        private long numElements;
+
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_BINARY_FUSE8",
+        })
+        private XorFilter.Strategy strategy;
+    }
+
+    @Benchmark
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public LongXorFilter build(OnHeap state, Retries retries) {
+        LongXorFilter filter = LongXorFilter.build(state.keys, state.strategy, 12345);
+        retries.retries += filter.remix();
+        return filter;
+    }
+
+    @Benchmark
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public LongXorFilter buildWithLowMemory(OnHeap state, Retries retries) {
+        LongXorFilter filter = LongXorFilter.buildWithLowMemory(state.keys, state.strategy, 12345);
+        retries.retries += filter.remix();
+        return filter;
+    }
+
+    /**
+     * Builds a filter whose keys are generated on each pass instead of being held in memory, up to 10^9 keys.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long buildOffHeap(OffHeap state) {
+        long n = state.numElements;
+        try (OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(
+                () -> LongStream.range(0, n).map(i -> MurmurHashFinalizer.hash(0, i)),
+                state.strategy,
+                12345)) {
+            return filter.capacity();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package me.k11i.xorfilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the JMH results in CSV with a baseline, and exits with status 1 if any score is worse than that of the
+ * baseline by more than the threshold.
+ *
+ * <p>
+ * Usage: {@code CompareBenchmarkResults <baseline.csv> <results.csv> [threshold]}, where the threshold is the relative
+ * change, 0.1 by default. The rows are matched by the benchmark, the mode, the threads and the parameters. Higher is
+ * better for the throughput mode and lower is better for the others. Secondary results, such as those of
+ * {@code -prof gc} and the auxiliary counters, are not compared except for {@code gc.alloc.rate.norm}, and the rows
+ * missing from either file are listed but never fail the comparison.
+ * </p>
+ */
+public class CompareBenchmarkResults {
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: CompareBenchmarkResults <baseline.csv> <results.csv> [threshold]");
+            System.exit(2);
+        }
+
+        Path baselinePath = Paths.get(args[0]);
+        if (!Files.exists(baselinePath)) {
+            System.err.printf("No baseline at %s; save one with the jmhSaveBaseline task.%n", baselinePath);
+            System.exit(2);
+        }
+
+        Map<String, Row> baseline = read(baselinePath);
+        Map<String, Row> results = read(Paths.get(args[1]));
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : 0.1;
+
+        int regressions = 0;
+        for (Map.Entry<String, Row> e : results.entrySet()) {
+            Row current = e.getValue();
+            Row base = baseline.get(e.getKey());
+            if (base == null) {
+                System.out.printf("  NEW         %s: %.3f %s%n", e.getKey(), current.score, current.unit);
+                continue;
+            }
+
+            double change = (current.score - base.score) / base.score;
+            boolean regressed = current.higherIsBetter ? change < -threshold : change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%s %+8.1f%% %s: %.3f -> %.3f %s%n",
+                    regressed ? "! REGRESSED" : "  ok       ", change * 100, e.getKey(), base.score, current.score, current.unit);
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("  MISSING     %s%n", key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d of %d results regressed by more than %.1f%%%n", regressions, results.size(), threshold * 100);
+            System.exit(1);
+        }
+    }
+
+    static class Row {
+        final double score;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Row(double score, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    /**
+     * Reads the rows to compare, keyed by the benchmark, the mode, the threads and the parameters.
+     */
+    static Map<String, Row> read(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException("Empty results: " + path);
+        }
+
+        List<String> header = parseLine(lines.get(0));
+        int benchmark = columnOf(header, "Benchmark", path);
+        int mode = columnOf(header, "Mode", path);
+        int threads = columnOf(header, "Threads", path);
+        int score = columnOf(header, "Score", path);
+        int unit = columnOf(header, "Unit", path);
+
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> fields = parseLine(line);
+
+            String name = fields.get(benchmark);
+            boolean allocation = name.endsWith(ALLOCATION);
+            if (name.contains(":") && !allocation) {
+                continue;
+            }
+
+            // The parameters are sorted by name, so that the order of the columns does not matter.
+            Map<String, String> params = new TreeMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < fields.size() && !fields.get(i).isEmpty()) {
+                    params.put(header.get(i).substring("Param: ".length()), fields.get(i));
+                }
+            }
+
+            String key = String.format("%s [%s, %s threads] %s", name, fields.get(mode), fields.get(threads), params);
+            boolean higherIsBetter = !allocation && fields.get(mode).equals("thrpt");
+            rows.put(key, new Row(Double.parseDouble(fields.get(score)), fields.get(unit), higherIsBetter));
+        }
+        return rows;
+    }
+
+    private static int columnOf(List<String> header, String name, Path path) throws IOException {
+        int i = header.indexOf(name);
+        if (i < 0) {
+            throw new IOException(String.format("No column %s in %s", name, path));
+        }
+        return i;
+    }
+
+    /**
+     * Splits a line of CSV, in which the fields may be quoted with double quotes.
+     */
+    static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
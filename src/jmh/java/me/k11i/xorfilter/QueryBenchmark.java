@@ -9,6 +9,7 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.SplittableRandom;
@@ -53,6 +54,62 @@ public class QueryBenchmark {
             <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
                 return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_XOR16);
             }
+        },
+
+        BINARY_FUSE_8 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_BINARY_FUSE8);
+            }
+        },
+
+        BINARY_FUSE_16 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_BINARY_FUSE16);
+            }
+        },
+
+        XOR_12 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_XOR12);
+            }
+        },
+
+        BINARY_FUSE_12 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_BINARY_FUSE12);
+            }
+        },
+
+        XXH3_XOR_8 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.XXH3_XOR8);
+            }
+        },
+
+        WYHASH_XOR_8 {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.WYHASH_XOR8);
+            }
+        },
+
+        XOR_8_PLUS {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_XOR8_PLUS);
+            }
+        },
+
+        XOR_16_PLUS {
+            @Override
+            <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements) {
+                return XorFilter.build(funnel, elements, XorFilter.Strategy.MURMUR128_XOR16_PLUS);
+            }
         };
 
         abstract <T> Predicate<T> buildFilter(Funnel<? super T> funnel, List<T> elements);
@@ -67,6 +124,14 @@ public class QueryBenchmark {
                 "BLOOM_FILTER_FPP00002",
                 "XOR_8",
                 "XOR_16",
+                "BINARY_FUSE_8",
+                "BINARY_FUSE_16",
+                "XOR_12",
+                "BINARY_FUSE_12",
+                "XXH3_XOR_8",
+                "WYHASH_XOR_8",
+                "XOR_8_PLUS",
+                "XOR_16_PLUS",
         })
         private FilterFactory filterFactory;
 
@@ -106,6 +171,14 @@ public class QueryBenchmark {
                 "BLOOM_FILTER_FPP00002",
                 "XOR_8",
                 "XOR_16",
+                "BINARY_FUSE_8",
+                "BINARY_FUSE_16",
+                "XOR_12",
+                "BINARY_FUSE_12",
+                "XXH3_XOR_8",
+                "WYHASH_XOR_8",
+                "XOR_8_PLUS",
+                "XOR_16_PLUS",
         })
         private FilterFactory filterFactory;
 
@@ -135,4 +208,130 @@ public class QueryBenchmark {
             return filter.test(query);
         }
     }
+
+    @State(Scope.Benchmark)
+    public static class QueryPrimitiveLongBenchmark {
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_XOR16",
+                "MURMUR128_BINARY_FUSE8",
+                "MURMUR128_BINARY_FUSE16",
+                "MURMUR128_XOR12",
+                "MURMUR128_XOR32",
+                "XXH3_XOR8",
+                "WYHASH_XOR8",
+                "MURMUR128_BLOCKED8",
+                "MURMUR128_XOR8_PLUS",
+        })
+        private XorFilter.Strategy strategy;
+
+        private LongXorFilter filter;
+        private long[] longs;
+        private int index;
+
+        @Setup
+        public void setUp() {
+            longs = new SplittableRandom(0).longs()
+                    .limit(NUM_ELEMENTS)
+                    .toArray();
+
+            filter = LongXorFilter.build(
+                    IntStream.range(0, longs.length / 2)
+                            .mapToLong(i -> longs[i * 2])
+                            .toArray(),
+                    strategy);
+        }
+
+        @Benchmark
+        public boolean benchmark() {
+            long query = longs[index];
+            index = (index + 1) & INDEX_MOD_MASK;
+            return filter.mightContain(query);
+        }
+    }
+
+    /**
+     * Random lookups of a filter much larger than the CPU caches, where each slot read is a cache miss.
+     */
+    @State(Scope.Benchmark)
+    public static class QueryLargeFilterBenchmark {
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_BINARY_FUSE8",
+                "MURMUR128_BLOCKED8",
+        })
+        private XorFilter.Strategy strategy;
+
+        @Param(value = {"67108864"})
+        private int numKeys;
+
+        private LongXorFilter filter;
+        private long[] queries;
+        private int index;
+
+        @Setup
+        public void setUp() {
+            long[] keys = new SplittableRandom(0).longs()
+                    .limit(numKeys)
+                    .toArray();
+            filter = LongXorFilter.build(keys, strategy);
+
+            // Half of the queries are keys.
+            SplittableRandom r = new SplittableRandom(1);
+            queries = new long[NUM_ELEMENTS];
+            for (int i = 0; i < NUM_ELEMENTS; i++) {
+                queries[i] = (i & 1) == 0 ? keys[r.nextInt(numKeys)] : r.nextLong();
+            }
+        }
+
+        @Benchmark
+        public boolean benchmark() {
+            long query = queries[index];
+            index = (index + 1) & INDEX_MOD_MASK;
+            return filter.mightContain(query);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueryByteBufferBenchmark {
+        private static final int KEY_LENGTH = 20;
+
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "XXH3_XOR8",
+                "WYHASH_XOR8",
+        })
+        private XorFilter.Strategy strategy;
+
+        private BytesXorFilter filter;
+        private ByteBuffer buffer;
+        private int index;
+
+        @Setup
+        public void setUp() {
+            // The keys are laid out back to back, as in a network buffer.
+            buffer = ByteBuffer.allocateDirect(NUM_ELEMENTS * KEY_LENGTH);
+            LongStream.range(0, NUM_ELEMENTS)
+                    .map(l -> l * 0x9e3779b97f4a7c15L)
+                    .mapToObj(l -> String.format("%020d", l))
+                    .forEach(s -> buffer.put(s.getBytes(StandardCharsets.US_ASCII)));
+
+            filter = BytesXorFilter.buildFromByteBuffers(
+                    IntStream.range(0, NUM_ELEMENTS / 2)
+                            .mapToObj(i -> {
+                                ByteBuffer key = buffer.duplicate();
+                                key.limit(i * 2 * KEY_LENGTH + KEY_LENGTH).position(i * 2 * KEY_LENGTH);
+                                return key;
+                            })
+                            .collect(Collectors.toList()),
+                    strategy);
+        }
+
+        @Benchmark
+        public boolean benchmark() {
+            int off = index * KEY_LENGTH;
+            index = (index + 1) & INDEX_MOD_MASK;
+            return filter.mightContain(buffer, off, KEY_LENGTH);
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package me.k11i.xorfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.SplittableRandom;
+
+/**
+ * Queries of filters that fit in the L2 cache, in the L3 cache and only in DRAM, by one thread and by as many threads
+ * as the CPUs. Each thread has its own queries and index, so that the threads share nothing but the filter.
+ */
+@SuppressWarnings("unused")
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class ScalingQueryBenchmark {
+    private static final int NUM_QUERIES = 1 << 16;
+    private static final int QUERY_INDEX_MOD_MASK = NUM_QUERIES - 1;
+    private static final int BATCH_SIZE = 1 << 10;
+
+    @State(Scope.Benchmark)
+    public static class Filter {
+        @Param(value = {
+                "10000",
+                "1000000",
+                "100000000",
+        })
+        private int numElements;
+
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_BINARY_FUSE8",
+                "MURMUR128_BLOCKED8",
+                "MURMUR128_XOR8_PLUS",
+        })
+        private XorFilter.Strategy strategy;
+
+        private long[] keys;
+        private LongXorFilter filter;
+
+        @Setup
+        public void setUp() {
+            keys = new SplittableRandom(0).longs(numElements).toArray();
+            filter = LongXorFilter.build(keys, strategy, 12345);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Queries {
+        private long[] queries;
+        private long[] resultBitmap;
+        private int index;
+
+        @Setup
+        public void setUp(Filter filter) {
+            // Half of the queries are contained in the filter, and each thread has a different sequence.
+            SplittableRandom r = new SplittableRandom(Thread.currentThread().getId());
+            queries = new long[NUM_QUERIES];
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                queries[i] = (i & 1) == 0 ? filter.keys[r.nextInt(filter.numElements)] : r.nextLong();
+            }
+            index = r.nextInt(NUM_QUERIES);
+            resultBitmap = new long[BATCH_SIZE / 64];
+        }
+
+        long next() {
+            long query = queries[index];
+            index = (index + 1) & QUERY_INDEX_MOD_MASK;
+            return query;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean mightContain(Filter filter, Queries queries) {
+        return filter.filter.mightContain(queries.next());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean mightContainConcurrently(Filter filter, Queries queries) {
+        return filter.filter.mightContain(queries.next());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long[] mightContainAllConcurrently(Filter filter, Queries queries) {
+        int off = queries.index & -BATCH_SIZE;
+        queries.index = (off + BATCH_SIZE) & QUERY_INDEX_MOD_MASK;
+
+        filter.filter.mightContainAll(queries.queries, off, BATCH_SIZE, queries.resultBitmap);
+        return queries.resultBitmap;
+    }
+}
@@ -0,0 +1,159 @@
+package me.k11i.xorfilter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@code writeTo}, {@code readFrom} and {@code map}. The {@code bytes} counter is the number of the
+ * serialized bytes per second.
+ */
+@SuppressWarnings("unused")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SerializationBenchmark {
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Serialized {
+        @Param(value = {
+                "1000000",
+                "100000000",
+        })
+        private int numElements;
+
+        @Param(value = {
+                "MURMUR128_XOR8",
+                "MURMUR128_XOR16",
+                "MURMUR128_XOR8_PLUS",
+        })
+        private XorFilter.Strategy strategy;
+
+        private LongXorFilter filter;
+        private ByteBuffer serialized;
+        private Path path;
+
+        @Setup
+        public void setUp() throws IOException {
+            filter = LongXorFilter.build(new SplittableRandom(0).longs(numElements).toArray(), strategy, 12345);
+
+            path = Files.createTempFile("xor-filter", ".bin");
+            try (OutputStream out = Files.newOutputStream(path)) {
+                filter.writeTo(out);
+            }
+            serialized = ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Discards the written bytes, so that only the serialization is measured.
+     */
+    private static class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Reads from a slice of the serialized bytes without copying them.
+     */
+    private static class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer buffer;
+
+        BufferChannel(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), buffer.remaining());
+            ByteBuffer src = buffer.duplicate();
+            src.limit(src.position() + n);
+            dst.put(src);
+            buffer.position(buffer.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Benchmark
+    public void writeTo(Serialized state, Bytes bytes) throws IOException {
+        state.filter.writeTo(new NullChannel());
+        bytes.bytes += state.serialized.capacity();
+    }
+
+    @Benchmark
+    public LongXorFilter readFrom(Serialized state, Bytes bytes) throws IOException {
+        LongXorFilter filter = LongXorFilter.readFrom(new BufferChannel(state.serialized));
+        bytes.bytes += state.serialized.capacity();
+        return filter;
+    }
+
+    @Benchmark
+    public LongXorFilter map(Serialized state, Bytes bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(state.path, StandardOpenOption.READ)) {
+            LongXorFilter filter = LongXorFilter.map(channel);
+            bytes.bytes += state.serialized.capacity();
+            return filter;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package me.k11i.xorfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+/**
+ * Compares the scalar and the Vector API hashing of {@link LongXorFilter#mightContainAll(long[], int, int, long[])}
+ * on filters that fit in the CPU cache, where hashing dominates. Requires Java 16 or later.
+ */
+@SuppressWarnings("unused")
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorBatchQueryBenchmark {
+    private static final int NUM_QUERIES = 1 << 16;
+    private static final int QUERY_INDEX_MOD_MASK = NUM_QUERIES - 1;
+    private static final int BATCH_SIZE = 1 << 12;
+
+    @Param(value = {
+            "10000",
+            "100000",
+    })
+    private int numElements;
+
+    @Param(value = {
+            "MURMUR128_XOR8",
+            "MURMUR128_BINARY_FUSE8",
+    })
+    private XorFilter.Strategy strategy;
+
+    @Param(value = {
+            "SCALAR",
+            "VECTOR",
+    })
+    private String hasherType;
+
+    private LongBatchHasher hasher;
+    private LongXorFilter filter;
+    private long[] queries;
+    private long[] xs;
+    private long[] resultBitmap;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        if (hasherType.equals("VECTOR")) {
+            if (!LongBatchHasher.PREFERRED.isVectorized()) {
+                throw new IllegalStateException("The Vector API is not available");
+            }
+            hasher = LongBatchHasher.PREFERRED;
+        } else {
+            hasher = LongBatchHasher.SCALAR;
+        }
+
+        long[] keys = new SplittableRandom(0).longs(numElements).toArray();
+        filter = LongXorFilter.build(keys, strategy);
+
+        // Half of the queries are contained in the filter.
+        SplittableRandom r = new SplittableRandom(1);
+        queries = new long[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries[i] = (i & 1) == 0 ? keys[r.nextInt(numElements)] : r.nextLong();
+        }
+
+        xs = new long[BATCH_SIZE];
+        resultBitmap = new long[BATCH_SIZE / 64];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long[] hashAll() {
+        int off = index;
+        index = (index + BATCH_SIZE) & QUERY_INDEX_MOD_MASK;
+
+        hasher.hashAll(strategy.hashing, 12345, 0, queries, off, BATCH_SIZE, xs);
+        return xs;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long[] mightContainAll() {
+        int off = index;
+        index = (index + BATCH_SIZE) & QUERY_INDEX_MOD_MASK;
+
+        filter.mightContainAll(queries, off, BATCH_SIZE, resultBitmap, hasher);
+        return resultBitmap;
+    }
+}
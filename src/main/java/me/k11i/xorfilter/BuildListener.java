@@ -0,0 +1,24 @@
+package me.k11i.xorfilter;
+
+/**
+ * Receives the progress and the statistics of an asynchronous build, on the thread that runs the build.
+ *
+ * @see XorFilter#buildAsync(com.google.common.hash.Funnel, java.util.Collection, XorFilter.Strategy, int,
+ * java.util.concurrent.Executor, BuildListener)
+ */
+public interface BuildListener {
+    /**
+     * Called at the start of each phase and periodically while peeling and assigning, with the completed fraction of
+     * the phase.
+     *
+     * @param attempt number of the peeling attempt, starting at 1
+     */
+    default void onProgress(BuildStats.Phase phase, int attempt, double fraction) {
+    }
+
+    /**
+     * Called once the filter has been built, before the future completes.
+     */
+    default void onComplete(BuildStats stats) {
+    }
+}
@@ -0,0 +1,134 @@
+package me.k11i.xorfilter;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Collects the {@link BuildStats} of a build. The build of {@link #supplyAsync(Executor, BuildListener, Function)}
+ * also reports its progress to the listener, and is aborted by {@link #poll(BuildStats.Phase, long, long)} once its
+ * future has been cancelled or its thread interrupted.
+ */
+class BuildMonitor {
+    /**
+     * Number of the peeled or assigned elements between polls, which keeps the cost of polling negligible.
+     */
+    static final int POLL_INTERVAL_MASK = (1 << 16) - 1;
+
+    /**
+     * Runs {@code build} on {@code executor}. Cancelling the future stops the build at the next poll.
+     */
+    static <R> CompletableFuture<R> supplyAsync(Executor executor, BuildListener listener, Function<BuildMonitor, R> build) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(build.apply(new BuildMonitor(future, listener)));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private final CompletableFuture<?> future;
+    private final BuildListener listener;
+    private final long startNanos = System.nanoTime();
+    private long phaseStartNanos;
+
+    private int attempts;
+    private int reseeds;
+    private int distinctElements;
+    private long hashingNanos;
+    private long sortingNanos;
+    private long peelingNanos;
+    private long assigningNanos;
+
+    /**
+     * Creates the monitor of a synchronous build, which only collects the statistics.
+     */
+    BuildMonitor() {
+        this(null, null);
+    }
+
+    private BuildMonitor(CompletableFuture<?> future, BuildListener listener) {
+        this.future = future;
+        this.listener = listener;
+    }
+
+    /**
+     * Throws {@link CancellationException} if the build has been cancelled, and reports the progress otherwise.
+     */
+    void poll(BuildStats.Phase phase, long done, long total) {
+        if (future == null) {
+            return;
+        }
+        if (future.isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The build has been cancelled");
+        }
+        if (listener != null) {
+            listener.onProgress(phase, Math.max(attempts, 1), total == 0 ? 1.0 : Math.min((double) done / total, 1.0));
+        }
+    }
+
+    int distinctElements() {
+        return distinctElements;
+    }
+
+    void startHashing(boolean reseed) {
+        if (reseed) {
+            reseeds++;
+        }
+        poll(BuildStats.Phase.HASHING, 0, 1);
+        phaseStartNanos = System.nanoTime();
+    }
+
+    void endHashing(HashedElements hashedElements) {
+        hashingNanos += System.nanoTime() - phaseStartNanos;
+        distinctElements = hashedElements.size();
+        sortingNanos = hashedElements.sortNanos();
+    }
+
+    void startPeeling() {
+        attempts++;
+        poll(BuildStats.Phase.PEELING, 0, 1);
+        phaseStartNanos = System.nanoTime();
+    }
+
+    void endPeeling() {
+        peelingNanos += System.nanoTime() - phaseStartNanos;
+    }
+
+    void startAssigning() {
+        poll(BuildStats.Phase.ASSIGNING, 0, 1);
+        phaseStartNanos = System.nanoTime();
+    }
+
+    void endAssigning() {
+        assigningNanos += System.nanoTime() - phaseStartNanos;
+    }
+
+    /**
+     * Reports the statistics to the listener, and returns them.
+     */
+    BuildStats complete(int numElements, long estimatedScratchBytes) {
+        BuildStats stats = new BuildStats(
+                numElements,
+                distinctElements,
+                attempts,
+                reseeds,
+                hashingNanos - sortingNanos,
+                sortingNanos,
+                peelingNanos,
+                assigningNanos,
+                System.nanoTime() - startNanos,
+                estimatedScratchBytes);
+        if (listener != null) {
+            listener.onComplete(stats);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,134 @@
+package me.k11i.xorfilter;
+
+/**
+ * Statistics of a build by {@link XorFilter#buildAsync(com.google.common.hash.Funnel, java.util.Collection,
+ * XorFilter.Strategy, int, java.util.concurrent.Executor, BuildListener)}.
+ */
+public final class BuildStats {
+    /**
+     * Phases of a build. Hashing and peeling are repeated if peeling fails.
+     */
+    public enum Phase {
+        /** Hashing the elements, or remixing the hashed elements after a failed attempt, and sorting them. */
+        HASHING,
+        /** Finding the peeling order of the hashed elements. */
+        PEELING,
+        /** Assigning the values in the peeling order. */
+        ASSIGNING,
+    }
+
+    private final int numElements;
+    private final int distinctElements;
+    private final int attempts;
+    private final int reseeds;
+    private final long hashingNanos;
+    private final long sortingNanos;
+    private final long peelingNanos;
+    private final long assigningNanos;
+    private final long totalNanos;
+    private final long estimatedScratchBytes;
+
+    BuildStats(
+            int numElements,
+            int distinctElements,
+            int attempts,
+            int reseeds,
+            long hashingNanos,
+            long sortingNanos,
+            long peelingNanos,
+            long assigningNanos,
+            long totalNanos,
+            long estimatedScratchBytes) {
+
+        this.numElements = numElements;
+        this.distinctElements = distinctElements;
+        this.attempts = attempts;
+        this.reseeds = reseeds;
+        this.hashingNanos = hashingNanos;
+        this.sortingNanos = sortingNanos;
+        this.peelingNanos = peelingNanos;
+        this.assigningNanos = assigningNanos;
+        this.totalNanos = totalNanos;
+        this.estimatedScratchBytes = estimatedScratchBytes;
+    }
+
+    public int numElements() {
+        return numElements;
+    }
+
+    /**
+     * Returns the number of the distinct hashed elements, i.e. the elements less the duplicates that have been dropped.
+     */
+    public int distinctElements() {
+        return distinctElements;
+    }
+
+    /**
+     * Returns the number of the peeling attempts, which is 1 unless peeling has failed.
+     */
+    public int attempts() {
+        return attempts;
+    }
+
+    public int retries() {
+        return attempts - 1;
+    }
+
+    /**
+     * Returns the number of times the elements have been hashed again with a new seed, which happens only after
+     * {@code 255} remixes of the hashed elements have failed.
+     */
+    public int reseeds() {
+        return reseeds;
+    }
+
+    /**
+     * Returns the time of hashing and remixing, excluding {@link #sortingNanos()}.
+     */
+    public long hashingNanos() {
+        return hashingNanos;
+    }
+
+    /**
+     * Returns the time of sorting and deduplicating the hashed elements.
+     */
+    public long sortingNanos() {
+        return sortingNanos;
+    }
+
+    public long peelingNanos() {
+        return peelingNanos;
+    }
+
+    public long assigningNanos() {
+        return assigningNanos;
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the number of bytes of the scratch arrays, as estimated from the number of the elements by
+     * {@link XorFilter#scratchBytes(int, XorFilter.Strategy, boolean)}; the memory actually allocated is not measured.
+     */
+    public long estimatedScratchBytes() {
+        return estimatedScratchBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BuildStats{" +
+                "numElements=" + numElements +
+                ", distinctElements=" + distinctElements +
+                ", attempts=" + attempts +
+                ", reseeds=" + reseeds +
+                ", hashingNanos=" + hashingNanos +
+                ", sortingNanos=" + sortingNanos +
+                ", peelingNanos=" + peelingNanos +
+                ", assigningNanos=" + assigningNanos +
+                ", totalNanos=" + totalNanos +
+                ", estimatedScratchBytes=" + estimatedScratchBytes +
+                '}';
+    }
+}
@@ -0,0 +1,237 @@
+package me.k11i.xorfilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Xor filter specialized for keys that are sequences of bytes.
+ *
+ * <p>
+ * Keys are hashed in place, so the slice of a {@code byte[]} or a {@link ByteBuffer} is queried without copying it
+ * into a new object, and none of the {@code mightContain} methods allocates.
+ * A {@link CharSequence} is the key of its UTF-8 bytes.
+ * The hashes are the same as those of {@link XorFilter} with {@code Funnels.byteArrayFunnel()}, but the serialized
+ * form records the class that wrote it, and each class reads only its own filters.
+ * </p>
+ */
+public class BytesXorFilter implements Predicate<byte[]> {
+    public static BytesXorFilter build(Collection<byte[]> keys, XorFilter.Strategy strategy) {
+        return build(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    public static BytesXorFilter build(Collection<byte[]> keys, XorFilter.Strategy strategy, int rngSeed) {
+        return build(keys, seed -> key -> strategy.hashing.hash(seed, key, 0, key.length), strategy, rngSeed);
+    }
+
+    public static BytesXorFilter buildFromByteBuffers(Collection<ByteBuffer> keys, XorFilter.Strategy strategy) {
+        return buildFromByteBuffers(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Builds the filter of the remaining bytes of each buffer. The positions of the buffers are not changed.
+     */
+    public static BytesXorFilter buildFromByteBuffers(Collection<ByteBuffer> keys, XorFilter.Strategy strategy, int rngSeed) {
+        return build(keys, seed -> key -> hash(strategy, seed, key, key.position(), key.remaining()), strategy, rngSeed);
+    }
+
+    public static BytesXorFilter buildFromStrings(Collection<? extends CharSequence> keys, XorFilter.Strategy strategy) {
+        return buildFromStrings(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Builds the filter of the UTF-8 bytes of each string.
+     */
+    public static BytesXorFilter buildFromStrings(Collection<? extends CharSequence> keys, XorFilter.Strategy strategy, int rngSeed) {
+        return build(keys, seed -> key -> hash(strategy, seed, key), strategy, rngSeed);
+    }
+
+    private interface KeyHasherFactory<T> {
+        ToLongFunction<T> newKeyHasher(int seed);
+    }
+
+    private static <T> BytesXorFilter build(
+            Collection<T> keys,
+            KeyHasherFactory<? super T> keyHasherFactory,
+            XorFilter.Strategy strategy,
+            int rngSeed) {
+
+        SlotLayout layout = strategy.newLayout(keys.size());
+        Mapping mapping = XorFilter.buildMapping(
+                keys.size(),
+                (seed, hashedElements) -> {
+                    ToLongFunction<? super T> keyHasher = keyHasherFactory.newKeyHasher(seed);
+                    hashedElements.hashAll(keyHasher::applyAsLong, keys);
+                },
+                layout,
+                rngSeed,
+                false);
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+        return new BytesXorFilter(strategy, mapping.seed, mapping.remix, b);
+    }
+
+    private static long hash(XorFilter.Strategy strategy, long seed, ByteBuffer buffer, int off, int len) {
+        if (buffer.hasArray()) {
+            return strategy.hashing.hash(seed, buffer.array(), buffer.arrayOffset() + off, len);
+        }
+        FunnelSink sink = FunnelSink.get().putBytes(buffer, off, len);
+        return strategy.hashing.hash(seed, sink.bytes(), 0, sink.size());
+    }
+
+    private static long hash(XorFilter.Strategy strategy, long seed, CharSequence key) {
+        FunnelSink sink = FunnelSink.get();
+        sink.putString(key, StandardCharsets.UTF_8);
+        return strategy.hashing.hash(seed, sink.bytes(), 0, sink.size());
+    }
+
+    // ---
+
+    private final XorFilter.Strategy strategy;
+    private final int seed;
+    private final int remix;
+    private final KBitValueArray b;
+
+    private BytesXorFilter(XorFilter.Strategy strategy, int seed, int remix, KBitValueArray b) {
+        this.strategy = strategy;
+        this.seed = seed;
+        this.remix = remix;
+        this.b = b;
+    }
+
+    private boolean mightContainHash(long hash) {
+        return b.contains(MurmurHashFinalizer.remix(hash, remix));
+    }
+
+    public boolean mightContain(byte[] key) {
+        return mightContain(key, 0, key.length);
+    }
+
+    public boolean mightContain(byte[] key, int off, int len) {
+        if (off < 0 || len < 0 || off > key.length - len) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "off: %d, len: %d, key.length: %d", off, len, key.length));
+        }
+        return mightContainHash(strategy.hashing.hash(seed, key, off, len));
+    }
+
+    /**
+     * Tests the {@code len} bytes of {@code buffer} from the absolute index {@code off}, without changing its
+     * position.
+     */
+    public boolean mightContain(ByteBuffer buffer, int off, int len) {
+        if (off < 0 || len < 0 || off > buffer.limit() - len) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "off: %d, len: %d, buffer.limit(): %d", off, len, buffer.limit()));
+        }
+        return mightContainHash(hash(strategy, seed, buffer, off, len));
+    }
+
+    /**
+     * Tests the UTF-8 bytes of {@code key}.
+     */
+    public boolean mightContain(CharSequence key) {
+        return mightContainHash(hash(strategy, seed, key));
+    }
+
+    @Override
+    public boolean test(byte[] key) {
+        return mightContain(key);
+    }
+
+    /**
+     * @see XorFilter#writeTo(OutputStream)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeTo(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#writeTo(WritableByteChannel)
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        serializedForm().writeTo(out);
+    }
+
+    /**
+     * @see XorFilter#readFrom(InputStream, com.google.common.hash.Funnel)
+     */
+    public static BytesXorFilter readFrom(InputStream in) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(in)) {
+            return readFrom(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#readFrom(ReadableByteChannel, com.google.common.hash.Funnel)
+     */
+    public static BytesXorFilter readFrom(ReadableByteChannel in) throws IOException {
+        SerializedForm form = SerializedForm.readFrom(in, SerializedForm.KeyKind.BYTES);
+        return of(form);
+    }
+
+    /**
+     * @see XorFilter#map(Path, com.google.common.hash.Funnel)
+     */
+    public static BytesXorFilter map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#map(FileChannel, com.google.common.hash.Funnel)
+     */
+    public static BytesXorFilter map(FileChannel channel) throws IOException {
+        SerializedForm form = SerializedForm.map(channel, SerializedForm.KeyKind.BYTES);
+        return of(form);
+    }
+
+    static BytesXorFilter of(SerializedForm form) {
+        return new BytesXorFilter(form.strategy, form.seed, form.remix, form.b);
+    }
+
+    SerializedForm serializedForm() {
+        return new SerializedForm(SerializedForm.KeyKind.BYTES, strategy, seed, remix, b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BytesXorFilter that = (BytesXorFilter) o;
+        return seed == that.seed &&
+                remix == that.remix &&
+                strategy == that.strategy &&
+                Objects.equals(b, that.b);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(strategy, seed, remix, b);
+    }
+
+    @Override
+    public String toString() {
+        return "BytesXorFilter{" +
+                "strategy=" + strategy +
+                ", seed=" + seed +
+                ", remix=" + remix +
+                ", b=" + b +
+                '}';
+    }
+}
@@ -0,0 +1,59 @@
+package me.k11i.xorfilter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases the native memory of direct buffers without waiting for them to be garbage collected.
+ */
+final class DirectBuffers {
+    private interface Releaser {
+        void release(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private static final Releaser RELEASER = newReleaser();
+
+    private DirectBuffers() {
+    }
+
+    private static Releaser newReleaser() {
+        try {
+            // Java 9 or later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+            return buffer -> {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            };
+        }
+    }
+
+    /**
+     * Releases the memory of {@code buffer}, which must be a buffer returned by {@link ByteBuffer#allocateDirect(int)}
+     * or {@link java.nio.channels.FileChannel#map} rather than a view of it; a mapped buffer is unmapped.
+     * The buffer must not be accessed afterwards.
+     * If the memory cannot be released explicitly, it is left to the garbage collector.
+     */
+    static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        try {
+            RELEASER.release(buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Released when the buffer is garbage collected.
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Filter that grows by inserts, as a stack of immutable xor filters.
+ *
+ * <p>
+ * Each element is hashed once with a seed fixed for the lifetime of the filter, and the hashed element is added to a
+ * small buffer, which is queried exactly. When the buffer fills up, its hashed elements are frozen into a new level.
+ * A background thread builds the filter of each new level and merges the levels of similar sizes from their hashed
+ * elements, so the elements themselves are never hashed again. A query checks the buffer and every level.
+ * </p>
+ *
+ * <p>
+ * Levels are merged when the older one has at most twice the elements of the newer one, and the newest levels are
+ * merged whenever there are more than {@code maxLevels} of them, so the false positive rate, about the sum of those of
+ * the levels, stays below {@code maxLevels + 1} times that of a single level.
+ * Once the filter of a level has been built, its hashed elements are written to a temporary file in the given
+ * directory and dropped from memory, and they are read back only to merge the level. The memory is thus that of the
+ * values, about 9.84 bits per element for 8-bit values, and of the buffer; the files take 8 bytes per element on disk
+ * until {@link #close()} deletes them. Use {@link XorFilter} if the elements are known up front.
+ * </p>
+ *
+ * <p>
+ * The methods may be called concurrently. Inserts are serialized by a lock, but queries never take it: the buffer
+ * and the levels are read without locking, and a frozen buffer is replaced by a new one rather than cleared.
+ * </p>
+ */
+public class DynamicXorFilter<T> implements Predicate<T>, Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int DEFAULT_MAX_LEVELS = 4;
+
+    /** Levels are merged while the older one has at most this many times the elements of the newer one. */
+    private static final int MERGE_RATIO = 2;
+
+    public static <T> DynamicXorFilter<T> create(Funnel<? super T> funnel, XorFilter.Strategy strategy) {
+        return create(funnel, strategy, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_LEVELS);
+    }
+
+    /**
+     * Creates the filter whose files of the hashed elements are in the directory of {@code java.io.tmpdir}.
+     */
+    public static <T> DynamicXorFilter<T> create(
+            Funnel<? super T> funnel,
+            XorFilter.Strategy strategy,
+            int bufferSize,
+            int maxLevels) {
+
+        return create(funnel, strategy, bufferSize, maxLevels, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param bufferSize number of the hashed elements that the buffer holds before it is frozen into a level
+     * @param maxLevels  number of the levels above which the newest levels are merged regardless of their sizes
+     * @param directory  directory of the temporary files of the hashed elements of the levels
+     */
+    public static <T> DynamicXorFilter<T> create(
+            Funnel<? super T> funnel,
+            XorFilter.Strategy strategy,
+            int bufferSize,
+            int maxLevels,
+            Path directory) {
+
+        if (bufferSize <= 0 || bufferSize > 1 << 29) {
+            throw new IllegalArgumentException("bufferSize must be in the range of 1 to 2^29: " + bufferSize);
+        }
+        if (maxLevels <= 0) {
+            throw new IllegalArgumentException("maxLevels must be positive: " + maxLevels);
+        }
+        return new DynamicXorFilter<>(
+                funnel, strategy, ThreadLocalRandom.current().nextInt(), bufferSize, maxLevels, directory);
+    }
+
+    // ---
+
+    private final XorFilter.Strategy strategy;
+    private final ToLongFunction<T> elementHasher;
+    private final int bufferSize;
+    private final int maxLevels;
+    private final Path directory;
+    private final SplittableRandom r;
+    private final ExecutorService compactor;
+    private final Object lock = new Object();
+
+    /**
+     * Added to in {@link #lock}, and replaced by an empty one after {@link #levels} when it is frozen, so that a query
+     * that misses a frozen element in the new buffer finds it in the levels.
+     */
+    private volatile LongHashSet buffer;
+    /** Replaced as a whole, in {@link #lock}. The oldest level comes first. */
+    private volatile Level[] levels = new Level[0];
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    private DynamicXorFilter(
+            Funnel<? super T> funnel,
+            XorFilter.Strategy strategy,
+            int seed,
+            int bufferSize,
+            int maxLevels,
+            Path directory) {
+
+        this.strategy = strategy;
+        this.elementHasher = strategy.newElementHasher(seed, funnel);
+        this.bufferSize = bufferSize;
+        this.maxLevels = maxLevels;
+        this.directory = directory;
+        this.r = new SplittableRandom(seed);
+        this.buffer = new LongHashSet(bufferSize);
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DynamicXorFilter-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Inserts {@code element}.
+     *
+     * @throws IllegalStateException if the filter has been closed, or a background compaction has failed
+     */
+    public void put(T element) {
+        long x = elementHasher.applyAsLong(element);
+
+        synchronized (lock) {
+            checkState();
+            LongHashSet buffer = this.buffer;
+            if (buffer.add(x) && buffer.size() == bufferSize) {
+                Level[] levels = Arrays.copyOf(this.levels, this.levels.length + 1);
+                levels[levels.length - 1] = new Level(buffer.toSortedArray());
+                this.levels = levels;
+                this.buffer = new LongHashSet(bufferSize);
+                compactor.execute(this::compact);
+            }
+        }
+    }
+
+    public void putAll(Collection<? extends T> elements) {
+        for (T element : elements) {
+            put(element);
+        }
+    }
+
+    public boolean mightContain(T element) {
+        long x = elementHasher.applyAsLong(element);
+
+        // The buffer is read before the levels: a frozen buffer is never changed again, and the buffer that replaced
+        // it was published after the level of its elements.
+        if (buffer.contains(x)) {
+            return true;
+        }
+        for (Level level : levels) {
+            if (level.contains(x)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean test(T t) {
+        return mightContain(t);
+    }
+
+    /**
+     * Returns the number of the levels, not including the buffer.
+     */
+    public int numLevels() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the number of the hashed elements in the buffer and the levels. An element inserted again after it has
+     * left the buffer is counted more than once, until the levels that hold it are merged.
+     */
+    public long size() {
+        synchronized (lock) {
+            long size = buffer.size();
+            for (Level level : levels) {
+                size += level.size;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Waits until the background thread has built and merged all the levels frozen so far.
+     *
+     * @throws IllegalStateException if the filter has been closed, or a background compaction has failed
+     */
+    public void awaitCompaction() throws InterruptedException {
+        checkState();
+        try {
+            compactor.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        checkState();
+    }
+
+    /**
+     * Stops the background thread, after the merge in progress, and deletes the files of the hashed elements.
+     * The filter can still be queried, but no longer inserted into. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        compactor.shutdownNow();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Level level : levels) {
+            level.deleteFile();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkState() {
+        if (closed) {
+            throw new IllegalStateException("The filter has been closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("A background compaction has failed", failure);
+        }
+    }
+
+    private void compact() {
+        try {
+            while (!closed && compactOnce()) {
+                // Repeat until there is nothing left to merge or to build.
+            }
+        } catch (IOException e) {
+            failure = new UncheckedIOException(e);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Merges the newest pair of adjacent levels of similar sizes, or the adjacent pair of the fewest elements if there
+     * are more than {@code maxLevels} levels, or else builds the oldest level that has no filter yet.
+     * Only this method replaces levels, and inserts only append them, so the indexes of the levels it sees stay valid.
+     */
+    private boolean compactOnce() throws IOException {
+        Level[] levels = this.levels;
+
+        for (int i = levels.length - 2; i >= 0; i--) {
+            if (levels[i].size <= (long) MERGE_RATIO * levels[i + 1].size) {
+                merge(levels, i);
+                return true;
+            }
+        }
+
+        if (levels.length > maxLevels) {
+            int smallest = 0;
+            for (int i = 1; i < levels.length - 1; i++) {
+                if ((long) levels[i].size + levels[i + 1].size < (long) levels[smallest].size + levels[smallest + 1].size) {
+                    smallest = i;
+                }
+            }
+            merge(levels, smallest);
+            return true;
+        }
+
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i].b == null) {
+                replace(i, 1, build(levels[i].hashes));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces {@code levels[i]} and {@code levels[i + 1]} by the level of their hashed elements.
+     */
+    private void merge(Level[] levels, int i) throws IOException {
+        replace(i, 2, build(merge(levels[i].readHashes(), levels[i + 1].readHashes())));
+        levels[i].deleteFile();
+        levels[i + 1].deleteFile();
+    }
+
+    /**
+     * Builds the filter of the level, and writes the hashed elements to a file instead of keeping them.
+     */
+    private Level build(long[] hashes) throws IOException {
+        SlotLayout layout = strategy.newLayout(hashes.length);
+        Mapping mapping = XorFilter.buildMapping(
+                hashes.length,
+                (seed, hashedElements) -> hashedElements.hashAll(ElementHashing.MURMUR128, seed, hashes),
+                layout,
+                r.nextInt(),
+                false);
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+
+        Path file = Files.createTempFile(directory, "xorfilter-", ".level");
+        try {
+            writeHashes(file, hashes);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new Level(null, file, hashes.length, mapping.seed, mapping.remix, b);
+    }
+
+    private static void writeHashes(Path file, long[] hashes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(KBitValueArray.CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            int chunkLength = KBitValueArray.CHUNK_SIZE / Long.BYTES;
+            for (int off = 0; off < hashes.length; off += chunkLength) {
+                int len = Math.min(chunkLength, hashes.length - off);
+                chunk.clear();
+                chunk.asLongBuffer().put(hashes, off, len);
+                chunk.limit(len * Long.BYTES);
+                KBitValueArray.writeFully(channel, chunk);
+            }
+        }
+    }
+
+    private static long[] readHashes(Path file, int size) throws IOException {
+        long[] hashes = new long[size];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocate(KBitValueArray.CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            int chunkLength = KBitValueArray.CHUNK_SIZE / Long.BYTES;
+            for (int off = 0; off < size; off += chunkLength) {
+                int len = Math.min(chunkLength, size - off);
+                chunk.clear();
+                chunk.limit(len * Long.BYTES);
+                KBitValueArray.readFully(channel, chunk);
+                chunk.flip();
+                chunk.asLongBuffer().get(hashes, off, len);
+            }
+        }
+        return hashes;
+    }
+
+    private void replace(int from, int count, Level level) {
+        synchronized (lock) {
+            Level[] levels = this.levels;
+            Level[] replaced = new Level[levels.length - count + 1];
+            System.arraycopy(levels, 0, replaced, 0, from);
+            replaced[from] = level;
+            System.arraycopy(levels, from + count, replaced, from + 1, levels.length - from - count);
+            this.levels = replaced;
+        }
+    }
+
+    /**
+     * Merges two sorted arrays of distinct hashed elements into one.
+     */
+    private static long[] merge(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                merged[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[n++] = b[j++];
+            } else {
+                merged[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            merged[n++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[n++] = b[j++];
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicXorFilter{" +
+                "strategy=" + strategy +
+                ", bufferSize=" + bufferSize +
+                ", maxLevels=" + maxLevels +
+                ", directory=" + directory +
+                ", numLevels=" + levels.length +
+                '}';
+    }
+
+    private static final class Level {
+        /** Sorted distinct hashed elements until the values are built, or {@code null}. */
+        final long[] hashes;
+        /** File of the sorted distinct hashed elements once the values are built, or {@code null}. */
+        final Path file;
+        final int size;
+        final int seed;
+        final int remix;
+        /** Values of the level, or {@code null} until they are built; the hashed elements are searched meanwhile. */
+        final KBitValueArray b;
+
+        Level(long[] hashes) {
+            this(hashes, null, hashes.length, 0, 0, null);
+        }
+
+        Level(long[] hashes, Path file, int size, int seed, int remix, KBitValueArray b) {
+            this.hashes = hashes;
+            this.file = file;
+            this.size = size;
+            this.seed = seed;
+            this.remix = remix;
+            this.b = b;
+        }
+
+        long[] readHashes() throws IOException {
+            return hashes != null ? hashes : DynamicXorFilter.readHashes(file, size);
+        }
+
+        void deleteFile() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        boolean contains(long x) {
+            if (b == null) {
+                return Arrays.binarySearch(hashes, x) >= 0;
+            }
+            return b.contains(MurmurHashFinalizer.remix(MurmurHashFinalizer.hash(seed, x), remix));
+        }
+    }
+
+    /**
+     * Open addressing set of {@code long} values with linear probing, which never grows beyond the size given.
+     * It may be read without a lock while it is added to by one thread at a time: a value is published to its slot by a
+     * single release write of {@link AtomicLongArray}, which a reader never sees torn, and a probe ends after visiting
+     * every slot at the latest.
+     */
+    static final class LongHashSet {
+        private final AtomicLongArray table;
+        private final int shift;
+        private volatile boolean hasZero;
+        /** Read and written only by the thread that adds. */
+        private int size;
+
+        LongHashSet(int maxSize) {
+            // At most half full, so that a probe always reaches an empty slot.
+            int bits = Math.max(1, 33 - Integer.numberOfLeadingZeros(maxSize - 1));
+            this.table = new AtomicLongArray(1 << bits);
+            this.shift = Long.SIZE - bits;
+        }
+
+        boolean add(long x) {
+            if (x == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                size++;
+                return true;
+            }
+
+            int mask = table.length() - 1;
+            for (int i = (int) (x >>> shift); ; i = (i + 1) & mask) {
+                long y = table.get(i);
+                if (y == x) {
+                    return false;
+                }
+                if (y == 0) {
+                    table.lazySet(i, x);
+                    size++;
+                    return true;
+                }
+            }
+        }
+
+        boolean contains(long x) {
+            if (x == 0) {
+                return hasZero;
+            }
+
+            int mask = table.length() - 1;
+            for (int i = (int) (x >>> shift), n = 0; n < table.length(); i = (i + 1) & mask, n++) {
+                long y = table.get(i);
+                if (y == x) {
+                    return true;
+                }
+                if (y == 0) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toSortedArray() {
+            long[] sorted = new long[size];
+            int n = 0;
+            if (hasZero) {
+                sorted[n++] = 0;
+            }
+            for (int i = 0; i < table.length(); i++) {
+                long x = table.get(i);
+                if (x != 0) {
+                    sorted[n++] = x;
+                }
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Hash functions that reduce an element to the 64-bit hashed element, chosen by {@link XorFilter.Strategy}.
+ */
+@SuppressWarnings("UnstableApiUsage")
+enum ElementHashing {
+    /**
+     * The same hash as Guava's murmur3_128 for funnels and bytes, and {@link MurmurHashFinalizer} for {@code long}
+     * keys.
+     */
+    MURMUR128 {
+        @Override
+        long hash(long seed, long key) {
+            return MurmurHashFinalizer.hash(seed, key);
+        }
+
+        @Override
+        long hash(long seed, byte[] b, int off, int len) {
+            return Murmur3.hash((int) seed, b, off, len);
+        }
+    },
+
+    XXH3 {
+        @Override
+        long hash(long seed, long key) {
+            return Xxh3.hash(seed, key);
+        }
+
+        @Override
+        long hash(long seed, byte[] b, int off, int len) {
+            return Xxh3.hash(seed, b, off, len);
+        }
+    },
+
+    WYHASH {
+        @Override
+        long hash(long seed, long key) {
+            return WyHash.hash(seed, key);
+        }
+
+        @Override
+        long hash(long seed, byte[] b, int off, int len) {
+            return WyHash.hash(seed, b, off, len);
+        }
+    },
+
+    /**
+     * Uses the key, or the first 8 bytes in little-endian order, as it is. Only for keys that are already uniformly
+     * distributed hashes; the seed is ignored, and retries rely on remixing.
+     */
+    IDENTITY {
+        @Override
+        long hash(long seed, long key) {
+            return key;
+        }
+
+        @Override
+        long hash(long seed, byte[] b, int off, int len) {
+            long x = 0;
+            for (int i = Math.min(len, Long.BYTES) - 1; i >= 0; i--) {
+                x = x << 8 | (b[off + i] & 0xffL);
+            }
+            return x;
+        }
+    };
+
+    abstract long hash(long seed, long key);
+
+    abstract long hash(long seed, byte[] b, int off, int len);
+
+    /**
+     * Returns the function that hashes the bytes the funnel writes, without allocation.
+     */
+    <T> ToLongFunction<T> newElementHasher(int seed, Funnel<? super T> funnel) {
+        return element -> {
+            FunnelSink sink = FunnelSink.get();
+            funnel.funnel(element, sink);
+            return hash(seed, sink.bytes(), 0, sink.size());
+        };
+    }
+}
@@ -0,0 +1,233 @@
+package me.k11i.xorfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts and deduplicates hashed elements that may not fit in memory.
+ *
+ * <p>
+ * The hashed elements are buffered up to the given number, and each time the buffer fills up it is sorted and
+ * spilled to a temporary file as a run. The runs are finally merged. The buffer starts small and grows up to that
+ * number, so that a few elements take little memory.
+ * The hashed elements come out in unsigned order, so that buckets chosen by their upper bits come out one by one.
+ * </p>
+ */
+final class ExternalHashSorter implements Closeable {
+    private static final int CHUNK_LENGTH = KBitValueArray.CHUNK_SIZE / Long.BYTES;
+    private static final int INITIAL_BUFFER_LENGTH = 1 << 12;
+
+    private final Path directory;
+    private final int maxElementsInMemory;
+    private final List<Run> runs = new ArrayList<>();
+    private long[] buffer;
+    private int size;
+
+    ExternalHashSorter(Path directory, int maxElementsInMemory) {
+        if (maxElementsInMemory <= 0) {
+            throw new IllegalArgumentException("maxElementsInMemory must be positive: " + maxElementsInMemory);
+        }
+        this.directory = directory;
+        this.maxElementsInMemory = maxElementsInMemory;
+        this.buffer = new long[Math.min(maxElementsInMemory, INITIAL_BUFFER_LENGTH)];
+    }
+
+    void add(long x) throws IOException {
+        if (size == buffer.length) {
+            if (buffer.length < maxElementsInMemory) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, maxElementsInMemory));
+            } else {
+                spill();
+            }
+        }
+        // Flipping the sign bit makes the signed order of the buffer the unsigned order of the hashed elements.
+        buffer[size++] = x ^ Long.MIN_VALUE;
+    }
+
+    private void spill() throws IOException {
+        Arrays.sort(buffer, 0, size);
+        int n = deduplicate(buffer, size);
+
+        Run run = new Run(Files.createTempFile(directory, "xorfilter-", ".run"), n);
+        runs.add(run);
+
+        try (FileChannel channel = FileChannel.open(run.path, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(KBitValueArray.CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            for (int off = 0; off < n; off += CHUNK_LENGTH) {
+                int len = Math.min(CHUNK_LENGTH, n - off);
+                chunk.clear();
+                chunk.asLongBuffer().put(buffer, off, len);
+                chunk.limit(len * Long.BYTES);
+                KBitValueArray.writeFully(channel, chunk);
+            }
+        }
+        size = 0;
+    }
+
+    private static int deduplicate(long[] a, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int p = 0;
+        for (int i = 1; i < length; i++) {
+            if (a[p] != a[i]) {
+                a[++p] = a[i];
+            }
+        }
+        return p + 1;
+    }
+
+    /**
+     * Returns the distinct hashed elements in unsigned order. No more elements can be added afterwards.
+     * The iterator throws {@link UncheckedIOException} if a run cannot be read.
+     */
+    PrimitiveIterator.OfLong sortedDistinct() throws IOException {
+        if (runs.isEmpty()) {
+            Arrays.sort(buffer, 0, size);
+            int n = deduplicate(buffer, size);
+            long[] sorted = buffer;
+            buffer = null;
+            return Arrays.stream(sorted, 0, n).map(x -> x ^ Long.MIN_VALUE).iterator();
+        }
+
+        if (size > 0) {
+            spill();
+        }
+        buffer = null;
+
+        PriorityQueue<Run> queue = new PriorityQueue<>(runs.size(), (a, b) -> Long.compare(a.head, b.head));
+        for (Run run : runs) {
+            run.open();
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+
+        return new PrimitiveIterator.OfLong() {
+            private boolean first = true;
+            private long last;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    // Skip the hashed elements that another run has already returned.
+                    while (!first && !queue.isEmpty() && queue.peek().head == last) {
+                        advance(queue.poll());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Run run = queue.poll();
+                first = false;
+                last = run.head;
+                try {
+                    advance(run);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return last ^ Long.MIN_VALUE;
+            }
+
+            private void advance(Run run) throws IOException {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+        };
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        IOException exception = null;
+        for (Run run : runs) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        runs.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static class Run implements Closeable {
+        final Path path;
+        private long remaining;
+        private FileChannel channel;
+        private ByteBuffer chunk;
+        private LongBuffer longs;
+        long head;
+
+        Run(Path path, long length) {
+            this.path = path;
+            this.remaining = length;
+        }
+
+        void open() throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            chunk = ByteBuffer.allocate(KBitValueArray.CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            longs = chunk.asLongBuffer();
+            longs.limit(0);
+        }
+
+        boolean advance() throws IOException {
+            if (!longs.hasRemaining()) {
+                if (remaining == 0) {
+                    return false;
+                }
+                int len = (int) Math.min(CHUNK_LENGTH, remaining);
+                chunk.clear();
+                chunk.limit(len * Long.BYTES);
+                KBitValueArray.readFully(channel, chunk);
+                longs.clear();
+                longs.limit(len);
+                remaining -= len;
+            }
+            head = longs.get();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
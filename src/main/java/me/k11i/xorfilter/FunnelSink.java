@@ -0,0 +1,202 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.PrimitiveSink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable {@link PrimitiveSink} that collects the bytes written by a {@code Funnel}, in the same little-endian
+ * encoding as Guava's hashers, so that they can be hashed without allocating a {@code Hasher} and a
+ * {@code HashCode}. Strings in UTF-8, ISO-8859-1 and US-ASCII are encoded without allocation.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class FunnelSink implements PrimitiveSink {
+    private static final ThreadLocal<FunnelSink> SINKS = ThreadLocal.withInitial(FunnelSink::new);
+
+    /**
+     * Returns the empty sink of the current thread.
+     */
+    static FunnelSink get() {
+        FunnelSink sink = SINKS.get();
+        sink.size = 0;
+        return sink;
+    }
+
+    private byte[] bytes = new byte[64];
+    private int size;
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+        }
+    }
+
+    @Override
+    public PrimitiveSink putByte(byte b) {
+        ensureCapacity(1);
+        bytes[size++] = b;
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] b) {
+        return putBytes(b, 0, b.length);
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putBytes(ByteBuffer b) {
+        int len = b.remaining();
+        ensureCapacity(len);
+        b.get(bytes, size, len);
+        size += len;
+        return this;
+    }
+
+    /**
+     * Appends {@code len} bytes of {@code b} from the absolute index {@code off}, without changing its position.
+     */
+    FunnelSink putBytes(ByteBuffer b, int off, int len) {
+        ensureCapacity(len);
+        if (b.hasArray()) {
+            System.arraycopy(b.array(), b.arrayOffset() + off, bytes, size, len);
+            size += len;
+        } else {
+            for (int i = 0; i < len; i++) {
+                bytes[size++] = b.get(off + i);
+            }
+        }
+        return this;
+    }
+
+    private PrimitiveSink putLittleEndian(long x, int numBytes) {
+        ensureCapacity(numBytes);
+        for (int i = 0; i < numBytes; i++) {
+            bytes[size++] = (byte) (x >>> (i * 8));
+        }
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putShort(short s) {
+        return putLittleEndian(s, Short.BYTES);
+    }
+
+    @Override
+    public PrimitiveSink putInt(int i) {
+        return putLittleEndian(i, Integer.BYTES);
+    }
+
+    @Override
+    public PrimitiveSink putLong(long l) {
+        return putLittleEndian(l, Long.BYTES);
+    }
+
+    @Override
+    public PrimitiveSink putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public PrimitiveSink putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public PrimitiveSink putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public PrimitiveSink putChar(char c) {
+        return putLittleEndian(c, Character.BYTES);
+    }
+
+    @Override
+    public PrimitiveSink putUnencodedChars(CharSequence charSequence) {
+        int len = charSequence.length();
+        ensureCapacity(len * Character.BYTES);
+        for (int i = 0; i < len; i++) {
+            char c = charSequence.charAt(i);
+            bytes[size++] = (byte) c;
+            bytes[size++] = (byte) (c >>> 8);
+        }
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putString(CharSequence charSequence, Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            putUtf8(charSequence);
+        } else if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            putSingleByteChars(charSequence, 0xff);
+        } else if (charset.equals(StandardCharsets.US_ASCII)) {
+            putSingleByteChars(charSequence, 0x7f);
+        } else {
+            putBytes(charSequence.toString().getBytes(charset));
+        }
+        return this;
+    }
+
+    /**
+     * Encodes the chars as {@link String#getBytes(Charset)} does, replacing unmappable chars with {@code '?'}.
+     */
+    private void putSingleByteChars(CharSequence charSequence, int maxChar) {
+        int len = charSequence.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            char c = charSequence.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(charSequence.charAt(i + 1))) {
+                i++;
+                bytes[size++] = '?';
+            } else {
+                bytes[size++] = c <= maxChar ? (byte) c : (byte) '?';
+            }
+        }
+    }
+
+    private void putUtf8(CharSequence charSequence) {
+        int len = charSequence.length();
+        ensureCapacity(len * 3);
+        for (int i = 0; i < len; i++) {
+            char c = charSequence.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xc0 | (c >>> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                bytes[size++] = (byte) (0xe0 | (c >>> 12));
+                bytes[size++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(charSequence.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, charSequence.charAt(++i));
+                bytes[size++] = (byte) (0xf0 | (codePoint >>> 18));
+                bytes[size++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+                bytes[size++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                // Unpaired surrogate
+                bytes[size++] = '?';
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package me.k11i.xorfilter;
+
+/**
+ * Little-endian reads and 128-bit multiplication shared by the hash functions, written for Java 8.
+ */
+final class HashPrimitives {
+    private HashPrimitives() {
+    }
+
+    static long getLong(byte[] b, int off) {
+        return (b[off] & 0xffL)
+                | (b[off + 1] & 0xffL) << 8
+                | (b[off + 2] & 0xffL) << 16
+                | (b[off + 3] & 0xffL) << 24
+                | (b[off + 4] & 0xffL) << 32
+                | (b[off + 5] & 0xffL) << 40
+                | (b[off + 6] & 0xffL) << 48
+                | (b[off + 7] & 0xffL) << 56;
+    }
+
+    /**
+     * Reads an unsigned 32-bit integer.
+     */
+    static long getInt(byte[] b, int off) {
+        return (b[off] & 0xffL)
+                | (b[off + 1] & 0xffL) << 8
+                | (b[off + 2] & 0xffL) << 16
+                | (b[off + 3] & 0xffL) << 24;
+    }
+
+    /**
+     * Returns the upper 64 bits of the unsigned 128-bit product of {@code a} and {@code b}.
+     */
+    static long multiplyHigh(long a, long b) {
+        long aLo = a & 0xffffffffL;
+        long aHi = a >>> 32;
+        long bLo = b & 0xffffffffL;
+        long bHi = b >>> 32;
+
+        long loLo = aLo * bLo;
+        long hiLo = aHi * bLo;
+        long cross = (loLo >>> 32) + (hiLo & 0xffffffffL) + aLo * bHi;
+        return aHi * bHi + (hiLo >>> 32) + (cross >>> 32);
+    }
+}
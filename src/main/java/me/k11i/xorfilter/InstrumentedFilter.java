@@ -0,0 +1,76 @@
+package me.k11i.xorfilter;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Wrapper of a filter that counts its queries and positives, and times a sample of the queries.
+ *
+ * <p>
+ * The wrapped filter, such as {@link XorFilter} or {@link ReloadableXorFilter}, is left as it is, so the filters that
+ * are not wrapped are queried as fast as before.
+ * </p>
+ *
+ * @see InstrumentedLongFilter
+ */
+public class InstrumentedFilter<T> implements Predicate<T> {
+    static final int DEFAULT_SAMPLING_INTERVAL = 1024;
+
+    /**
+     * Wraps {@code filter}, timing one in 1024 queries on average.
+     */
+    public static <T> InstrumentedFilter<T> of(Predicate<T> filter) {
+        return of(filter, DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    /**
+     * @param samplingInterval power of two; one in {@code samplingInterval} queries is timed on average, or none if 0
+     */
+    public static <T> InstrumentedFilter<T> of(Predicate<T> filter, int samplingInterval) {
+        return new InstrumentedFilter<>(Objects.requireNonNull(filter), new QueryMetrics(samplingInterval));
+    }
+
+    // ---
+
+    private final Predicate<T> filter;
+    private final QueryMetrics metrics;
+
+    private InstrumentedFilter(Predicate<T> filter, QueryMetrics metrics) {
+        this.filter = filter;
+        this.metrics = metrics;
+    }
+
+    public boolean mightContain(T element) {
+        if (metrics.sample()) {
+            long start = System.nanoTime();
+            boolean result = filter.test(element);
+            metrics.record(result, System.nanoTime() - start);
+            return result;
+        }
+
+        boolean result = filter.test(element);
+        metrics.record(result);
+        return result;
+    }
+
+    @Override
+    public boolean test(T t) {
+        return mightContain(t);
+    }
+
+    public Predicate<T> filter() {
+        return filter;
+    }
+
+    public QueryMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedFilter{" +
+                "filter=" + filter +
+                ", metrics=" + metrics +
+                '}';
+    }
+}
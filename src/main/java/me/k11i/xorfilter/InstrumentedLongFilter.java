@@ -0,0 +1,70 @@
+package me.k11i.xorfilter;
+
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+/**
+ * Wrapper of a filter of primitive long keys, such as {@link LongXorFilter}, that counts its queries and positives,
+ * and times a sample of the queries.
+ *
+ * @see InstrumentedFilter
+ */
+public class InstrumentedLongFilter implements LongPredicate {
+    /**
+     * Wraps {@code filter}, timing one in 1024 queries on average.
+     */
+    public static InstrumentedLongFilter of(LongPredicate filter) {
+        return of(filter, InstrumentedFilter.DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    /**
+     * @param samplingInterval power of two; one in {@code samplingInterval} queries is timed on average, or none if 0
+     */
+    public static InstrumentedLongFilter of(LongPredicate filter, int samplingInterval) {
+        return new InstrumentedLongFilter(Objects.requireNonNull(filter), new QueryMetrics(samplingInterval));
+    }
+
+    // ---
+
+    private final LongPredicate filter;
+    private final QueryMetrics metrics;
+
+    private InstrumentedLongFilter(LongPredicate filter, QueryMetrics metrics) {
+        this.filter = filter;
+        this.metrics = metrics;
+    }
+
+    public boolean mightContain(long key) {
+        if (metrics.sample()) {
+            long start = System.nanoTime();
+            boolean result = filter.test(key);
+            metrics.record(result, System.nanoTime() - start);
+            return result;
+        }
+
+        boolean result = filter.test(key);
+        metrics.record(result);
+        return result;
+    }
+
+    @Override
+    public boolean test(long value) {
+        return mightContain(value);
+    }
+
+    public LongPredicate filter() {
+        return filter;
+    }
+
+    public QueryMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedLongFilter{" +
+                "filter=" + filter +
+                ", metrics=" + metrics +
+                '}';
+    }
+}
@@ -0,0 +1,1130 @@
+package me.k11i.xorfilter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+abstract class KBitValueArray {
+    static class _8 extends KBitValueArray {
+        private final byte[] b;
+
+        _8(SlotLayout layout) {
+            super(layout);
+            b = new byte[capacity];
+        }
+
+        private byte fingerprint(long x) {
+            return (byte) (x >>> 56);
+        }
+
+        @Override
+        public void put(int index, long x, int h0, int h1, int h2) {
+            b[index] = 0;
+            b[index] = (byte) (fingerprint(x) ^ b[h0] ^ b[h1] ^ b[h2]);
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b[h0] ^ b[h1] ^ b[h2]);
+        }
+
+        @Override
+        long get(int index) {
+            return b[index] & 0xff;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b[index] = (byte) value;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return capacity;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            checksum.update(b, 0, b.length);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE) {
+                writeFully(out, ByteBuffer.wrap(b, off, Math.min(CHUNK_SIZE, b.length - off)));
+            }
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            for (int off = 0; off < b.length; off += CHUNK_SIZE) {
+                readFully(in, ByteBuffer.wrap(b, off, Math.min(CHUNK_SIZE, b.length - off)));
+            }
+            checksum.update(b, 0, b.length);
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            in.readFully(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            _8 that = (_8) o;
+            return Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(b);
+        }
+    }
+
+    static class _16 extends KBitValueArray {
+        private final short[] b;
+
+        _16(SlotLayout layout) {
+            super(layout);
+            b = new short[capacity];
+        }
+
+        private short fingerprint(long x) {
+            return (short) (x >>> 48);
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            b[index] = 0;
+            b[index] = (short) (fingerprint(x) ^ b[h0] ^ b[h1] ^ b[h2]);
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b[h0] ^ b[h1] ^ b[h2]);
+        }
+
+        @Override
+        long get(int index) {
+            return b[index] & 0xffff;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b[index] = (short) value;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) capacity * 2;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 2) {
+                int n = Math.min(CHUNK_SIZE / 2, b.length - off);
+                chunk.clear();
+                chunk.asShortBuffer().put(b, off, n);
+                chunk.limit(n * 2);
+                checksum.update(chunk.array(), 0, n * 2);
+                writeFully(out, chunk);
+            }
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 2) {
+                int n = Math.min(CHUNK_SIZE / 2, b.length - off);
+                chunk.clear();
+                chunk.limit(n * 2);
+                readFully(in, chunk);
+                checksum.update(chunk.array(), 0, n * 2);
+                chunk.flip();
+                chunk.asShortBuffer().get(b, off, n);
+            }
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 2) {
+                int n = Math.min(CHUNK_SIZE / 2, b.length - off);
+                in.readFully(chunk, 0, n * 2);
+                ByteBuffer.wrap(chunk, 0, n * 2).asShortBuffer().get(b, off, n);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            _16 that = (_16) o;
+            return Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(b);
+        }
+    }
+
+    static class _32 extends KBitValueArray {
+        private final int[] b;
+
+        _32(SlotLayout layout) {
+            super(layout);
+            b = new int[capacity];
+        }
+
+        private int fingerprint(long x) {
+            return (int) (x >>> 32);
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            b[index] = 0;
+            b[index] = fingerprint(x) ^ b[h0] ^ b[h1] ^ b[h2];
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b[h0] ^ b[h1] ^ b[h2]);
+        }
+
+        @Override
+        long get(int index) {
+            return b[index] & 0xffffffffL;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b[index] = (int) value;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) capacity * 4;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 4) {
+                int n = Math.min(CHUNK_SIZE / 4, b.length - off);
+                chunk.clear();
+                chunk.asIntBuffer().put(b, off, n);
+                chunk.limit(n * 4);
+                checksum.update(chunk.array(), 0, n * 4);
+                writeFully(out, chunk);
+            }
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 4) {
+                int n = Math.min(CHUNK_SIZE / 4, b.length - off);
+                chunk.clear();
+                chunk.limit(n * 4);
+                readFully(in, chunk);
+                checksum.update(chunk.array(), 0, n * 4);
+                chunk.flip();
+                chunk.asIntBuffer().get(b, off, n);
+            }
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < capacity; i++) {
+                b[i] = in.readInt();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            _32 that = (_32) o;
+            return Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(b);
+        }
+    }
+
+    /**
+     * Values of any width up to 32 bits, packed into a {@code long[]} without gaps. Value {@code i} occupies the bits
+     * {@code i * bits} to {@code i * bits + bits - 1}, counted from the least significant bit of the first word.
+     * A padding word at the end lets a value that straddles two words be read with two loads and no branch.
+     */
+    static class Packed extends KBitValueArray {
+        static int numWords(int capacity, int bits) {
+            return (int) (((long) capacity * bits + Long.SIZE - 1) >>> 6) + 1;
+        }
+
+        private final int bits;
+        private final long mask;
+        private final long[] b;
+
+        Packed(SlotLayout layout, int bits) {
+            super(layout);
+            this.bits = bits;
+            this.mask = (1L << bits) - 1;
+            this.b = new long[numWords(capacity, bits)];
+        }
+
+        private long fingerprint(long x) {
+            return x >>> (Long.SIZE - bits);
+        }
+
+        @Override
+        long get(int index) {
+            long bitIndex = (long) index * bits;
+            int w = (int) (bitIndex >>> 6);
+            int shift = (int) bitIndex & 63;
+            return (b[w] >>> shift | b[w + 1] << (63 - shift) << 1) & mask;
+        }
+
+        @Override
+        void set(int index, long value) {
+            long bitIndex = (long) index * bits;
+            int w = (int) (bitIndex >>> 6);
+            int shift = (int) bitIndex & 63;
+            b[w] = b[w] & ~(mask << shift) | value << shift;
+            if (shift + bits > Long.SIZE) {
+                b[w + 1] = b[w + 1] & ~(mask >>> (Long.SIZE - shift)) | value >>> (Long.SIZE - shift);
+            }
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            set(index, 0);
+            set(index, fingerprint(x) ^ get(h0) ^ get(h1) ^ get(h2));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (get(h0) ^ get(h1) ^ get(h2));
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) b.length * 8;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 8) {
+                int n = Math.min(CHUNK_SIZE / 8, b.length - off);
+                chunk.clear();
+                chunk.asLongBuffer().put(b, off, n);
+                chunk.limit(n * 8);
+                checksum.update(chunk.array(), 0, n * 8);
+                writeFully(out, chunk);
+            }
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < b.length; off += CHUNK_SIZE / 8) {
+                int n = Math.min(CHUNK_SIZE / 8, b.length - off);
+                chunk.clear();
+                chunk.limit(n * 8);
+                readFully(in, chunk);
+                checksum.update(chunk.array(), 0, n * 8);
+                chunk.flip();
+                chunk.asLongBuffer().get(b, off, n);
+            }
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < b.length; i++) {
+                b[i] = in.readLong();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Packed that = (Packed) o;
+            return bits == that.bits && Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bits + Arrays.hashCode(b);
+        }
+    }
+
+    /**
+     * 8-bit values backed by a {@link ByteBuffer}, such as a region of a memory-mapped file.
+     */
+    static class Buffer8 extends KBitValueArray {
+        private final ByteBuffer b;
+
+        Buffer8(SlotLayout layout, ByteBuffer b) {
+            super(layout);
+            this.b = b;
+        }
+
+        private byte fingerprint(long x) {
+            return (byte) (x >>> 56);
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            b.put(index, (byte) 0);
+            b.put(index, (byte) (fingerprint(x) ^ b.get(h0) ^ b.get(h1) ^ b.get(h2)));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b.get(h0) ^ b.get(h1) ^ b.get(h2));
+        }
+
+        @Override
+        long get(int index) {
+            return b.get(index) & 0xff;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b.put(index, (byte) value);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return capacity;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer src = b.duplicate();
+            src.clear();
+            checksum.update(src);
+            src.rewind();
+            writeFully(out, src);
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer dst = b.duplicate();
+            dst.clear();
+            readFully(in, dst);
+            dst.flip();
+            checksum.update(dst);
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < capacity; i++) {
+                b.put(i, in.readByte());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Buffer8 that = (Buffer8) o;
+            return b.equals(that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return b.hashCode();
+        }
+    }
+
+    /**
+     * 16-bit values backed by a {@link ByteBuffer}, such as a region of a memory-mapped file.
+     * The values are read in the byte order of the buffer.
+     */
+    static class Buffer16 extends KBitValueArray {
+        private final ByteBuffer b;
+
+        Buffer16(SlotLayout layout, ByteBuffer b) {
+            super(layout);
+            this.b = b;
+        }
+
+        private short fingerprint(long x) {
+            return (short) (x >>> 48);
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            b.putShort(index << 1, (short) 0);
+            b.putShort(index << 1, (short) (fingerprint(x) ^ b.getShort(h0 << 1) ^ b.getShort(h1 << 1) ^ b.getShort(h2 << 1)));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b.getShort(h0 << 1) ^ b.getShort(h1 << 1) ^ b.getShort(h2 << 1));
+        }
+
+        @Override
+        long get(int index) {
+            return b.getShort(index << 1) & 0xffff;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b.putShort(index << 1, (short) value);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) capacity * 2;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            if (b.order() == order) {
+                ByteBuffer src = b.duplicate();
+                src.clear();
+                checksum.update(src);
+                src.rewind();
+                writeFully(out, src);
+                return;
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < capacity; off += CHUNK_SIZE / 2) {
+                int n = Math.min(CHUNK_SIZE / 2, capacity - off);
+                chunk.clear();
+                for (int i = 0; i < n; i++) {
+                    chunk.putShort(b.getShort((off + i) << 1));
+                }
+                chunk.flip();
+                checksum.update(chunk.array(), 0, n * 2);
+                writeFully(out, chunk);
+            }
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+            for (int off = 0; off < capacity; off += CHUNK_SIZE / 2) {
+                int n = Math.min(CHUNK_SIZE / 2, capacity - off);
+                chunk.clear();
+                chunk.limit(n * 2);
+                readFully(in, chunk);
+                checksum.update(chunk.array(), 0, n * 2);
+                chunk.flip();
+                for (int i = 0; i < n; i++) {
+                    b.putShort((off + i) << 1, chunk.getShort());
+                }
+            }
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < capacity; i++) {
+                b.putShort(i << 1, in.readShort());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Buffer16 that = (Buffer16) o;
+            return b.asShortBuffer().equals(that.b.asShortBuffer());
+        }
+
+        @Override
+        public int hashCode() {
+            return b.asShortBuffer().hashCode();
+        }
+    }
+
+    /**
+     * 32-bit values backed by a {@link ByteBuffer}, such as a region of a memory-mapped file.
+     * The values are read in the byte order of the buffer.
+     */
+    static class Buffer32 extends KBitValueArray {
+        private final ByteBuffer b;
+
+        Buffer32(SlotLayout layout, ByteBuffer b) {
+            super(layout);
+            this.b = b;
+        }
+
+        private int fingerprint(long x) {
+            return (int) (x >>> 32);
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            b.putInt(index << 2, 0);
+            b.putInt(index << 2, fingerprint(x) ^ b.getInt(h0 << 2) ^ b.getInt(h1 << 2) ^ b.getInt(h2 << 2));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (b.getInt(h0 << 2) ^ b.getInt(h1 << 2) ^ b.getInt(h2 << 2));
+        }
+
+        @Override
+        long get(int index) {
+            return b.getInt(index << 2) & 0xffffffffL;
+        }
+
+        @Override
+        void set(int index, long value) {
+            b.putInt(index << 2, (int) value);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) capacity * 4;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            writeWords(b, out, order, checksum, Integer.BYTES);
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            readWords(b, in, order, checksum, Integer.BYTES);
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < capacity; i++) {
+                b.putInt(i << 2, in.readInt());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Buffer32 that = (Buffer32) o;
+            return b.asIntBuffer().equals(that.b.asIntBuffer());
+        }
+
+        @Override
+        public int hashCode() {
+            return b.asIntBuffer().hashCode();
+        }
+    }
+
+    /**
+     * Packed values backed by a {@link ByteBuffer}, in the layout of {@link Packed} with the words read in the byte
+     * order of the buffer.
+     */
+    static class BufferPacked extends KBitValueArray {
+        private final int bits;
+        private final long mask;
+        private final ByteBuffer b;
+
+        BufferPacked(SlotLayout layout, int bits, ByteBuffer b) {
+            super(layout);
+            this.bits = bits;
+            this.mask = (1L << bits) - 1;
+            this.b = b;
+        }
+
+        private long fingerprint(long x) {
+            return x >>> (Long.SIZE - bits);
+        }
+
+        @Override
+        long get(int index) {
+            long bitIndex = (long) index * bits;
+            int offset = (int) (bitIndex >>> 6) << 3;
+            int shift = (int) bitIndex & 63;
+            return (b.getLong(offset) >>> shift | b.getLong(offset + 8) << (63 - shift) << 1) & mask;
+        }
+
+        @Override
+        void set(int index, long value) {
+            long bitIndex = (long) index * bits;
+            int offset = (int) (bitIndex >>> 6) << 3;
+            int shift = (int) bitIndex & 63;
+            b.putLong(offset, b.getLong(offset) & ~(mask << shift) | value << shift);
+            if (shift + bits > Long.SIZE) {
+                b.putLong(offset + 8, b.getLong(offset + 8) & ~(mask >>> (Long.SIZE - shift)) | value >>> (Long.SIZE - shift));
+            }
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            set(index, 0);
+            set(index, fingerprint(x) ^ get(h0) ^ get(h1) ^ get(h2));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            return fingerprint(x) == (get(h0) ^ get(h1) ^ get(h2));
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) Packed.numWords(capacity, bits) * 8;
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            writeWords(b, out, order, checksum, Long.BYTES);
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            readWords(b, in, order, checksum, Long.BYTES);
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0, n = Packed.numWords(capacity, bits); i < n; i++) {
+                b.putLong(i << 3, in.readLong());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BufferPacked that = (BufferPacked) o;
+            return bits == that.bits && b.asLongBuffer().equals(that.b.asLongBuffer());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bits + b.asLongBuffer().hashCode();
+        }
+    }
+
+    /**
+     * Values of the {@link SlotLayout.XorPlus} layout, in words of a {@link ByteBuffer} on the heap or mapped from a
+     * file.
+     *
+     * <p>
+     * The values of the first two blocks are stored densely, followed by a rank-indexed bitmap of the nonzero values
+     * of the third block and then those nonzero values only. The bitmap is split into groups of 256 bits, each of which
+     * is preceded by a word holding the number of the bits set in the groups before it, so that the rank of a slot is
+     * read from at most two neighboring cache lines. The values are packed into the words from the least significant
+     * bit, like {@link Packed}, and the width must divide 64.
+     * </p>
+     */
+    static class Plus extends KBitValueArray {
+        private static final int GROUP_SHIFT = 8;
+        private static final int WORDS_PER_GROUP = 1 + (1 << GROUP_SHIFT) / Long.SIZE;
+
+        private static int numWords(int numValues, int bits) {
+            return (int) (((long) numValues * bits + Long.SIZE - 1) >>> 6);
+        }
+
+        static long sizeInBytes(SlotLayout.XorPlus layout, int bits) {
+            int blockLength = layout.capacity / 3;
+            long numGroups = ((long) blockLength + (1 << GROUP_SHIFT) - 1) >>> GROUP_SHIFT;
+            return ((long) numWords(blockLength * 2, bits)
+                    + numGroups * WORDS_PER_GROUP
+                    + numWords(layout.numSparseValues, bits)) * Long.BYTES;
+        }
+
+        private final int bits;
+        private final int valuesPerWordShift;
+        private final long mask;
+        private final int denseLength;
+        private final int groupsOffset;
+        private final int sparseOffset;
+        private final ByteBuffer b;
+
+        Plus(SlotLayout.XorPlus layout, int bits) {
+            this(layout, bits, allocate(layout, bits));
+
+            if (layout.numSparseValues == denseLength / 2) {
+                // Every slot of the third block has its value, as while the filter is being built.
+                for (int j = 0; j < denseLength / 2; j += Long.SIZE) {
+                    int g = groupOf(j);
+                    b.putLong(g * Long.BYTES, j & -(1 << GROUP_SHIFT));
+                    long word = denseLength / 2 - j >= Long.SIZE ? -1L : (1L << (denseLength / 2 - j)) - 1;
+                    b.putLong((g + 1 + (j >>> 6 & 3)) * Long.BYTES, word);
+                }
+            }
+        }
+
+        Plus(SlotLayout.XorPlus layout, int bits, ByteBuffer buffer) {
+            super(layout);
+            if (Long.SIZE % bits != 0) {
+                throw new IllegalArgumentException("The width of the values must divide 64: " + bits);
+            }
+            this.bits = bits;
+            this.valuesPerWordShift = Integer.numberOfTrailingZeros(Long.SIZE / bits);
+            this.mask = bits == Long.SIZE ? -1L : (1L << bits) - 1;
+            this.denseLength = capacity / 3 * 2;
+            this.groupsOffset = numWords(denseLength, bits);
+            this.sparseOffset = groupsOffset + ((capacity / 3 + (1 << GROUP_SHIFT) - 1) >>> GROUP_SHIFT) * WORDS_PER_GROUP;
+            this.b = buffer;
+        }
+
+        private static ByteBuffer allocate(SlotLayout.XorPlus layout, int bits) {
+            long size = sizeInBytes(layout, bits);
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException(String.format(
+                        "Too many slots for the xor+ layout: %d slots of %d bits", layout.capacity, bits));
+            }
+            return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private long fingerprint(long x) {
+            return x >>> (Long.SIZE - bits);
+        }
+
+        /**
+         * Returns the index of the first word of the group that holds bit {@code j} of the bitmap.
+         */
+        private int groupOf(int j) {
+            return groupsOffset + (j >>> GROUP_SHIFT) * WORDS_PER_GROUP;
+        }
+
+        private long valueAt(int wordOffset, int i) {
+            long word = b.getLong((wordOffset + (i >>> valuesPerWordShift)) * Long.BYTES);
+            return word >>> ((i & ((1 << valuesPerWordShift) - 1)) * bits) & mask;
+        }
+
+        private void setValueAt(int wordOffset, int i, long value) {
+            int index = (wordOffset + (i >>> valuesPerWordShift)) * Long.BYTES;
+            int shift = (i & ((1 << valuesPerWordShift) - 1)) * bits;
+            b.putLong(index, b.getLong(index) & ~(mask << shift) | value << shift);
+        }
+
+        /**
+         * Returns the index of the value of slot {@code j} of the third block among the stored ones, or -1 if the
+         * slot is empty.
+         */
+        private int rank(int j) {
+            int g = groupOf(j);
+            int w = j >>> 6 & 3;
+            long word = b.getLong((g + 1 + w) * Long.BYTES);
+            if ((word >>> j & 1) == 0) {
+                return -1;
+            }
+
+            int rank = (int) b.getLong(g * Long.BYTES) + Long.bitCount(word & ((1L << j) - 1));
+            for (int i = 0; i < w; i++) {
+                rank += Long.bitCount(b.getLong((g + 1 + i) * Long.BYTES));
+            }
+            return rank;
+        }
+
+        @Override
+        long get(int index) {
+            if (index < denseLength) {
+                return valueAt(0, index);
+            }
+            int rank = rank(index - denseLength);
+            return rank < 0 ? 0 : valueAt(sparseOffset, rank);
+        }
+
+        @Override
+        void set(int index, long value) {
+            if (index < denseLength) {
+                setValueAt(0, index, value);
+                return;
+            }
+            int rank = rank(index - denseLength);
+            if (rank >= 0) {
+                setValueAt(sparseOffset, rank, value);
+            } else if (value != 0) {
+                throw new IllegalStateException("The compacted values have no room for slot " + index);
+            }
+        }
+
+        @Override
+        void put(int index, long x, int h0, int h1, int h2) {
+            set(index, 0);
+            set(index, fingerprint(x) ^ get(h0) ^ get(h1) ^ get(h2));
+        }
+
+        @Override
+        boolean contains(long x, int h0, int h1, int h2) {
+            // h0 and h1 lie in the first two blocks, and h2 in the third.
+            return fingerprint(x) == (valueAt(0, h0) ^ valueAt(0, h1) ^ get(h2));
+        }
+
+        /**
+         * Returns the array that stores only the nonzero values of the third block.
+         */
+        @Override
+        KBitValueArray compact() {
+            SlotLayout.XorPlus layout = (SlotLayout.XorPlus) this.layout;
+            int blockLength = capacity / 3;
+            int numSparseValues = 0;
+            for (int j = 0; j < blockLength; j++) {
+                if (get(denseLength + j) != 0) {
+                    numSparseValues++;
+                }
+            }
+            if (numSparseValues == layout.numSparseValues) {
+                return this;
+            }
+
+            Plus compacted = new Plus(layout.withNumSparseValues(numSparseValues), bits);
+            for (int w = 0; w < groupsOffset; w++) {
+                compacted.b.putLong(w * Long.BYTES, b.getLong(w * Long.BYTES));
+            }
+            int rank = 0;
+            for (int j = 0; j < blockLength; j++) {
+                int g = groupOf(j);
+                if ((j & ((1 << GROUP_SHIFT) - 1)) == 0) {
+                    compacted.b.putLong(g * Long.BYTES, rank);
+                }
+                long value = get(denseLength + j);
+                if (value != 0) {
+                    int index = (g + 1 + (j >>> 6 & 3)) * Long.BYTES;
+                    compacted.b.putLong(index, compacted.b.getLong(index) | 1L << j);
+                    compacted.setValueAt(sparseOffset, rank++, value);
+                }
+            }
+            return compacted;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return b.capacity();
+        }
+
+        @Override
+        void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException {
+            writeWords(b, out, order, checksum, Long.BYTES);
+        }
+
+        @Override
+        void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException {
+            readWords(b, in, order, checksum, Long.BYTES);
+        }
+
+        @Override
+        void readFrom(DataInputStream in) throws IOException {
+            for (int i = 0; i < b.capacity(); i += Long.BYTES) {
+                b.putLong(i, in.readLong());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Plus that = (Plus) o;
+            return bits == that.bits &&
+                    capacity == that.capacity &&
+                    b.asLongBuffer().equals(that.b.asLongBuffer());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bits + b.asLongBuffer().hashCode();
+        }
+    }
+
+    /**
+     * Writes the whole {@code buffer} as words of {@code wordSize} bytes in {@code order}.
+     */
+    private static void writeWords(ByteBuffer buffer, WritableByteChannel out, ByteOrder order, CRC32 checksum, int wordSize) throws IOException {
+        if (buffer.order() == order) {
+            ByteBuffer src = buffer.duplicate();
+            src.clear();
+            checksum.update(src);
+            src.rewind();
+            writeFully(out, src);
+            return;
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+        int size = buffer.capacity();
+        for (int off = 0; off < size; off += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, size - off);
+            chunk.clear();
+            for (int i = 0; i < n; i += wordSize) {
+                if (wordSize == Long.BYTES) {
+                    chunk.putLong(buffer.getLong(off + i));
+                } else {
+                    chunk.putInt(buffer.getInt(off + i));
+                }
+            }
+            chunk.flip();
+            checksum.update(chunk.array(), 0, n);
+            writeFully(out, chunk);
+        }
+    }
+
+    /**
+     * Fills the whole {@code buffer} with words of {@code wordSize} bytes read in {@code order}.
+     */
+    private static void readWords(ByteBuffer buffer, ReadableByteChannel in, ByteOrder order, CRC32 checksum, int wordSize) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(order);
+        int size = buffer.capacity();
+        for (int off = 0; off < size; off += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, size - off);
+            chunk.clear();
+            chunk.limit(n);
+            readFully(in, chunk);
+            checksum.update(chunk.array(), 0, n);
+            chunk.flip();
+            for (int i = 0; i < n; i += wordSize) {
+                if (wordSize == Long.BYTES) {
+                    buffer.putLong(off + i, chunk.getLong());
+                } else {
+                    buffer.putInt(off + i, chunk.getInt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps {@code size} bytes of {@code channel} from its current position as read-only, and advances the position
+     * past them.
+     */
+    static ByteBuffer map(FileChannel channel, long size) throws IOException {
+        long position = channel.position();
+        if (position + size > channel.size()) {
+            throw new EOFException(String.format(
+                    "Expected %d bytes of values at position %d, but the file has only %d bytes",
+                    size, position, channel.size()));
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        channel.position(position + size);
+        return buffer;
+    }
+
+    /**
+     * Size of the chunks in which values are converted and transferred, which also bounds the temporary direct
+     * buffers that NIO allocates for heap buffers.
+     */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    static void writeFully(WritableByteChannel out, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+
+    static void readFully(ReadableByteChannel in, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (in.read(dst) < 0) {
+                throw new EOFException("Unexpected end of the serialized filter");
+            }
+        }
+    }
+
+    /**
+     * Returns the array of {@code bits}-bit values for {@code layout}, stored in an array of the primitive type for 8,
+     * 16 and 32 bits and packed into a {@code long[]} otherwise.
+     */
+    static KBitValueArray newArray(SlotLayout layout, int bits) {
+        switch (bits) {
+            case 8:
+                return new _8(layout);
+            case 16:
+                return new _16(layout);
+            case 32:
+                return new _32(layout);
+            default:
+                return new Packed(layout, bits);
+        }
+    }
+
+    /** Window size of {@link #containsAll(long[], int, int[])}, i.e. one word of the result bitmap. */
+    static final int BATCH_SIZE = Long.SIZE;
+
+    final SlotLayout layout;
+    final int capacity;
+
+    KBitValueArray(SlotLayout layout) {
+        this.layout = layout;
+        this.capacity = layout.capacity;
+    }
+
+    void put(int index, long x) {
+        layout.put(this, index, x);
+    }
+
+    boolean contains(long x) {
+        return layout.contains(this, x);
+    }
+
+    /**
+     * Tests the first {@code n} (at most {@link #BATCH_SIZE}) hashed elements of {@code xs}, using {@code h} as
+     * scratch for {@code 3 * n} indexes. All the indexes are computed before any slot is read so that the memory
+     * accesses for different elements overlap. {@code xs} is overwritten.
+     */
+    long containsAll(long[] xs, int n, int[] h) {
+        return layout.containsAll(this, xs, n, h);
+    }
+
+    static void checkBatchArguments(int arrayLength, int off, int len, long[] resultBitmap) {
+        if (off < 0 || len < 0 || off > arrayLength - len) {
+            throw new IndexOutOfBoundsException(
+                    String.format("off: %d, len: %d, array length: %d", off, len, arrayLength));
+        }
+        if (resultBitmap.length < (len + BATCH_SIZE - 1) / BATCH_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("resultBitmap must have at least %d words to hold %d results",
+                            (len + BATCH_SIZE - 1) / BATCH_SIZE, len));
+        }
+    }
+
+    abstract void put(int index, long x, int h0, int h1, int h2);
+
+    abstract boolean contains(long x, int h0, int h1, int h2);
+
+    /**
+     * Returns the array that holds the same values in the least space, once all the values have been put.
+     */
+    KBitValueArray compact() {
+        return this;
+    }
+
+    /**
+     * Returns the value of slot {@code index} as an unsigned integer.
+     */
+    abstract long get(int index);
+
+    abstract void set(int index, long value);
+
+    /**
+     * Returns the length of the values in the serialized form, which is also the size of the buffer they are mapped
+     * from.
+     */
+    abstract long sizeInBytes();
+
+    /**
+     * Writes the values in {@code order}, updating {@code checksum} with the written bytes.
+     */
+    abstract void writeTo(WritableByteChannel out, ByteOrder order, CRC32 checksum) throws IOException;
+
+    /**
+     * Reads the values in {@code order}, updating {@code checksum} with the read bytes.
+     */
+    abstract void readFrom(ReadableByteChannel in, ByteOrder order, CRC32 checksum) throws IOException;
+
+    /**
+     * Reads the values in the big-endian layout of the unversioned format.
+     */
+    abstract void readFrom(DataInputStream in) throws IOException;
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "capacity=" + capacity +
+                '}';
+    }
+}
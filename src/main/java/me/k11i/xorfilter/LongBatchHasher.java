@@ -0,0 +1,44 @@
+package me.k11i.xorfilter;
+
+/**
+ * Hashes and remixes {@code long} keys in batches, for {@link LongXorFilter#mightContainAll(long[], int, int, long[])}.
+ *
+ * <p>
+ * The JAR is a multi-release JAR: on Java 16 or later, with the {@code jdk.incubator.vector} module added by
+ * {@code --add-modules jdk.incubator.vector}, {@link #PREFERRED} is {@code VectorLongBatchHasher}, which hashes the
+ * keys of the MURMUR128 and IDENTITY strategies with the Vector API. Otherwise, or if the system property
+ * {@code me.k11i.xorfilter.vector} is {@code false}, it is {@link #SCALAR}, which hashes the keys one by one.
+ * </p>
+ */
+class LongBatchHasher {
+    static final LongBatchHasher SCALAR = new LongBatchHasher();
+    static final LongBatchHasher PREFERRED = load();
+
+    private static LongBatchHasher load() {
+        if (!Boolean.parseBoolean(System.getProperty("me.k11i.xorfilter.vector", "true"))) {
+            return SCALAR;
+        }
+        try {
+            return (LongBatchHasher) Class.forName("me.k11i.xorfilter.VectorLongBatchHasher")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Java 8 to 15, or the module is not added.
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Stores the hashed elements of {@code keys[off]} to {@code keys[off + n - 1]} into {@code xs[0]} to
+     * {@code xs[n - 1]}.
+     */
+    void hashAll(ElementHashing hashing, long seed, int remix, long[] keys, int off, int n, long[] xs) {
+        for (int i = 0; i < n; i++) {
+            xs[i] = MurmurHashFinalizer.remix(hashing.hash(seed, keys[off + i]), remix);
+        }
+    }
+
+    boolean isVectorized() {
+        return false;
+    }
+}
@@ -0,0 +1,271 @@
+package me.k11i.xorfilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongPredicate;
+
+/**
+ * Xor filter specialized for primitive {@code long} keys.
+ *
+ * <p>
+ * Unlike {@link XorFilter}, this filter hashes the keys themselves instead of going through a Guava
+ * {@code Funnel}, so neither building nor querying boxes keys and {@link #mightContain(long)} allocates nothing.
+ * The MURMUR128 strategies hash keys with {@link MurmurHashFinalizer}.
+ * </p>
+ */
+public class LongXorFilter implements LongPredicate {
+    public static LongXorFilter build(long[] keys, XorFilter.Strategy strategy) {
+        return build(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    public static LongXorFilter build(long[] keys, XorFilter.Strategy strategy, int rngSeed) {
+        return build(keys, strategy, rngSeed, new BuildMonitor());
+    }
+
+    private static LongXorFilter build(long[] keys, XorFilter.Strategy strategy, int rngSeed, BuildMonitor monitor) {
+        SlotLayout layout = strategy.newLayout(keys.length);
+        Mapping mapping = XorFilter.buildMapping(
+                keys.length,
+                (seed, hashedElements) -> hashedElements.hashAll(strategy.hashing, seed, keys),
+                layout,
+                rngSeed,
+                false,
+                monitor);
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack, monitor);
+        monitor.complete(keys.length, XorFilter.scratchBytes(keys.length, strategy, false));
+        return new LongXorFilter(strategy, mapping.seed, mapping.remix, b);
+    }
+
+    public static CompletableFuture<LongXorFilter> buildAsync(long[] keys, XorFilter.Strategy strategy, Executor executor) {
+        return buildAsync(keys, strategy, ThreadLocalRandom.current().nextInt(), executor, null);
+    }
+
+    /**
+     * @see XorFilter#buildAsync(com.google.common.hash.Funnel, java.util.Collection, XorFilter.Strategy, int, Executor, BuildListener)
+     */
+    public static CompletableFuture<LongXorFilter> buildAsync(
+            long[] keys,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            Executor executor,
+            BuildListener listener) {
+
+        return BuildMonitor.supplyAsync(executor, listener, monitor -> build(keys, strategy, rngSeed, monitor));
+    }
+
+    public static LongXorFilter buildWithLowMemory(long[] keys, XorFilter.Strategy strategy) {
+        return buildWithLowMemory(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Builds the filter with 1.85 to 1.9 times less scratch memory, except for the BLOCKED and PLUS strategies.
+     *
+     * @see XorFilter#buildWithLowMemory(com.google.common.hash.Funnel, java.util.Collection, XorFilter.Strategy, int)
+     */
+    public static LongXorFilter buildWithLowMemory(long[] keys, XorFilter.Strategy strategy, int rngSeed) {
+        SlotLayout layout = strategy.newLayout(keys.length);
+        Mapping mapping = XorFilter.buildMappingWithLowMemory(
+                keys.length,
+                (seed, hashedElements) -> hashedElements.hashAll(strategy.hashing, seed, keys),
+                layout,
+                rngSeed);
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+        return new LongXorFilter(strategy, mapping.seed, mapping.remix, b);
+    }
+
+    /**
+     * Builds the filter using the threads of {@code pool}.
+     *
+     * @see XorFilter#build(com.google.common.hash.Funnel, java.util.Collection, XorFilter.Strategy, ForkJoinPool)
+     */
+    public static LongXorFilter build(long[] keys, XorFilter.Strategy strategy, ForkJoinPool pool) {
+        return build(keys, strategy, ThreadLocalRandom.current().nextInt(), pool);
+    }
+
+    public static LongXorFilter build(long[] keys, XorFilter.Strategy strategy, int rngSeed, ForkJoinPool pool) {
+        SlotLayout layout = strategy.newLayout(keys.length);
+        Mapping mapping = pool.submit(() -> XorFilter.buildMapping(
+                keys.length,
+                (seed, hashedElements) -> hashedElements.hashAllInParallel(strategy.hashing, seed, keys),
+                layout,
+                rngSeed,
+                true)).join();
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+        return new LongXorFilter(strategy, mapping.seed, mapping.remix, b);
+    }
+
+    // ---
+
+    private final XorFilter.Strategy strategy;
+    private final int seed;
+    private final int remix;
+    private final KBitValueArray b;
+
+    private LongXorFilter(XorFilter.Strategy strategy, int seed, int remix, KBitValueArray b) {
+        this.strategy = strategy;
+        this.seed = seed;
+        this.remix = remix;
+        this.b = b;
+    }
+
+    /**
+     * Returns the number of the remixes of the hashed elements, i.e. the number of the failed attempts of peeling
+     * with the final seed.
+     */
+    int remix() {
+        return remix;
+    }
+
+    public boolean mightContain(long key) {
+        return b.contains(MurmurHashFinalizer.remix(strategy.hash(seed, key), remix));
+    }
+
+    /**
+     * Tests {@code keys[off]} to {@code keys[off + len - 1]} in a batch.
+     * Faster than a {@link #mightContain(long)} loop when the filter does not fit in the CPU cache.
+     * On Java 16 or later with {@code --add-modules jdk.incubator.vector}, the keys of the MURMUR128 and IDENTITY
+     * strategies are hashed with the Vector API.
+     *
+     * @param resultBitmap bitmap that receives the results; bit {@code i % 64} of {@code resultBitmap[i / 64]} is set
+     *                     if {@code keys[off + i]} might be contained, and cleared otherwise.
+     *                     The first {@code ceil(len / 64)} words are overwritten.
+     */
+    public void mightContainAll(long[] keys, int off, int len, long[] resultBitmap) {
+        mightContainAll(keys, off, len, resultBitmap, LongBatchHasher.PREFERRED);
+    }
+
+    void mightContainAll(long[] keys, int off, int len, long[] resultBitmap, LongBatchHasher hasher) {
+        KBitValueArray.checkBatchArguments(keys.length, off, len, resultBitmap);
+
+        long[] xs = new long[KBitValueArray.BATCH_SIZE];
+        int[] h = new int[KBitValueArray.BATCH_SIZE * 3];
+
+        for (int i = 0; i < len; i += KBitValueArray.BATCH_SIZE) {
+            int n = Math.min(KBitValueArray.BATCH_SIZE, len - i);
+            hasher.hashAll(strategy.hashing, seed, remix, keys, off + i, n, xs);
+            resultBitmap[i / KBitValueArray.BATCH_SIZE] = b.containsAll(xs, n, h);
+        }
+    }
+
+    @Override
+    public boolean test(long value) {
+        return mightContain(value);
+    }
+
+    /**
+     * @see XorFilter#estimatedSizeInBytes()
+     */
+    public long estimatedSizeInBytes() {
+        return b.sizeInBytes();
+    }
+
+    /**
+     * @see XorFilter#bitsPerKey()
+     */
+    public double bitsPerKey() {
+        return (double) b.sizeInBytes() * Byte.SIZE / strategy.estimateElements(b.capacity);
+    }
+
+    /**
+     * @see XorFilter#expectedFpp()
+     */
+    public double expectedFpp() {
+        return b.layout.falsePositiveProbability(b, strategy.bitsPerValue);
+    }
+
+    /**
+     * @see XorFilter#writeTo(OutputStream)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeTo(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#writeTo(WritableByteChannel)
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        serializedForm().writeTo(out);
+    }
+
+    /**
+     * @see XorFilter#readFrom(InputStream, com.google.common.hash.Funnel)
+     */
+    public static LongXorFilter readFrom(InputStream in) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(in)) {
+            return readFrom(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#readFrom(ReadableByteChannel, com.google.common.hash.Funnel)
+     */
+    public static LongXorFilter readFrom(ReadableByteChannel in) throws IOException {
+        SerializedForm form = SerializedForm.readFrom(in, SerializedForm.KeyKind.LONG);
+        return of(form);
+    }
+
+    /**
+     * @see XorFilter#map(Path, com.google.common.hash.Funnel)
+     */
+    public static LongXorFilter map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel);
+        }
+    }
+
+    /**
+     * @see XorFilter#map(FileChannel, com.google.common.hash.Funnel)
+     */
+    public static LongXorFilter map(FileChannel channel) throws IOException {
+        SerializedForm form = SerializedForm.map(channel, SerializedForm.KeyKind.LONG);
+        return of(form);
+    }
+
+    static LongXorFilter of(SerializedForm form) {
+        return new LongXorFilter(form.strategy, form.seed, form.remix, form.b);
+    }
+
+    SerializedForm serializedForm() {
+        return new SerializedForm(SerializedForm.KeyKind.LONG, strategy, seed, remix, b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LongXorFilter that = (LongXorFilter) o;
+        return seed == that.seed &&
+                remix == that.remix &&
+                strategy == that.strategy &&
+                Objects.equals(b, that.b);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(strategy, seed, remix, b);
+    }
+
+    @Override
+    public String toString() {
+        return "LongXorFilter{" +
+                "strategy=" + strategy +
+                ", seed=" + seed +
+                ", remix=" + remix +
+                ", b=" + b +
+                '}';
+    }
+}
@@ -0,0 +1,102 @@
+package me.k11i.xorfilter;
+
+import static me.k11i.xorfilter.HashPrimitives.getLong;
+
+/**
+ * The first 64 bits of MurmurHash3 x64 128 as Guava's {@code Hashing.murmur3_128(seed).hashBytes(...).asLong()}
+ * returns, computed without allocation.
+ */
+final class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    static long hash(int seed, byte[] b, int off, int len) {
+        long h1 = seed;
+        long h2 = seed;
+
+        int end = off + (len & ~15);
+        for (int p = off; p < end; p += 16) {
+            h1 ^= mixK1(getLong(b, p));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(getLong(b, p + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        switch (len & 15) {
+            case 15:
+                k2 ^= (b[end + 14] & 0xffL) << 48;
+            case 14:
+                k2 ^= (b[end + 13] & 0xffL) << 40;
+            case 13:
+                k2 ^= (b[end + 12] & 0xffL) << 32;
+            case 12:
+                k2 ^= (b[end + 11] & 0xffL) << 24;
+            case 11:
+                k2 ^= (b[end + 10] & 0xffL) << 16;
+            case 10:
+                k2 ^= (b[end + 9] & 0xffL) << 8;
+            case 9:
+                k2 ^= b[end + 8] & 0xffL;
+            case 8:
+                k1 ^= getLong(b, end);
+                break;
+            case 7:
+                k1 ^= (b[end + 6] & 0xffL) << 48;
+            case 6:
+                k1 ^= (b[end + 5] & 0xffL) << 40;
+            case 5:
+                k1 ^= (b[end + 4] & 0xffL) << 32;
+            case 4:
+                k1 ^= (b[end + 3] & 0xffL) << 24;
+            case 3:
+                k1 ^= (b[end + 2] & 0xffL) << 16;
+            case 2:
+                k1 ^= (b[end + 1] & 0xffL) << 8;
+            case 1:
+                k1 ^= b[end] & 0xffL;
+                break;
+            default:
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
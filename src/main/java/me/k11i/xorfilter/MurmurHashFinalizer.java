@@ -7,4 +7,32 @@ class MurmurHashFinalizer {
         h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
         return h ^ (h >>> 33);
     }
+
+    /**
+     * Inverts {@link #hash(long, long)} with the same seed; each step of the finalizer is a bijection.
+     */
+    static long unhash(long seed, long h) {
+        h ^= h >>> 33;
+        h *= 0x9cb4b2f8129337dbL; // The inverse of 0xc4ceb9fe1a85ec53L
+        h ^= h >>> 33;
+        h *= 0x4f74430c22a54005L; // The inverse of 0xff51afd7ed558ccdL
+        h ^= h >>> 33;
+        return h - seed;
+    }
+
+    /**
+     * Derives the hashed element of a retry from that of the first attempt in one step, by applying
+     * {@link #hash(long, long)} with the round number {@code remix} as the seed.
+     */
+    static long remix(long x, int remix) {
+        return remix == 0 ? x : hash(remix, x);
+    }
+
+    /**
+     * Derives the hashed element of the round {@code toRemix} from that of the round {@code fromRemix}, by recovering
+     * the hashed element of the first attempt with {@link #unhash(long, long)}.
+     */
+    static long remix(long x, int fromRemix, int toRemix) {
+        return remix(fromRemix == 0 ? x : unhash(fromRemix, x), toRemix);
+    }
 }
@@ -0,0 +1,453 @@
+package me.k11i.xorfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+/**
+ * Xor filter for {@code long} keys whose values live outside of the Java heap and may exceed 2^31 slots.
+ *
+ * <p>
+ * Each key is hashed once, and the upper bits of the hash route it to one of 2^k buckets. Every bucket is an
+ * independent filter of the given strategy with its own seed, so the buckets are built one group after another with
+ * bounded scratch memory, and the total number of slots is limited only by the native memory.
+ * The keys are either read several times from a supplier, or read once and sorted externally in temporary files.
+ * Each bucket is sized by the number of its distinct keys, and its values are stored in a direct buffer of its own or
+ * shared with other small buckets, which are released by {@link #close()}.
+ * </p>
+ *
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ * The queries are counted, so that {@link #close()} releases the memory only after the queries in flight have
+ * finished. Each thread counts in a stripe of its own, a counter in a separate cache line, so the queries of many
+ * threads do not contend for a shared counter.
+ * </p>
+ */
+public class OffHeapLongXorFilter implements LongPredicate, Closeable {
+    /** Expected number of keys in a bucket. */
+    private static final int DEFAULT_BUCKET_SIZE = 1 << 24;
+    private static final int MAX_BUCKET_BITS = 16;
+    private static final int MAX_KEYS_PER_BUCKET = 1 << 28;
+    /** Smallest direct buffer, which holds the values of several small buckets. */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    public static OffHeapLongXorFilter build(Supplier<? extends LongStream> keys, XorFilter.Strategy strategy) {
+        return build(keys, strategy, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Builds the filter.
+     *
+     * <p>
+     * {@code keys} is called several times: once to count the keys, and then once per group of buckets that fits in
+     * a quarter of the maximum heap size. It must supply the same keys every time.
+     * </p>
+     */
+    public static OffHeapLongXorFilter build(Supplier<? extends LongStream> keys, XorFilter.Strategy strategy, int rngSeed) {
+        long maxKeysPerPass = Math.max(DEFAULT_BUCKET_SIZE, Runtime.getRuntime().maxMemory() / 4 / Long.BYTES);
+        return build(keys, strategy, rngSeed, DEFAULT_BUCKET_SIZE, maxKeysPerPass);
+    }
+
+    static OffHeapLongXorFilter build(
+            Supplier<? extends LongStream> keys,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            int bucketSize,
+            long maxKeysPerPass) {
+
+        checkStrategy(strategy);
+        SplittableRandom r = new SplittableRandom(rngSeed);
+        final int seed = r.nextInt();
+
+        long[] fineCounts = new long[1 << MAX_BUCKET_BITS];
+        keys.get().forEach(key -> fineCounts[fineBucketOf(strategy.hash(seed, key))]++);
+        long[] counts = bucketCounts(fineCounts, bucketSize);
+
+        Builder builder = new Builder(strategy, seed, counts.length, r);
+        try {
+            builder.fill(keys, counts, maxKeysPerPass);
+        } catch (RuntimeException | Error e) {
+            builder.release();
+            throw e;
+        }
+        return builder.build();
+    }
+
+    public static OffHeapLongXorFilter build(LongStream keys, XorFilter.Strategy strategy, Path tempDirectory) throws IOException {
+        return build(keys, strategy, ThreadLocalRandom.current().nextInt(), tempDirectory);
+    }
+
+    /**
+     * Builds the filter by reading {@code keys} only once.
+     *
+     * <p>
+     * The hashed keys are sorted externally: they are spilled to temporary files in {@code tempDirectory}, about
+     * 8 bytes per key, each time a quarter of the maximum heap size fills up. The files are deleted before this method
+     * returns.
+     * </p>
+     */
+    public static OffHeapLongXorFilter build(
+            LongStream keys,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            Path tempDirectory) throws IOException {
+
+        return build(keys.iterator(), strategy, rngSeed, tempDirectory);
+    }
+
+    static OffHeapLongXorFilter build(
+            PrimitiveIterator.OfLong keys,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            Path tempDirectory) throws IOException {
+
+        int maxKeysInMemory = (int) Math.min(
+                Math.max(DEFAULT_BUCKET_SIZE, Runtime.getRuntime().maxMemory() / 4 / Long.BYTES),
+                Integer.MAX_VALUE - 8);
+        return build(keys, strategy, rngSeed, tempDirectory, DEFAULT_BUCKET_SIZE, maxKeysInMemory);
+    }
+
+    static OffHeapLongXorFilter build(
+            PrimitiveIterator.OfLong keys,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            Path tempDirectory,
+            int bucketSize,
+            int maxKeysInMemory) throws IOException {
+
+        checkStrategy(strategy);
+        SplittableRandom r = new SplittableRandom(rngSeed);
+        int seed = r.nextInt();
+
+        try (ExternalHashSorter sorter = new ExternalHashSorter(tempDirectory, maxKeysInMemory)) {
+            long[] fineCounts = new long[1 << MAX_BUCKET_BITS];
+            while (keys.hasNext()) {
+                long x = strategy.hash(seed, keys.nextLong());
+                fineCounts[fineBucketOf(x)]++;
+                sorter.add(x);
+            }
+            long[] counts = bucketCounts(fineCounts, bucketSize);
+
+            Builder builder = new Builder(strategy, seed, counts.length, r);
+            try {
+                builder.fill(sorter.sortedDistinct(), counts);
+            } catch (RuntimeException | Error e) {
+                builder.release();
+                throw e;
+            }
+            return builder.build();
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void checkStrategy(XorFilter.Strategy strategy) {
+        if (strategy.layoutType == SlotLayout.Type.XOR_PLUS) {
+            // The buckets are allocated before they are built, but the size of the xor+ values is known only after.
+            throw new IllegalArgumentException("The xor+ strategies are not supported off heap: " + strategy);
+        }
+    }
+
+    private static int fineBucketOf(long x) {
+        return (int) (x >>> (Long.SIZE - MAX_BUCKET_BITS));
+    }
+
+    /**
+     * Merges the numbers of the keys of the finest buckets into as many buckets as needed to hold about
+     * {@code bucketSize} keys each. The numbers include the duplicated keys, so they only bound the numbers of the
+     * distinct keys, from which the buckets are sized.
+     */
+    private static long[] bucketCounts(long[] fineCounts, int bucketSize) {
+        long numKeys = LongStream.of(fineCounts).sum();
+        int bucketBits = 0;
+        while (bucketBits < MAX_BUCKET_BITS && numKeys > (long) bucketSize << bucketBits) {
+            bucketBits++;
+        }
+
+        long[] counts = new long[1 << bucketBits];
+        for (int i = 0; i < fineCounts.length; i++) {
+            counts[i >>> (MAX_BUCKET_BITS - bucketBits)] += fineCounts[i];
+        }
+        return counts;
+    }
+
+    private static void checkDistinctKeys(long count) {
+        if (count > MAX_KEYS_PER_BUCKET) {
+            throw new IllegalArgumentException(String.format(
+                    "Too many distinct keys (%d) fall into a single bucket", count));
+        }
+    }
+
+    /**
+     * Builds the buckets one by one, and allocates the direct memory of each once the number of its distinct keys is
+     * known. Consecutive small buckets share a direct buffer of {@link #MIN_CHUNK_SIZE} bytes, and a bucket that does
+     * not fit in the rest of it gets a buffer of its own size or of the minimum size, whichever is larger.
+     */
+    private static final class Builder {
+        private final XorFilter.Strategy strategy;
+        private final int seed;
+        private final int bucketShift;
+        private final SplittableRandom r;
+        private final KBitValueArray[] buckets;
+        private final int[] bucketSeeds;
+        private final byte[] bucketRemixes;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer chunk;
+
+        Builder(XorFilter.Strategy strategy, int seed, int numBuckets, SplittableRandom r) {
+            this.strategy = strategy;
+            this.seed = seed;
+            this.bucketShift = bucketShift(numBuckets);
+            this.r = r;
+            this.buckets = new KBitValueArray[numBuckets];
+            this.bucketSeeds = new int[numBuckets];
+            this.bucketRemixes = new byte[numBuckets];
+        }
+
+        private int bucketOf(long x) {
+            return (int) (x >>> bucketShift) & (buckets.length - 1);
+        }
+
+        /**
+         * Reads the keys of a group of buckets per pass, as many as {@code maxKeysPerPass} keys with the duplicates.
+         */
+        void fill(Supplier<? extends LongStream> keys, long[] counts, long maxKeysPerPass) {
+            int from = 0;
+            while (from < counts.length) {
+                int to = from;
+                long numKeys = 0;
+                while (to < counts.length && (to == from || numKeys + counts[to] <= maxKeysPerPass)) {
+                    numKeys += counts[to++];
+                }
+
+                long[][] hashes = new long[to - from][];
+                for (int i = from; i < to; i++) {
+                    if (counts[i] > Integer.MAX_VALUE - 8) {
+                        throw new IllegalArgumentException(String.format(
+                                "Too many keys (%d) with the duplicates fall into a single bucket;"
+                                        + " build with a temporary directory instead", counts[i]));
+                    }
+                    hashes[i - from] = new long[(int) counts[i]];
+                }
+                int[] sizes = new int[to - from];
+
+                final int first = from;
+                final int last = to;
+                keys.get().forEach(key -> {
+                    long x = strategy.hash(seed, key);
+                    int bucket = bucketOf(x);
+                    if (bucket >= first && bucket < last) {
+                        int i = bucket - first;
+                        if (sizes[i] == hashes[i].length) {
+                            throw new IllegalStateException("The supplier of the keys returned different keys");
+                        }
+                        hashes[i][sizes[i]++] = x;
+                    }
+                });
+
+                for (int i = from; i < to; i++) {
+                    if (sizes[i - from] != counts[i]) {
+                        throw new IllegalStateException("The supplier of the keys returned different keys");
+                    }
+                    long[] bucketHashes = hashes[i - from];
+                    hashes[i - from] = null;
+                    Arrays.sort(bucketHashes);
+                    int n = deduplicate(bucketHashes);
+                    fillBucket(i, n == bucketHashes.length ? bucketHashes : Arrays.copyOf(bucketHashes, n));
+                }
+
+                from = to;
+            }
+        }
+
+        private static int deduplicate(long[] sorted) {
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[n - 1]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Reads the distinct hashed keys in unsigned order, which come bucket by bucket.
+         */
+        void fill(PrimitiveIterator.OfLong sortedHashes, long[] counts) {
+            boolean hasNext = sortedHashes.hasNext();
+            long next = hasNext ? sortedHashes.nextLong() : 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                // The count with the duplicates bounds the number of the distinct keys.
+                long[] hashes = new long[(int) Math.min(counts[i], MAX_KEYS_PER_BUCKET + 1L)];
+                int n = 0;
+                while (hasNext && bucketOf(next) == i) {
+                    if (n == hashes.length) {
+                        checkDistinctKeys(n + 1L);
+                        throw new IllegalStateException("More keys than counted fall into bucket " + i);
+                    }
+                    hashes[n++] = next;
+                    hasNext = sortedHashes.hasNext();
+                    next = hasNext ? sortedHashes.nextLong() : 0;
+                }
+                fillBucket(i, n == hashes.length ? hashes : Arrays.copyOf(hashes, n));
+            }
+        }
+
+        /**
+         * Allocates the values of the bucket for the sorted distinct {@code hashes}, and builds them.
+         */
+        private void fillBucket(int bucket, long[] hashes) {
+            checkDistinctKeys(hashes.length);
+            SlotLayout layout = strategy.newLayout(hashes.length);
+            buckets[bucket] = strategy.wrapArray(layout, allocate((int) strategy.valuesSize(layout)));
+
+            Mapping mapping = XorFilter.buildMappingWithLowMemory(
+                    hashes.length,
+                    (seed, hashedElements) -> hashedElements.hashAll(ElementHashing.MURMUR128, seed, hashes),
+                    layout,
+                    r.nextInt());
+            XorFilter.assign(buckets[bucket], mapping.stack);
+            bucketSeeds[bucket] = mapping.seed;
+            bucketRemixes[bucket] = (byte) mapping.remix;
+        }
+
+        private ByteBuffer allocate(int size) {
+            if (chunk == null || chunk.remaining() < size) {
+                chunk = ByteBuffer.allocateDirect(Math.max(size, MIN_CHUNK_SIZE));
+                chunks.add(chunk);
+            }
+            ByteBuffer duplicate = chunk.duplicate();
+            duplicate.limit(duplicate.position() + size);
+            chunk.position(chunk.position() + size);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        OffHeapLongXorFilter build() {
+            return new OffHeapLongXorFilter(strategy, seed, buckets, bucketSeeds, bucketRemixes, chunks);
+        }
+
+        void release() {
+            for (ByteBuffer chunk : chunks) {
+                DirectBuffers.release(chunk);
+            }
+            chunks.clear();
+        }
+    }
+
+    private static int bucketShift(int numBuckets) {
+        // When there is only one bucket, the shift distance 64 is the same as 0 and the mask selects the only bucket.
+        return Long.SIZE - Integer.numberOfTrailingZeros(numBuckets);
+    }
+
+    // ---
+
+    private final XorFilter.Strategy strategy;
+    private final int seed;
+    private final int bucketShift;
+    private final int bucketMask;
+    private final int[] bucketSeeds;
+    private final byte[] bucketRemixes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final long capacity;
+    private final ReaderCount readers = new ReaderCount(this::release);
+    private final KBitValueArray[] buckets;
+
+    private OffHeapLongXorFilter(
+            XorFilter.Strategy strategy,
+            int seed,
+            KBitValueArray[] buckets,
+            int[] bucketSeeds,
+            byte[] bucketRemixes,
+            List<ByteBuffer> chunks) {
+
+        this.strategy = strategy;
+        this.seed = seed;
+        this.bucketShift = bucketShift(buckets.length);
+        this.bucketMask = buckets.length - 1;
+        this.bucketSeeds = bucketSeeds;
+        this.bucketRemixes = bucketRemixes;
+        this.buckets = buckets;
+        this.chunks.addAll(chunks);
+
+        long capacity = 0;
+        for (KBitValueArray bucket : buckets) {
+            capacity += bucket.layout.capacity;
+        }
+        this.capacity = capacity;
+    }
+
+    private int bucketOf(long x) {
+        return (int) (x >>> bucketShift) & bucketMask;
+    }
+
+    /**
+     * @throws IllegalStateException if the filter has been closed
+     */
+    public boolean mightContain(long key) {
+        long x = strategy.hash(seed, key);
+        int bucket = bucketOf(x);
+        x = MurmurHashFinalizer.remix(MurmurHashFinalizer.hash(bucketSeeds[bucket], x), bucketRemixes[bucket] & 0xff);
+
+        int stripe = readers.acquire();
+        if (stripe < 0) {
+            throw new IllegalStateException("The filter has been closed");
+        }
+        try {
+            return buckets[bucket].contains(x);
+        } finally {
+            readers.release(stripe);
+        }
+    }
+
+    @Override
+    public boolean test(long value) {
+        return mightContain(value);
+    }
+
+    /**
+     * Returns the total number of slots of all the buckets.
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Releases the native memory of the filter once the queries in flight have finished, after which the filter must
+     * not be queried. Calling this method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        readers.retire();
+    }
+
+    private void release() {
+        for (ByteBuffer chunk : chunks) {
+            DirectBuffers.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapLongXorFilter{" +
+                "strategy=" + strategy +
+                ", seed=" + seed +
+                ", numBuckets=" + bucketSeeds.length +
+                ", capacity=" + capacity +
+                '}';
+    }
+}
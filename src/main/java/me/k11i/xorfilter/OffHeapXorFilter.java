@@ -0,0 +1,103 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link OffHeapLongXorFilter} of arbitrary elements, each of which is reduced to a 64-bit hash by the
+ * {@link Funnel} first.
+ *
+ * <p>
+ * Unlike {@link XorFilter#build(Funnel, java.util.Collection, XorFilter.Strategy)}, the elements are read once from
+ * an iterator of unknown length, and the heap usage of the build does not grow with the number of the elements.
+ * </p>
+ */
+@SuppressWarnings("UnstableApiUsage")
+public class OffHeapXorFilter<T> implements Predicate<T>, Closeable {
+    public static <T> OffHeapXorFilter<T> build(
+            Funnel<? super T> funnel,
+            Iterator<? extends T> elements,
+            XorFilter.Strategy strategy,
+            Path tempDirectory) throws IOException {
+
+        return build(funnel, elements, strategy, ThreadLocalRandom.current().nextInt(), tempDirectory);
+    }
+
+    /**
+     * Builds the filter, spilling the hashed elements to temporary files in {@code tempDirectory}.
+     *
+     * @see OffHeapLongXorFilter#build(java.util.stream.LongStream, XorFilter.Strategy, int, Path)
+     */
+    public static <T> OffHeapXorFilter<T> build(
+            Funnel<? super T> funnel,
+            Iterator<? extends T> elements,
+            XorFilter.Strategy strategy,
+            int rngSeed,
+            Path tempDirectory) throws IOException {
+
+        SplittableRandom r = new SplittableRandom(rngSeed);
+        ToLongFunction<T> elementHasher = strategy.newElementHasher(r.nextInt(), funnel);
+
+        PrimitiveIterator.OfLong hashes = new PrimitiveIterator.OfLong() {
+            @Override
+            public boolean hasNext() {
+                return elements.hasNext();
+            }
+
+            @Override
+            public long nextLong() {
+                return elementHasher.applyAsLong(elements.next());
+            }
+        };
+
+        OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(hashes, strategy, r.nextInt(), tempDirectory);
+        return new OffHeapXorFilter<>(elementHasher, filter);
+    }
+
+    // ---
+
+    private final ToLongFunction<T> elementHasher;
+    private final OffHeapLongXorFilter filter;
+
+    private OffHeapXorFilter(ToLongFunction<T> elementHasher, OffHeapLongXorFilter filter) {
+        this.elementHasher = elementHasher;
+        this.filter = filter;
+    }
+
+    public boolean mightContain(T element) {
+        return filter.mightContain(elementHasher.applyAsLong(element));
+    }
+
+    @Override
+    public boolean test(T t) {
+        return mightContain(t);
+    }
+
+    public long capacity() {
+        return filter.capacity();
+    }
+
+    /**
+     * Releases the native memory of the filter.
+     */
+    @Override
+    public void close() {
+        filter.close();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapXorFilter{" +
+                "filter=" + filter +
+                '}';
+    }
+}
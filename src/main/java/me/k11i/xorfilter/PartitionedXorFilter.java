@@ -0,0 +1,480 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Xor filter split into 2^k independent shards.
+ *
+ * <p>
+ * Each element is hashed once with a seed that is fixed for the lifetime of the filter, and the upper k bits of the
+ * hash route it to a shard. Every shard is a filter of the given strategy with its own seed, so the shards are built
+ * in parallel, and {@link #rebuildShard(int, Collection)} replaces one of them without touching the others.
+ * </p>
+ *
+ * <p>
+ * The serialized form is a container of the shards, each of which is a serialized filter:
+ * </p>
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number "XORP"
+ *      4     1  format version (1)
+ *      5     1  byte order of the following fields (0: big-endian, 1: little-endian)
+ *      6     1  strategy (ordinal of XorFilter.Strategy)
+ *      7     1  k, the number of bits that route an element to a shard
+ *      8     4  seed of the routing hash
+ *     12     4  reserved (0)
+ *     16  8(n+1) offset of each of the n shards from the start of the container, followed by the total length
+ *  24+8n     4  CRC-32 of the bytes 0 to 23+8n
+ * </pre>
+ *
+ * <p>
+ * The shards start at multiples of 8 bytes, so that {@link #map(Path, Funnel)} maps their values as they are.
+ * </p>
+ */
+public class PartitionedXorFilter<T> implements Predicate<T> {
+    private static final byte[] MAGIC = {'X', 'O', 'R', 'P'};
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_SIZE = 16;
+    private static final int MAX_SHARD_BITS = 16;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static <T> PartitionedXorFilter<T> build(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            XorFilter.Strategy strategy,
+            int numShards) {
+
+        return build(funnel, elements, strategy, numShards, ThreadLocalRandom.current().nextInt());
+    }
+
+    public static <T> PartitionedXorFilter<T> build(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            XorFilter.Strategy strategy,
+            int numShards,
+            int rngSeed) {
+
+        return build(funnel, elements, strategy, numShards, rngSeed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds the filter, using the threads of {@code pool} to build the shards in parallel.
+     * The result does not depend on the pool.
+     *
+     * @param numShards number of the shards, which must be a power of two up to 65536
+     */
+    public static <T> PartitionedXorFilter<T> build(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            XorFilter.Strategy strategy,
+            int numShards,
+            int rngSeed,
+            ForkJoinPool pool) {
+
+        if (numShards <= 0 || numShards > 1 << MAX_SHARD_BITS || Integer.bitCount(numShards) != 1) {
+            throw new IllegalArgumentException(String.format(
+                    "numShards must be a power of two up to %d: %d", 1 << MAX_SHARD_BITS, numShards));
+        }
+
+        SplittableRandom r = new SplittableRandom(rngSeed);
+        int seed = r.nextInt();
+        int shardBits = Integer.numberOfTrailingZeros(numShards);
+        ToLongFunction<T> elementHasher = strategy.newElementHasher(seed, funnel);
+
+        long[] hashes = new long[elements.size()];
+        int[] counts = new int[numShards];
+        int n = 0;
+        for (T element : elements) {
+            long x = elementHasher.applyAsLong(element);
+            hashes[n++] = x;
+            counts[shardOf(x, shardBits)]++;
+        }
+
+        long[][] shardHashes = new long[numShards][];
+        for (int i = 0; i < numShards; i++) {
+            shardHashes[i] = new long[counts[i]];
+        }
+        Arrays.fill(counts, 0);
+        for (long x : hashes) {
+            int shard = shardOf(x, shardBits);
+            shardHashes[shard][counts[shard]++] = x;
+        }
+        hashes = null;
+
+        // Draw the seeds of the shards up front, so that they do not depend on the order in which the shards are built.
+        int[] rngSeeds = r.ints(numShards).toArray();
+        Shard[] shards = new Shard[numShards];
+        pool.submit(() -> IntStream.range(0, numShards)
+                .parallel()
+                .forEach(i -> {
+                    shards[i] = buildShard(strategy, shardHashes[i], rngSeeds[i]);
+                    shardHashes[i] = null;
+                }))
+                .join();
+
+        return new PartitionedXorFilter<>(strategy, seed, funnel, shards);
+    }
+
+    private static Shard buildShard(XorFilter.Strategy strategy, long[] hashes, int rngSeed) {
+        SlotLayout layout = strategy.newLayout(hashes.length);
+        Mapping mapping = XorFilter.buildMapping(
+                hashes.length,
+                (seed, hashedElements) -> hashedElements.hashAll(ElementHashing.MURMUR128, seed, hashes),
+                layout,
+                rngSeed,
+                false);
+        KBitValueArray b = XorFilter.assign(strategy.newArray(layout), mapping.stack);
+        return new Shard(mapping.seed, mapping.remix, b);
+    }
+
+    private static int shardOf(long x, int shardBits) {
+        // When shardBits is 0, the shift distance 64 is the same as 0 and the mask selects the only shard.
+        return (int) (x >>> (Long.SIZE - shardBits)) & ((1 << shardBits) - 1);
+    }
+
+    // ---
+
+    private final XorFilter.Strategy strategy;
+    private final int seed;
+    private final int shardBits;
+    private final ToLongFunction<T> elementHasher;
+    private final Funnel<? super T> funnel;
+    private final Shard[] shards;
+
+    private PartitionedXorFilter(XorFilter.Strategy strategy, int seed, Funnel<? super T> funnel, Shard[] shards) {
+        this.strategy = strategy;
+        this.seed = seed;
+        this.shardBits = Integer.numberOfTrailingZeros(shards.length);
+        this.elementHasher = strategy.newElementHasher(seed, funnel);
+        this.funnel = funnel;
+        this.shards = shards;
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard to which {@code element} is routed.
+     */
+    public int shardOf(T element) {
+        return shardOf(elementHasher.applyAsLong(element), shardBits);
+    }
+
+    public PartitionedXorFilter<T> rebuildShard(int shard, Collection<T> elements) {
+        return rebuildShard(shard, elements, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Returns the filter whose shard {@code shard} is built again from those of {@code elements} that are routed to
+     * it; the other elements are ignored, so either all the elements or only the ones of the shard can be given.
+     * The other shards are shared with this filter, which is not changed.
+     */
+    public PartitionedXorFilter<T> rebuildShard(int shard, Collection<T> elements, int rngSeed) {
+        if (shard < 0 || shard >= shards.length) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "shard: %d, numShards: %d", shard, shards.length));
+        }
+
+        long[] hashes = new long[elements.size()];
+        int n = 0;
+        for (T element : elements) {
+            long x = elementHasher.applyAsLong(element);
+            if (shardOf(x, shardBits) == shard) {
+                hashes[n++] = x;
+            }
+        }
+
+        Shard[] newShards = shards.clone();
+        newShards[shard] = buildShard(strategy, Arrays.copyOf(hashes, n), rngSeed);
+        return new PartitionedXorFilter<>(strategy, seed, funnel, newShards);
+    }
+
+    public boolean mightContain(T element) {
+        long x = elementHasher.applyAsLong(element);
+        Shard shard = shards[shardOf(x, shardBits)];
+        return shard.b.contains(MurmurHashFinalizer.remix(MurmurHashFinalizer.hash(shard.seed, x), shard.remix));
+    }
+
+    @Override
+    public boolean test(T t) {
+        return mightContain(t);
+    }
+
+    /**
+     * Writes the filter and closes {@code out}.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeTo(channel);
+        }
+    }
+
+    /**
+     * Writes the filter in bulk to {@code out}, which is left open.
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        long[] offsets = new long[shards.length + 1];
+        offsets[0] = headerSize(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            offsets[i + 1] = offsets[i] + align(SerializedForm.serializedSize(shards[i].b));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize(shards.length)).order(BYTE_ORDER);
+        header.put(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) (BYTE_ORDER == ByteOrder.LITTLE_ENDIAN ? 1 : 0))
+                .put((byte) strategy.ordinal())
+                .put((byte) shardBits)
+                .putInt(seed)
+                .putInt(0);
+        for (long offset : offsets) {
+            header.putLong(offset);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array(), 0, header.position());
+        header.putInt((int) checksum.getValue());
+        header.position(0);
+        KBitValueArray.writeFully(out, header);
+
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            new SerializedForm(SerializedForm.KeyKind.OBJECT, strategy, shard.seed, shard.remix, shard.b).writeTo(out);
+            int padding = (int) (offsets[i + 1] - offsets[i] - SerializedForm.serializedSize(shard.b));
+            KBitValueArray.writeFully(out, ByteBuffer.allocate(padding));
+        }
+    }
+
+    /**
+     * Reads the filter written by {@link #writeTo(OutputStream)}, and closes {@code in}.
+     *
+     * @throws IOException if the input is not a serialized partitioned filter, or it is truncated or corrupted
+     */
+    public static <T> PartitionedXorFilter<T> readFrom(InputStream in, Funnel<? super T> funnel) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(in)) {
+            return readFrom(channel, funnel);
+        }
+    }
+
+    /**
+     * Reads the filter in bulk from {@code in}, which is left open right after the filter.
+     *
+     * @throws IOException if the input is not a serialized partitioned filter, or it is truncated or corrupted
+     */
+    public static <T> PartitionedXorFilter<T> readFrom(ReadableByteChannel in, Funnel<? super T> funnel) throws IOException {
+        Header h = Header.readFrom(in);
+
+        Shard[] shards = new Shard[h.offsets.length - 1];
+        long position = h.offsets[0];
+        for (int i = 0; i < shards.length; i++) {
+            skip(in, h.offsets[i] - position);
+            shards[i] = h.shardOf(SerializedForm.readFrom(in, SerializedForm.KeyKind.OBJECT));
+            position = h.offsets[i] + SerializedForm.serializedSize(shards[i].b);
+            h.checkShardLength(i, position);
+        }
+        skip(in, h.offsets[shards.length] - position);
+
+        return new PartitionedXorFilter<>(h.strategy, h.seed, funnel, shards);
+    }
+
+    /**
+     * Maps the filter written by {@link #writeTo(OutputStream)} to {@code path} into memory.
+     *
+     * @see XorFilter#map(Path, Funnel)
+     */
+    public static <T> PartitionedXorFilter<T> map(Path path, Funnel<? super T> funnel) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, funnel);
+        }
+    }
+
+    /**
+     * Maps the filter stored at the current position of {@code channel} into memory, and advances the position past
+     * the filter.
+     *
+     * @see XorFilter#map(FileChannel, Funnel)
+     */
+    public static <T> PartitionedXorFilter<T> map(FileChannel channel, Funnel<? super T> funnel) throws IOException {
+        long start = channel.position();
+        Header h = Header.readFrom(channel);
+
+        Shard[] shards = new Shard[h.offsets.length - 1];
+        for (int i = 0; i < shards.length; i++) {
+            channel.position(start + h.offsets[i]);
+            shards[i] = h.shardOf(SerializedForm.map(channel, SerializedForm.KeyKind.OBJECT));
+            h.checkShardLength(i, channel.position() - start);
+        }
+        if (start + h.offsets[shards.length] > channel.size()) {
+            throw new IOException("Truncated serialized partitioned filter");
+        }
+        channel.position(start + h.offsets[shards.length]);
+
+        return new PartitionedXorFilter<>(h.strategy, h.seed, funnel, shards);
+    }
+
+    private static int headerSize(int numShards) {
+        return (int) align(FIXED_HEADER_SIZE + Long.BYTES * (numShards + 1) + Integer.BYTES);
+    }
+
+    private static long align(long size) {
+        return (size + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static void skip(ReadableByteChannel in, long n) throws IOException {
+        if (n > 0) {
+            KBitValueArray.readFully(in, ByteBuffer.allocate((int) n));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PartitionedXorFilter<?> that = (PartitionedXorFilter<?>) o;
+        return seed == that.seed &&
+                strategy == that.strategy &&
+                Objects.equals(funnel, that.funnel) &&
+                Arrays.equals(shards, that.shards);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(strategy, seed, funnel, Arrays.hashCode(shards));
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionedXorFilter{" +
+                "strategy=" + strategy +
+                ", seed=" + seed +
+                ", funnel=" + funnel +
+                ", numShards=" + shards.length +
+                '}';
+    }
+
+    private static final class Shard {
+        final int seed;
+        final int remix;
+        final KBitValueArray b;
+
+        Shard(int seed, int remix, KBitValueArray b) {
+            this.seed = seed;
+            this.remix = remix;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Shard shard = (Shard) o;
+            return seed == shard.seed &&
+                    remix == shard.remix &&
+                    Objects.equals(b, shard.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(seed, remix, b);
+        }
+    }
+
+    private static final class Header {
+        final XorFilter.Strategy strategy;
+        final int seed;
+        final long[] offsets;
+
+        private Header(XorFilter.Strategy strategy, int seed, long[] offsets) {
+            this.strategy = strategy;
+            this.seed = seed;
+            this.offsets = offsets;
+        }
+
+        static Header readFrom(ReadableByteChannel in) throws IOException {
+            ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+            KBitValueArray.readFully(in, fixed);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (fixed.get(i) != MAGIC[i]) {
+                    throw new IOException("Not a serialized partitioned filter: wrong magic number");
+                }
+            }
+            if (fixed.get(4) != VERSION) {
+                throw new IOException("Unsupported format version: " + fixed.get(4));
+            }
+            if (fixed.get(5) != 0 && fixed.get(5) != 1) {
+                throw new IOException("Corrupted serialized partitioned filter: unknown byte order " + fixed.get(5));
+            }
+            int shardBits = fixed.get(7);
+            if (shardBits < 0 || shardBits > MAX_SHARD_BITS) {
+                throw new IOException("Corrupted serialized partitioned filter: " + shardBits + " shard bits");
+            }
+
+            int headerSize = headerSize(1 << shardBits);
+            ByteBuffer header = ByteBuffer.allocate(headerSize)
+                    .order(fixed.get(5) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            header.put(fixed.array());
+            KBitValueArray.readFully(in, header);
+
+            int checksumOffset = FIXED_HEADER_SIZE + Long.BYTES * ((1 << shardBits) + 1);
+            CRC32 checksum = new CRC32();
+            checksum.update(header.array(), 0, checksumOffset);
+            if (header.getInt(checksumOffset) != (int) checksum.getValue()) {
+                throw new IOException("Checksum mismatch: the header of the serialized partitioned filter is corrupted");
+            }
+
+            XorFilter.Strategy[] strategies = XorFilter.Strategy.values();
+            int ordinal = header.get(6);
+            if (ordinal < 0 || ordinal >= strategies.length) {
+                throw new IOException("Unknown strategy: " + ordinal);
+            }
+
+            long[] offsets = new long[(1 << shardBits) + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = header.getLong(FIXED_HEADER_SIZE + Long.BYTES * i);
+                if (i == 0 ? offsets[i] != headerSize : offsets[i] < offsets[i - 1] || (offsets[i] & 7) != 0) {
+                    throw new IOException("Corrupted serialized partitioned filter: invalid offset of shard " + i);
+                }
+            }
+
+            return new Header(strategies[ordinal], header.getInt(8), offsets);
+        }
+
+        Shard shardOf(SerializedForm form) throws IOException {
+            if (form.strategy != strategy) {
+                throw new IOException(String.format(
+                        "Corrupted serialized partitioned filter: a shard of %s in a filter of %s",
+                        form.strategy, strategy));
+            }
+            return new Shard(form.seed, form.remix, form.b);
+        }
+
+        void checkShardLength(int shard, long end) throws IOException {
+            if (end > offsets[shard + 1]) {
+                throw new IOException("Corrupted serialized partitioned filter: shard " + shard + " overruns its offset");
+            }
+        }
+    }
+}
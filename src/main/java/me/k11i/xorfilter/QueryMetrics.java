@@ -0,0 +1,139 @@
+package me.k11i.xorfilter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the queries of {@link InstrumentedFilter} and {@link InstrumentedLongFilter}.
+ *
+ * <p>
+ * The queries and the positives are counted by {@link LongAdder}s, which do not contend across threads. The latency
+ * is measured for a random sample of the queries, one in {@code samplingInterval} on average, and counted in buckets
+ * of powers of two nanoseconds. The counters are read without stopping the queries, so a snapshot may be off by the
+ * queries in flight.
+ * </p>
+ */
+public final class QueryMetrics {
+    private static final int NUM_BUCKETS = Long.SIZE;
+
+    private final int samplingMask;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder positives = new LongAdder();
+    private final AtomicLongArray latencyCounts = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * @param samplingInterval power of two; one in {@code samplingInterval} queries is timed on average, or none if 0
+     */
+    QueryMetrics(int samplingInterval) {
+        if (samplingInterval < 0 || Integer.bitCount(samplingInterval) > 1) {
+            throw new IllegalArgumentException("samplingInterval must be 0 or a power of two: " + samplingInterval);
+        }
+        this.samplingMask = samplingInterval == 0 ? -1 : samplingInterval - 1;
+    }
+
+    /**
+     * Returns {@code true} if the next query should be timed.
+     */
+    boolean sample() {
+        return samplingMask >= 0 && (ThreadLocalRandom.current().nextInt() & samplingMask) == 0;
+    }
+
+    void record(boolean positive) {
+        queries.increment();
+        if (positive) {
+            positives.increment();
+        }
+    }
+
+    void record(boolean positive, long latencyNanos) {
+        record(positive);
+        latencyCounts.incrementAndGet(bucketOf(latencyNanos));
+    }
+
+    private static int bucketOf(long nanos) {
+        return Math.min(NUM_BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0)), NUM_BUCKETS - 1);
+    }
+
+    public long queryCount() {
+        return queries.sum();
+    }
+
+    public long positiveCount() {
+        return positives.sum();
+    }
+
+    /**
+     * Returns the ratio of the positives to the queries, or {@code NaN} if there have been no queries. If most of the
+     * queried elements have not been added, a rate far above {@link XorFilter#expectedFpp()} suggests that the filter
+     * is stale or is queried with the wrong funnel.
+     */
+    public double positiveRate() {
+        long n = queryCount();
+        return n == 0 ? Double.NaN : (double) positiveCount() / n;
+    }
+
+    /**
+     * Returns the numbers of the timed queries by latency: element {@code i} counts those that took less than
+     * {@code 2^i} nanoseconds and, unless {@code i} is 0, at least {@code 2^(i-1)} nanoseconds.
+     */
+    public long[] latencyCounts() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = latencyCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the upper bound in nanoseconds of the bucket of {@link #latencyCounts()} that holds the {@code quantile}
+     * of the timed queries, or 0 if none has been timed.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     */
+    public long latencyQuantileNanos(double quantile) {
+        if (!(quantile >= 0 && quantile <= 1)) {
+            throw new IllegalArgumentException("Invalid quantile: " + quantile);
+        }
+
+        long[] counts = latencyCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max((long) Math.ceil(quantile * total), 1);
+        long cumulative = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Clears all the counters, e.g. after they have been exported.
+     */
+    public void reset() {
+        queries.reset();
+        positives.reset();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            latencyCounts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{" +
+                "queries=" + queryCount() +
+                ", positives=" + positiveCount() +
+                ", p50=" + latencyQuantileNanos(0.5) + "ns" +
+                ", p99=" + latencyQuantileNanos(0.99) + "ns" +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package me.k11i.xorfilter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the readers of memory that is released explicitly, such as a mapped or a direct buffer, so that the memory
+ * is released only after it has been retired and the last reader has finished.
+ *
+ * <p>
+ * A reader calls {@link #acquire()} before it reads the memory and, if that succeeds, {@link #release(int)} with the
+ * stripe it returned after. Once {@link #retire()} has been called, no reader can acquire it any more, and the releaser
+ * runs exactly once, on the thread of either {@code retire} or the last {@code release}.
+ * </p>
+ *
+ * <p>
+ * The readers are counted in stripes chosen by the thread, each in a cache line of its own, so that the threads do not
+ * write to a shared counter; a reader increments the count of its stripe and then reads the retired flag, and
+ * {@code retire} sets the flag and then sums the stripes, so that either the reader backs off or the sum includes it.
+ * </p>
+ */
+final class ReaderCount {
+    /** Longs from one stripe to the next, which puts each stripe in a cache line of its own. */
+    private static final int PADDING = 16;
+    private static final int STRIPE_BITS = stripeBits();
+
+    /** Returns the bits of the number of the stripes, the power of two of at least 4 per CPU and at most 1024. */
+    private static int stripeBits() {
+        int stripes = Math.min(Runtime.getRuntime().availableProcessors() * 4, 1 << 10);
+        return 32 - Integer.numberOfLeadingZeros(stripes - 1);
+    }
+
+    // The stripe i is at (i + 1) * PADDING, away from the header of the array.
+    private final AtomicLongArray counts = new AtomicLongArray(((1 << STRIPE_BITS) + 1) * PADDING);
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final Runnable releaser;
+    private volatile boolean retired;
+
+    ReaderCount(Runnable releaser) {
+        this.releaser = releaser;
+    }
+
+    /**
+     * Returns the stripe to pass to {@link #release(int)} once the memory has been read, or {@code -1} if it has been
+     * retired and must not be read.
+     */
+    int acquire() {
+        long id = Thread.currentThread().getId();
+        int stripe = ((int) (id * 0x9e3779b97f4a7c15L >>> (Long.SIZE - STRIPE_BITS)) + 1) * PADDING;
+        counts.getAndIncrement(stripe);
+        if (retired) {
+            release(stripe);
+            return -1;
+        }
+        return stripe;
+    }
+
+    void release(int stripe) {
+        counts.getAndDecrement(stripe);
+        if (retired) {
+            releaseIfUnread();
+        }
+    }
+
+    /**
+     * Prevents further readers, and releases the memory now if there are none. Calling it more than once has no effect.
+     */
+    void retire() {
+        retired = true;
+        releaseIfUnread();
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    private void releaseIfUnread() {
+        for (int i = PADDING; i < counts.length(); i += PADDING) {
+            if (counts.get(i) != 0) {
+                return;
+            }
+        }
+        if (released.compareAndSet(false, true)) {
+            releaser.run();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Holder of an {@link XorFilter} that is replaced while it is being queried.
+ *
+ * <p>
+ * A query reads the current filter with a single volatile read, and a new filter is swapped in atomically, so queries
+ * never block. The filter is loaded from a file, or from the most recently modified file of a directory, which a
+ * background thread polls for changes. It may also be swapped in directly, or rebuilt on the background thread.
+ * A file should be replaced atomically: write it under a name that starts with a dot, which is ignored, and rename it.
+ * </p>
+ *
+ * <p>
+ * A mapped filter is unmapped as soon as it has been replaced and the last query of it has finished, instead of
+ * whenever the garbage collector finds it. The queries of a mapped filter are counted for this purpose in a counter
+ * of the stripe of the thread, which the other threads rarely write to; the queries of a filter on the heap are not
+ * counted.
+ * </p>
+ */
+public class ReloadableXorFilter<T> implements Predicate<T>, Closeable {
+    private static final long DEFAULT_POLL_INTERVAL_MILLIS = 10_000;
+
+    /**
+     * Holds {@code filter}, which is replaced only by {@link #swap(XorFilter)} and {@link #rebuild(Supplier)}.
+     */
+    public static <T> ReloadableXorFilter<T> of(XorFilter<T> filter) {
+        ReloadableXorFilter<T> holder = new ReloadableXorFilter<>(null, null, false);
+        holder.swap(filter);
+        return holder;
+    }
+
+    /**
+     * Loads the filter from {@code path}, and reloads it every 10 seconds if the file has changed.
+     *
+     * @see #watch(Path, Funnel, boolean, long, TimeUnit)
+     */
+    public static <T> ReloadableXorFilter<T> watch(Path path, Funnel<? super T> funnel, boolean map) throws IOException {
+        return watch(path, funnel, map, DEFAULT_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the filter written by {@link XorFilter#writeTo(java.io.OutputStream)}, and polls for a new version of it on
+     * the background thread.
+     *
+     * @param path         file of the filter, or directory whose most recently modified file is the filter
+     * @param map          {@code true} to map the file into memory as {@link XorFilter#map(Path, Funnel)} does, or
+     *                     {@code false} to read it onto the heap
+     * @param pollInterval interval of checking whether the file has changed
+     * @throws IOException if the first version cannot be loaded; later failures are counted by
+     *                     {@link #failureCount()} and leave the current filter in place
+     */
+    public static <T> ReloadableXorFilter<T> watch(
+            Path path,
+            Funnel<? super T> funnel,
+            boolean map,
+            long pollInterval,
+            TimeUnit unit) throws IOException {
+
+        if (pollInterval <= 0) {
+            throw new IllegalArgumentException("Invalid pollInterval: " + pollInterval);
+        }
+
+        ReloadableXorFilter<T> holder = new ReloadableXorFilter<>(path, funnel, map);
+        try {
+            holder.reload();
+        } catch (IOException | RuntimeException e) {
+            holder.close();
+            throw e;
+        }
+        holder.executor.scheduleWithFixedDelay(holder::poll, pollInterval, pollInterval, unit);
+        return holder;
+    }
+
+    // ---
+
+    private static final class Generation<T> {
+        final XorFilter<T> filter;
+        final long number;
+        /** The readers of the mapped buffer of the values, or {@code null} if they are on the heap. */
+        final ReaderCount readers;
+
+        Generation(XorFilter<T> filter, long number, ByteBuffer mapping) {
+            this.filter = filter;
+            this.number = number;
+            this.readers = mapping == null ? null : new ReaderCount(() -> DirectBuffers.release(mapping));
+        }
+
+        void retire() {
+            if (readers != null) {
+                readers.retire();
+            }
+        }
+    }
+
+    /**
+     * Identifies a version of a file by its name, modification time, size and file key.
+     */
+    private static final class FileVersion {
+        final Path path;
+        final FileTime lastModifiedTime;
+        final long size;
+        final Object fileKey;
+
+        FileVersion(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.fileKey = attributes.fileKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FileVersion that = (FileVersion) o;
+            return size == that.size &&
+                    path.equals(that.path) &&
+                    lastModifiedTime.equals(that.lastModifiedTime) &&
+                    Objects.equals(fileKey, that.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModifiedTime, size, fileKey);
+        }
+    }
+
+    private final Path path;
+    private final Funnel<? super T> funnel;
+    private final boolean map;
+    private final ScheduledExecutorService executor;
+
+    /** Replaced in {@code this} monitor; {@code null} once closed. */
+    private volatile Generation<T> current;
+    /** Guarded by {@code this}. */
+    private long lastGeneration;
+    /** Guarded by {@code this}. */
+    private FileVersion loadedVersion;
+    /** Guarded by {@code this}. */
+    private boolean closed;
+
+    private volatile long lastLoadNanos = -1;
+    private volatile long failureCount;
+    private volatile Exception lastFailure;
+
+    private ReloadableXorFilter(Path path, Funnel<? super T> funnel, boolean map) {
+        this.path = path;
+        this.funnel = funnel;
+        this.map = map;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ReloadableXorFilter-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @throws IllegalStateException if the holder has been closed
+     */
+    public boolean mightContain(T element) {
+        while (true) {
+            Generation<T> g = current();
+            if (g.readers == null) {
+                return g.filter.mightContain(element);
+            }
+            int stripe = g.readers.acquire();
+            if (stripe >= 0) {
+                try {
+                    return g.filter.mightContain(element);
+                } finally {
+                    g.readers.release(stripe);
+                }
+            }
+            // Replaced after it has been read, so read the new one.
+        }
+    }
+
+    private Generation<T> current() {
+        Generation<T> g = current;
+        if (g == null) {
+            throw new IllegalStateException("The filter has been closed");
+        }
+        return g;
+    }
+
+    @Override
+    public boolean test(T t) {
+        return mightContain(t);
+    }
+
+    /**
+     * Applies {@code function} to the current filter, e.g. to call {@link XorFilter#mightContainAll}.
+     * A mapped filter is not unmapped until {@code function} returns, and must not be used after that.
+     *
+     * @throws IllegalStateException if the holder has been closed
+     */
+    public <R> R apply(Function<? super XorFilter<T>, ? extends R> function) {
+        while (true) {
+            Generation<T> g = current();
+            if (g.readers == null) {
+                return function.apply(g.filter);
+            }
+            int stripe = g.readers.acquire();
+            if (stripe >= 0) {
+                try {
+                    return function.apply(g.filter);
+                } finally {
+                    g.readers.release(stripe);
+                }
+            }
+            // Replaced after it has been read, so read the new one.
+        }
+    }
+
+    /**
+     * Replaces the filter with {@code filter}. The watched file is loaded again only after it changes.
+     *
+     * @return the generation of {@code filter}
+     */
+    public synchronized long swap(XorFilter<T> filter) {
+        return install(Objects.requireNonNull(filter), null);
+    }
+
+    /**
+     * Builds a filter on the background thread, and swaps it in.
+     *
+     * @return the future of the generation of the new filter
+     */
+    public CompletableFuture<Long> rebuild(Supplier<XorFilter<T>> builder) {
+        return CompletableFuture.supplyAsync(() -> swap(builder.get()), executor);
+    }
+
+    /**
+     * Loads the watched file now if it has changed since it was last loaded.
+     *
+     * @return {@code true} if a new version has been swapped in
+     * @throws IOException if the file cannot be loaded, in which case the current filter is left in place
+     */
+    public synchronized boolean reload() throws IOException {
+        checkOpen();
+        if (path == null) {
+            return false;
+        }
+
+        Path file = locate();
+        FileVersion version = new FileVersion(file, Files.readAttributes(file, BasicFileAttributes.class));
+        if (version.equals(loadedVersion)) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SerializedForm form = map ? SerializedForm.map(channel, SerializedForm.KeyKind.OBJECT) : SerializedForm.readFrom(channel, SerializedForm.KeyKind.OBJECT);
+            install(XorFilter.of(form, funnel), form.mapping);
+        }
+        lastLoadNanos = System.nanoTime() - start;
+        loadedVersion = version;
+        return true;
+    }
+
+    private Path locate() throws IOException {
+        if (!Files.isDirectory(path)) {
+            return path;
+        }
+
+        Path newest = null;
+        FileTime newestTime = null;
+        try (Stream<Path> files = Files.list(path)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith(".") || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                FileTime time = Files.getLastModifiedTime(file);
+                int c = newest == null ? 1 : time.compareTo(newestTime);
+                if (c > 0 || c == 0 && file.getFileName().compareTo(newest.getFileName()) > 0) {
+                    newest = file;
+                    newestTime = time;
+                }
+            }
+        }
+        if (newest == null) {
+            throw new NoSuchFileException(path.toString(), null, "No filter in the directory");
+        }
+        return newest;
+    }
+
+    private void poll() {
+        try {
+            reload();
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed()) {
+                lastFailure = e;
+                failureCount++;
+            }
+        }
+    }
+
+    private long install(XorFilter<T> filter, ByteBuffer mapping) {
+        checkOpen();
+        Generation<T> old = current;
+        current = new Generation<>(filter, ++lastGeneration, mapping);
+        if (old != null) {
+            old.retire();
+        }
+        return lastGeneration;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The filter has been closed");
+        }
+    }
+
+    /**
+     * Returns the generation of the current filter, which starts at 1 and increases by one on each swap.
+     */
+    public long generation() {
+        Generation<T> g = current;
+        return g == null ? lastGeneration() : g.number;
+    }
+
+    private synchronized long lastGeneration() {
+        return lastGeneration;
+    }
+
+    /**
+     * Returns the time taken to load the last version of the file in nanoseconds, or -1 if none has been loaded.
+     */
+    public long lastLoadNanos() {
+        return lastLoadNanos;
+    }
+
+    /**
+     * Returns the number of the background reloads that have failed.
+     */
+    public long failureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the exception of the last failed background reload, or {@code null} if none has failed.
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stops the background thread, and unmaps the current filter once the queries in flight have finished.
+     * The holder must not be queried after this method. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            Generation<T> g = current;
+            current = null;
+            if (g != null) {
+                g.retire();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        Generation<T> g = current;
+        return "ReloadableXorFilter{" +
+                "path=" + path +
+                ", generation=" + (g == null ? "closed" : g.number) +
+                ", filter=" + (g == null ? null : g.filter) +
+                '}';
+    }
+}
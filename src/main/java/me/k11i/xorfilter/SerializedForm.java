@@ -0,0 +1,312 @@
+package me.k11i.xorfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Serialized form of the filters.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number "XORF"
+ *      4     1  format version (1)
+ *      5     1  byte order of the following fields and the values (0: big-endian, 1: little-endian)
+ *      6     1  strategy (ordinal of XorFilter.Strategy)
+ *      7     1  number of remixes of the hashed elements (unsigned)
+ *      8     1  kind of the keys (0: XorFilter, 1: LongXorFilter, 2: BytesXorFilter)
+ *      9     3  reserved (0)
+ *     12     4  seed
+ *     16     4  capacity
+ *     20     4  layout parameter
+ *     24     8  length of the values in bytes
+ *     32     4  CRC-32 of the bytes 0 to 31
+ *     36     4  reserved (0)
+ *     40     n  values
+ *   40+n     4  CRC-32 of the values
+ * </pre>
+ *
+ * <p>
+ * The values start at a multiple of 8 bytes so that they can be mapped into memory as they are.
+ * The kind of the keys tells how the keys have been hashed, and a filter is read only by the class that wrote it.
+ * Input that does not start with the magic number is read as the unversioned format of 0.1.x, which only
+ * {@link XorFilter} with {@link XorFilter.Strategy#MURMUR128_XOR8} or {@link XorFilter.Strategy#MURMUR128_XOR16} wrote:
+ * the strategy ordinal, the seed, the capacity and the big-endian values, with no remixes.
+ * </p>
+ */
+final class SerializedForm {
+    private static final byte[] MAGIC = {'X', 'O', 'R', 'F'};
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int TRAILER_SIZE = 4;
+    private static final int HEADER_CHECKSUM_OFFSET = 32;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Kind of the keys, or the class of the filter, which determines how the keys are hashed.
+     */
+    enum KeyKind {
+        OBJECT("XorFilter"),
+        LONG("LongXorFilter"),
+        BYTES("BytesXorFilter");
+
+        private final String className;
+
+        KeyKind(String className) {
+            this.className = className;
+        }
+
+        private static KeyKind of(int code) throws IOException {
+            KeyKind[] kinds = values();
+            if (code < 0 || code >= kinds.length) {
+                throw new IOException("Corrupted serialized filter: unknown kind of keys " + code);
+            }
+            return kinds[code];
+        }
+
+        private void check(KeyKind expected) throws IOException {
+            if (this != expected) {
+                throw new IOException(String.format(
+                        "The serialized filter was written by %s, and cannot be read by %s", className, expected.className));
+            }
+        }
+    }
+
+    final KeyKind keyKind;
+    final XorFilter.Strategy strategy;
+    final int seed;
+    final int remix;
+    final KBitValueArray b;
+    /** The mapped buffer that {@code b} reads, or {@code null} if the values are on the heap. */
+    final ByteBuffer mapping;
+
+    SerializedForm(KeyKind keyKind, XorFilter.Strategy strategy, int seed, int remix, KBitValueArray b) {
+        this(keyKind, strategy, seed, remix, b, null);
+    }
+
+    SerializedForm(KeyKind keyKind, XorFilter.Strategy strategy, int seed, int remix, KBitValueArray b, ByteBuffer mapping) {
+        this.keyKind = keyKind;
+        this.strategy = strategy;
+        this.seed = seed;
+        this.remix = remix;
+        this.b = b;
+        this.mapping = mapping;
+    }
+
+    static long serializedSize(KBitValueArray b) {
+        return HEADER_SIZE + b.sizeInBytes() + TRAILER_SIZE;
+    }
+
+    void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        header.put(MAGIC)
+                .put((byte) VERSION)
+                .put(byteOrderCode(BYTE_ORDER))
+                .put((byte) strategy.ordinal())
+                .put((byte) remix)
+                .put((byte) keyKind.ordinal())
+                .put(new byte[3])
+                .putInt(seed)
+                .putInt(b.capacity)
+                .putInt(b.layout.parameter())
+                .putLong(b.sizeInBytes());
+
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array(), 0, HEADER_CHECKSUM_OFFSET);
+        header.putInt((int) checksum.getValue())
+                .putInt(0);
+        header.flip();
+        KBitValueArray.writeFully(out, header);
+
+        checksum.reset();
+        b.writeTo(out, BYTE_ORDER, checksum);
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(BYTE_ORDER);
+        trailer.putInt((int) checksum.getValue());
+        trailer.flip();
+        KBitValueArray.writeFully(out, trailer);
+    }
+
+    /**
+     * Reads the filter of {@code keyKind} at the current position of {@code in}.
+     *
+     * @throws IOException if the input is corrupted, or is a filter of another kind of keys
+     */
+    static SerializedForm readFrom(ReadableByteChannel in, KeyKind keyKind) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.limit(1);
+        KBitValueArray.readFully(in, header);
+        if (header.get(0) != MAGIC[0]) {
+            // DataInputStream does not read ahead, so nothing after the filter is consumed.
+            return readUnversioned(header.get(0), keyKind, new DataInputStream(Channels.newInputStream(in)));
+        }
+
+        header.limit(HEADER_SIZE);
+        KBitValueArray.readFully(in, header);
+        Header h = Header.parse(header);
+        h.keyKind.check(keyKind);
+
+        KBitValueArray b = h.strategy.newArray(h.layout);
+        h.checkValuesLength(b);
+
+        CRC32 checksum = new CRC32();
+        b.readFrom(in, h.order, checksum);
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(h.order);
+        KBitValueArray.readFully(in, trailer);
+        if (trailer.getInt(0) != (int) checksum.getValue()) {
+            throw new IOException("Checksum mismatch: the values of the serialized filter are corrupted");
+        }
+
+        return new SerializedForm(h.keyKind, h.strategy, h.seed, h.remix, b);
+    }
+
+    /**
+     * Maps the filter of {@code keyKind} at the current position of {@code channel} into memory and advances the
+     * position past it. Only the header is verified, since verifying the values would read all of them.
+     */
+    static SerializedForm map(FileChannel channel, KeyKind keyKind) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.limit(1);
+        KBitValueArray.readFully(channel, header);
+        if (header.get(0) != MAGIC[0]) {
+            XorFilter.Strategy strategy = unversionedStrategyOf(header.get(0), keyKind);
+            DataInputStream dis = new DataInputStream(Channels.newInputStream(channel));
+            int seed = dis.readInt();
+            SlotLayout layout = readLayout(strategy, dis);
+            ByteBuffer mapping = KBitValueArray.map(channel, strategy.valuesSize(layout));
+            KBitValueArray b = strategy.wrapArray(layout, mapping.order(ByteOrder.BIG_ENDIAN));
+            return new SerializedForm(keyKind, strategy, seed, 0, b, mapping);
+        }
+
+        header.limit(HEADER_SIZE);
+        KBitValueArray.readFully(channel, header);
+        Header h = Header.parse(header);
+        h.keyKind.check(keyKind);
+
+        ByteBuffer mapping = KBitValueArray.map(channel, h.strategy.valuesSize(h.layout));
+        KBitValueArray b = h.strategy.wrapArray(h.layout, mapping.order(h.order));
+        h.checkValuesLength(b);
+        if (channel.position() + TRAILER_SIZE > channel.size()) {
+            throw new IOException("Truncated serialized filter: the checksum of the values is missing");
+        }
+        channel.position(channel.position() + TRAILER_SIZE);
+
+        return new SerializedForm(h.keyKind, h.strategy, h.seed, h.remix, b, mapping);
+    }
+
+    private static SerializedForm readUnversioned(byte ordinal, KeyKind keyKind, DataInputStream in) throws IOException {
+        XorFilter.Strategy strategy = unversionedStrategyOf(ordinal, keyKind);
+        int seed = in.readInt();
+        KBitValueArray b = strategy.newArray(readLayout(strategy, in));
+        b.readFrom(in);
+        return new SerializedForm(keyKind, strategy, seed, 0, b);
+    }
+
+    /**
+     * Returns the strategy of the unversioned format, which has only MURMUR128_XOR8 and MURMUR128_XOR16 of
+     * {@link XorFilter}.
+     */
+    private static XorFilter.Strategy unversionedStrategyOf(int ordinal, KeyKind keyKind) throws IOException {
+        if (ordinal != XorFilter.Strategy.MURMUR128_XOR8.ordinal() && ordinal != XorFilter.Strategy.MURMUR128_XOR16.ordinal()) {
+            throw new IOException("Not a serialized filter: no magic number, nor a strategy of 0.1.x: " + ordinal);
+        }
+        KeyKind.OBJECT.check(keyKind);
+        return strategyOf(ordinal);
+    }
+
+    private static SlotLayout readLayout(XorFilter.Strategy strategy, DataInputStream in) throws IOException {
+        try {
+            return strategy.readLayout(in);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted serialized filter: " + e.getMessage(), e);
+        }
+    }
+
+    private static XorFilter.Strategy strategyOf(int ordinal) throws IOException {
+        XorFilter.Strategy[] strategies = XorFilter.Strategy.values();
+        if (ordinal < 0 || ordinal >= strategies.length) {
+            throw new IOException("Not a serialized filter, or unknown strategy: " + ordinal);
+        }
+        return strategies[ordinal];
+    }
+
+    private static byte byteOrderCode(ByteOrder order) {
+        return (byte) (order == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+    }
+
+    private static class Header {
+        final ByteOrder order;
+        final KeyKind keyKind;
+        final XorFilter.Strategy strategy;
+        final int seed;
+        final int remix;
+        final SlotLayout layout;
+        final long valuesLength;
+
+        private Header(ByteOrder order, KeyKind keyKind, XorFilter.Strategy strategy, int seed, int remix, SlotLayout layout, long valuesLength) {
+            this.order = order;
+            this.keyKind = keyKind;
+            this.strategy = strategy;
+            this.seed = seed;
+            this.remix = remix;
+            this.layout = layout;
+            this.valuesLength = valuesLength;
+        }
+
+        static Header parse(ByteBuffer header) throws IOException {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header.get(i) != MAGIC[i]) {
+                    throw new IOException("Not a serialized filter: wrong magic number");
+                }
+            }
+            if (header.get(4) != VERSION) {
+                throw new IOException("Unsupported format version: " + header.get(4));
+            }
+
+            ByteOrder order;
+            switch (header.get(5)) {
+                case 0:
+                    order = ByteOrder.BIG_ENDIAN;
+                    break;
+                case 1:
+                    order = ByteOrder.LITTLE_ENDIAN;
+                    break;
+                default:
+                    throw new IOException("Corrupted serialized filter: unknown byte order " + header.get(5));
+            }
+            header.order(order);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(header.array(), 0, HEADER_CHECKSUM_OFFSET);
+            if (header.getInt(HEADER_CHECKSUM_OFFSET) != (int) checksum.getValue()) {
+                throw new IOException("Checksum mismatch: the header of the serialized filter is corrupted");
+            }
+
+            KeyKind keyKind = KeyKind.of(header.get(8));
+            XorFilter.Strategy strategy = strategyOf(header.get(6));
+            SlotLayout layout;
+            try {
+                layout = strategy.restoreLayout(header.getInt(16), header.getInt(20));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupted serialized filter: " + e.getMessage(), e);
+            }
+
+            return new Header(order, keyKind, strategy, header.getInt(12), header.get(7) & 0xff, layout, header.getLong(24));
+        }
+
+        void checkValuesLength(KBitValueArray b) throws IOException {
+            if (valuesLength != b.sizeInBytes()) {
+                throw new IOException(String.format(
+                        "Corrupted serialized filter: %d bytes of values for %d slots of %s",
+                        valuesLength, b.capacity, strategy));
+            }
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package me.k11i.xorfilter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Maps a hashed element to the three slots of a {@link KBitValueArray} that the element's fingerprint is spread over.
+ *
+ * <p>
+ * The slots are computed from the hashed element {@code x} and its remix {@code x2 = mix(x)}, and
+ * {@link #fingerprintHash(long, long)} tells which of the two the fingerprint is taken from.
+ * </p>
+ */
+abstract class SlotLayout {
+    enum Type {
+        XOR {
+            @Override
+            SlotLayout forElements(int numElements, int bitsPerValue) {
+                return Xor.forElements(numElements);
+            }
+
+            @Override
+            SlotLayout restore(int capacity, int parameter, int bitsPerValue) {
+                return Xor.restore(capacity);
+            }
+
+            @Override
+            SlotLayout read(DataInputStream in, int bitsPerValue) throws IOException {
+                return restore(in.readInt(), 0, bitsPerValue);
+            }
+        },
+
+        BINARY_FUSE {
+            @Override
+            SlotLayout forElements(int numElements, int bitsPerValue) {
+                return BinaryFuse.forElements(numElements);
+            }
+
+            @Override
+            SlotLayout restore(int capacity, int parameter, int bitsPerValue) {
+                return BinaryFuse.restore(capacity, parameter);
+            }
+
+            @Override
+            SlotLayout read(DataInputStream in, int bitsPerValue) throws IOException {
+                return restore(in.readInt(), in.readInt(), bitsPerValue);
+            }
+        },
+
+        XOR_PLUS {
+            @Override
+            SlotLayout forElements(int numElements, int bitsPerValue) {
+                return XorPlus.forElements(numElements);
+            }
+
+            @Override
+            SlotLayout restore(int capacity, int parameter, int bitsPerValue) {
+                return XorPlus.restore(capacity, parameter);
+            }
+
+            @Override
+            SlotLayout read(DataInputStream in, int bitsPerValue) throws IOException {
+                throw new IOException("The unversioned format has no xor+ layout");
+            }
+        },
+
+        BLOCKED {
+            @Override
+            SlotLayout forElements(int numElements, int bitsPerValue) {
+                return Blocked.forElements(numElements, bitsPerValue);
+            }
+
+            @Override
+            SlotLayout restore(int capacity, int parameter, int bitsPerValue) {
+                return Blocked.restore(capacity, parameter, bitsPerValue);
+            }
+
+            @Override
+            SlotLayout read(DataInputStream in, int bitsPerValue) throws IOException {
+                throw new IOException("The unversioned format has no blocked layout");
+            }
+        };
+
+        abstract SlotLayout forElements(int numElements, int bitsPerValue);
+
+        /**
+         * Restores the layout from the capacity and {@link #parameter()}.
+         */
+        abstract SlotLayout restore(int capacity, int parameter, int bitsPerValue);
+
+        /**
+         * Reads the layout from the header of the unversioned format.
+         */
+        abstract SlotLayout read(DataInputStream in, int bitsPerValue) throws IOException;
+    }
+
+    /**
+     * The layout of the original Xor filter: the array is split into three equal blocks and each block holds one of
+     * the three slots.
+     */
+    static class Xor extends SlotLayout {
+        static Xor forElements(int numElements) {
+            return new Xor((int) ((1.23 * numElements + 32 + 2) / 3) * 3);
+        }
+
+        static Xor restore(int capacity) {
+            if (capacity <= 0 || capacity % 3 != 0) {
+                throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            }
+            return new Xor(capacity);
+        }
+
+        private final int blockLength;
+
+        Xor(int capacity) {
+            super(capacity);
+            this.blockLength = capacity / 3;
+        }
+
+        @Override
+        int h0(long x, long x2) {
+            return (int) ((x & 0xffffffffL) * blockLength >>> 32);
+        }
+
+        @Override
+        int h1(long x, long x2) {
+            return (int) (((x2 & 0xffffffffL) * blockLength >>> 32) + blockLength);
+        }
+
+        @Override
+        int h2(long x, long x2) {
+            return (int) (((x2 >>> 32) * blockLength >>> 32) + blockLength + blockLength);
+        }
+
+        @Override
+        long fingerprintHash(long x, long x2) {
+            return x;
+        }
+
+        @Override
+        boolean hasDisjointSlotRanges() {
+            return true;
+        }
+
+        @Override
+        int parameter() {
+            return 0;
+        }
+    }
+
+    /**
+     * The layout of the xor+ filter: that of {@link Xor}, except that peeling prefers the slots of the first two
+     * blocks, so that about a third of the third block is left empty and {@link KBitValueArray.Plus} stores only the
+     * nonzero values of the third block.
+     */
+    static class XorPlus extends Xor {
+        static XorPlus forElements(int numElements) {
+            int capacity = Xor.forElements(numElements).capacity;
+            return new XorPlus(capacity, capacity / 3);
+        }
+
+        static XorPlus restore(int capacity, int numSparseValues) {
+            Xor.restore(capacity);
+            if (numSparseValues < 0 || numSparseValues > capacity / 3) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid number of the values of the third block: %d for capacity %d", numSparseValues, capacity));
+            }
+            return new XorPlus(capacity, numSparseValues);
+        }
+
+        /**
+         * Number of the values stored for the third block, which is its length while the filter is being built.
+         */
+        final int numSparseValues;
+
+        XorPlus(int capacity, int numSparseValues) {
+            super(capacity);
+            this.numSparseValues = numSparseValues;
+        }
+
+        XorPlus withNumSparseValues(int numSparseValues) {
+            return new XorPlus(capacity, numSparseValues);
+        }
+
+        @Override
+        int preferredSlots() {
+            return capacity / 3 * 2;
+        }
+
+        @Override
+        int parameter() {
+            return numSparseValues;
+        }
+    }
+
+    /**
+     * The layout of the binary fuse filter (Graf and Lemire, "Binary Fuse Filters: Fast and Smaller Than Xor
+     * Filters"): the array is split into small power-of-two segments and the three slots lie in three consecutive
+     * segments.
+     *
+     * <p>
+     * The first segment is chosen by the upper bits of {@code x} in signed order, so that walking the sorted hashed
+     * elements during construction touches the array almost sequentially.
+     * The fingerprint is taken from {@code x2} so that it is independent of the slots.
+     * </p>
+     */
+    static class BinaryFuse extends SlotLayout {
+        private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+        static BinaryFuse forElements(int numElements) {
+            int size = Math.max(numElements, 2);
+            int segmentLength = Math.min(
+                    1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25),
+                    MAX_SEGMENT_LENGTH);
+            double sizeFactor = Math.max(1.125, 0.875 + 0.25 * Math.log(1_000_000) / Math.log(size));
+
+            int minCapacity = (int) Math.round(size * sizeFactor);
+            int segmentCount = Math.max((minCapacity + segmentLength - 1) / segmentLength - 2, 1);
+            return new BinaryFuse(segmentLength, segmentCount);
+        }
+
+        static BinaryFuse restore(int capacity, int segmentLength) {
+            if (segmentLength <= 0 || Integer.bitCount(segmentLength) != 1 || segmentLength > MAX_SEGMENT_LENGTH
+                    || capacity % segmentLength != 0 || capacity / segmentLength < 3) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid capacity and segment length: %d, %d", capacity, segmentLength));
+            }
+            return new BinaryFuse(segmentLength, capacity / segmentLength - 2);
+        }
+
+        private final int segmentLength;
+        private final int segmentLengthMask;
+        private final long segmentCountLength;
+
+        BinaryFuse(int segmentLength, int segmentCount) {
+            super((segmentCount + 2) * segmentLength);
+            this.segmentLength = segmentLength;
+            this.segmentLengthMask = segmentLength - 1;
+            this.segmentCountLength = (long) segmentCount * segmentLength;
+        }
+
+        @Override
+        int h0(long x, long x2) {
+            return (int) (((x ^ Long.MIN_VALUE) >>> 32) * segmentCountLength >>> 32);
+        }
+
+        @Override
+        int h1(long x, long x2) {
+            return (h0(x, x2) + segmentLength) ^ ((int) (x >>> 18) & segmentLengthMask);
+        }
+
+        @Override
+        int h2(long x, long x2) {
+            return (h0(x, x2) + segmentLength + segmentLength) ^ ((int) x & segmentLengthMask);
+        }
+
+        @Override
+        long fingerprintHash(long x, long x2) {
+            return x2;
+        }
+
+        @Override
+        boolean prefersSortedElements() {
+            return true;
+        }
+
+        @Override
+        int parameter() {
+            return segmentLength;
+        }
+    }
+
+    /**
+     * The cache-line-blocked layout: the array is split into blocks of 64 bytes, and the three slots of an element lie
+     * in the block chosen by the upper bits of {@code x} in signed order, so that a lookup reads a single block.
+     *
+     * <p>
+     * The first slot of a block is a flag, and its other slots are split into three equal segments like the xor
+     * layout. Each block is peeled on its own, and the elements left in the core of a block that does not peel
+     * completely go to a stash of the xor layout at the end of the array instead; the flag of such a block is set, and
+     * the lookups that miss the block also read three slots of the stash.
+     * All the slots that a lookup reads in the block are known from {@code x}, so that the reads are issued together.
+     * </p>
+     *
+     * <p>
+     * Only 8 bits per value are supported, i.e. 64 slots per block.
+     * </p>
+     */
+    static class Blocked extends SlotLayout {
+        static final int BLOCK_SIZE = 64;
+
+        static Blocked forElements(int numElements, int bitsPerValue) {
+            // About 1.5% of the elements are stashed.
+            int elementsPerBlock = 32;
+            int maxStashed = numElements / 48 + 64;
+
+            int numBlocks = Math.max((numElements + elementsPerBlock - 1) / elementsPerBlock, 1);
+            return new Blocked(bitsPerValue, numBlocks, Xor.forElements(maxStashed));
+        }
+
+        static Blocked restore(int capacity, int numBlocks, int bitsPerValue) {
+            long stashCapacity = capacity - (long) numBlocks * slotsPerBlock(bitsPerValue);
+            if (numBlocks <= 0 || stashCapacity <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid capacity and number of blocks: %d, %d", capacity, numBlocks));
+            }
+            return new Blocked(bitsPerValue, numBlocks, Xor.restore((int) stashCapacity));
+        }
+
+        private static int slotsPerBlock(int bitsPerValue) {
+            if (bitsPerValue != 8) {
+                throw new IllegalArgumentException("Unsupported bits per value of the blocked layout: " + bitsPerValue);
+            }
+            return BLOCK_SIZE * Byte.SIZE / bitsPerValue;
+        }
+
+        final int slotsPerBlock;
+        final int numBlocks;
+        final int blocksCapacity;
+        final Xor stash;
+        private final int segmentLength;
+
+        Blocked(int bitsPerValue, int numBlocks, Xor stash) {
+            super(Math.addExact(Math.multiplyExact(numBlocks, slotsPerBlock(bitsPerValue)), stash.capacity));
+            this.slotsPerBlock = slotsPerBlock(bitsPerValue);
+            this.numBlocks = numBlocks;
+            this.blocksCapacity = numBlocks * slotsPerBlock;
+            this.stash = stash;
+            this.segmentLength = (slotsPerBlock - 1) / 3;
+        }
+
+        int block(long x) {
+            return (int) (((x ^ Long.MIN_VALUE) >>> 32) * numBlocks >>> 32);
+        }
+
+        /**
+         * Returns the hash from which the slots of {@code x} in its block are taken, which is independent of
+         * {@link #mix(long)}.
+         */
+        long blockHash(long x) {
+            return MurmurHashFinalizer.hash(0x9e3779b97f4a7c15L, x);
+        }
+
+        /**
+         * Returns the fingerprint hash of the elements in the blocks, which is independent of the block.
+         */
+        long blockFingerprintHash(long x) {
+            return x << 32;
+        }
+
+        int slot0(long y) {
+            return 1 + (int) ((y & 0x1fffff) * segmentLength >>> 21);
+        }
+
+        int slot1(long y) {
+            return 1 + segmentLength + (int) ((y >>> 21 & 0x1fffff) * segmentLength >>> 21);
+        }
+
+        int slot2(long y) {
+            return 1 + segmentLength + segmentLength + (int) ((y >>> 42 & 0x1fffff) * segmentLength >>> 21);
+        }
+
+        // h0, h1 and h2 are the slots of an element in the stash.
+
+        @Override
+        int h0(long x, long x2) {
+            return blocksCapacity + stash.h0(x, x2);
+        }
+
+        @Override
+        int h1(long x, long x2) {
+            return blocksCapacity + stash.h1(x, x2);
+        }
+
+        @Override
+        int h2(long x, long x2) {
+            return blocksCapacity + stash.h2(x, x2);
+        }
+
+        @Override
+        long fingerprintHash(long x, long x2) {
+            return stash.fingerprintHash(x, x2);
+        }
+
+        @Override
+        boolean contains(KBitValueArray b, long x) {
+            int start = block(x) * slotsPerBlock;
+            long y = blockHash(x);
+            if (b.contains(blockFingerprintHash(x), start + slot0(y), start + slot1(y), start + slot2(y))) {
+                return true;
+            }
+            return b.get(start) != 0 && super.contains(b, x);
+        }
+
+        /**
+         * A query matches the fingerprint of its block, and that of the stash as well if the block is flagged.
+         */
+        @Override
+        double falsePositiveProbability(KBitValueArray b, int bitsPerValue) {
+            int flagged = 0;
+            for (int i = 0; i < numBlocks; i++) {
+                if (b.get(i * slotsPerBlock) != 0) {
+                    flagged++;
+                }
+            }
+            return Math.scalb(1.0 + (double) flagged / numBlocks, -bitsPerValue);
+        }
+
+        @Override
+        void put(KBitValueArray b, int index, long x) {
+            if (index >= blocksCapacity) {
+                super.put(b, index, x);
+                return;
+            }
+
+            int start = index - index % slotsPerBlock;
+            if (index == start) {
+                // x is the flag of the block.
+                b.set(index, x);
+                return;
+            }
+            long y = blockHash(x);
+            b.put(index, blockFingerprintHash(x), start + slot0(y), start + slot1(y), start + slot2(y));
+        }
+
+        @Override
+        long containsAll(KBitValueArray b, long[] xs, int n, int[] h) {
+            // There is a single block to read for most elements anyway.
+            long result = 0;
+            for (int i = 0; i < n; i++) {
+                result |= (contains(b, xs[i]) ? 1L : 0L) << i;
+            }
+            return result;
+        }
+
+        @Override
+        boolean prefersSortedElements() {
+            // Required rather than preferred: the elements of a block are peeled together.
+            return true;
+        }
+
+        @Override
+        int parameter() {
+            return numBlocks;
+        }
+    }
+
+    final int capacity;
+
+    SlotLayout(int capacity) {
+        this.capacity = capacity;
+    }
+
+    long mix(long x) {
+        return MurmurHashFinalizer.hash(0, x);
+    }
+
+    abstract int h0(long x, long x2);
+
+    abstract int h1(long x, long x2);
+
+    abstract int h2(long x, long x2);
+
+    abstract long fingerprintHash(long x, long x2);
+
+    /**
+     * Stores the fingerprint of {@code x} in slot {@code index} of {@code b}.
+     */
+    void put(KBitValueArray b, int index, long x) {
+        long x2 = mix(x);
+        b.put(index, fingerprintHash(x, x2), h0(x, x2), h1(x, x2), h2(x, x2));
+    }
+
+    boolean contains(KBitValueArray b, long x) {
+        long x2 = mix(x);
+        return b.contains(fingerprintHash(x, x2), h0(x, x2), h1(x, x2), h2(x, x2));
+    }
+
+    /**
+     * @see KBitValueArray#containsAll(long[], int, int[])
+     */
+    long containsAll(KBitValueArray b, long[] xs, int n, int[] h) {
+        for (int i = 0, j = 0; i < n; i++, j += 3) {
+            long x = xs[i];
+            long x2 = mix(x);
+            h[j] = h0(x, x2);
+            h[j + 1] = h1(x, x2);
+            h[j + 2] = h2(x, x2);
+            xs[i] = fingerprintHash(x, x2);
+        }
+
+        long result = 0;
+        for (int i = 0, j = 0; i < n; i++, j += 3) {
+            result |= (b.contains(xs[i], h[j], h[j + 1], h[j + 2]) ? 1L : 0L) << i;
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if h0, h1 and h2 always fall in three disjoint ranges of slots, so that the slots of
+     * each of them can be filled concurrently.
+     */
+    boolean hasDisjointSlotRanges() {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if appending the hashed elements in sorted order is notably faster, because the slots of
+     * neighboring elements are close to each other.
+     */
+    boolean prefersSortedElements() {
+        return false;
+    }
+
+    /**
+     * Returns the number of the leading slots that peeling takes before the others, so that the others are left empty
+     * as often as possible. All the slots are equal by default.
+     */
+    int preferredSlots() {
+        return capacity;
+    }
+
+    /**
+     * Returns the probability that {@link #contains(KBitValueArray, long)} returns {@code true} for an element that
+     * has not been put into {@code b}.
+     */
+    double falsePositiveProbability(KBitValueArray b, int bitsPerValue) {
+        return Math.scalb(1.0, -bitsPerValue);
+    }
+
+    /**
+     * Returns the parameter that, together with the capacity, restores this layout when the filter is read.
+     */
+    abstract int parameter();
+}
@@ -0,0 +1,80 @@
+package me.k11i.xorfilter;
+
+import static me.k11i.xorfilter.HashPrimitives.getInt;
+import static me.k11i.xorfilter.HashPrimitives.getLong;
+import static me.k11i.xorfilter.HashPrimitives.multiplyHigh;
+
+/**
+ * wyhash final4 (https://github.com/wangyi-fudan/wyhash) with the default secret.
+ */
+final class WyHash {
+    private static final long SECRET_0 = 0x2d358dccaa6c78a5L;
+    private static final long SECRET_1 = 0x8bb84b93962eacc9L;
+    private static final long SECRET_2 = 0x4b33a62ed433d4a3L;
+    private static final long SECRET_3 = 0x4d5a2da51de1aa47L;
+
+    private WyHash() {
+    }
+
+    /**
+     * Hashes the 8 little-endian bytes of {@code x}.
+     */
+    static long hash(long seed, long x) {
+        seed ^= mix(seed ^ SECRET_0, SECRET_1);
+        long a = (x << 32) | (x >>> 32);
+        return finish(seed, a, x, 8);
+    }
+
+    static long hash(long seed, byte[] b, int off, int len) {
+        seed ^= mix(seed ^ SECRET_0, SECRET_1);
+        long a;
+        long c;
+        if (len <= 16) {
+            if (len >= 4) {
+                int shift = (len >>> 3) << 2;
+                a = getInt(b, off) << 32 | getInt(b, off + shift);
+                c = getInt(b, off + len - 4) << 32 | getInt(b, off + len - 4 - shift);
+            } else if (len > 0) {
+                a = (b[off] & 0xffL) << 16 | (b[off + (len >>> 1)] & 0xffL) << 8 | (b[off + len - 1] & 0xffL);
+                c = 0;
+            } else {
+                a = c = 0;
+            }
+        } else {
+            int p = off;
+            int i = len;
+            if (i >= 48) {
+                long see1 = seed;
+                long see2 = seed;
+                do {
+                    seed = mix(getLong(b, p) ^ SECRET_1, getLong(b, p + 8) ^ seed);
+                    see1 = mix(getLong(b, p + 16) ^ SECRET_2, getLong(b, p + 24) ^ see1);
+                    see2 = mix(getLong(b, p + 32) ^ SECRET_3, getLong(b, p + 40) ^ see2);
+                    p += 48;
+                    i -= 48;
+                } while (i >= 48);
+                seed ^= see1 ^ see2;
+            }
+            while (i > 16) {
+                seed = mix(getLong(b, p) ^ SECRET_1, getLong(b, p + 8) ^ seed);
+                i -= 16;
+                p += 16;
+            }
+            a = getLong(b, p + i - 16);
+            c = getLong(b, p + i - 8);
+        }
+        return finish(seed, a, c, len);
+    }
+
+    private static long finish(long seed, long a, long b, int len) {
+        a ^= SECRET_1;
+        b ^= seed;
+        long lo = a * b;
+        long hi = multiplyHigh(a, b);
+        return mix(lo ^ SECRET_0 ^ len, hi ^ SECRET_1);
+    }
+
+    private static long mix(long a, long b) {
+        return (a * b) ^ multiplyHigh(a, b);
+    }
+}
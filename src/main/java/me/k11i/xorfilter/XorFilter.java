@@ -1,345 +1,920 @@
 package me.k11i.xorfilter;
 
 import com.google.common.hash.Funnel;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
 
 @SuppressWarnings("UnstableApiUsage")
 public class XorFilter<T> implements Predicate<T> {
+    /**
+     * Combination of the hash function, the layout of the slots and the number of bits per slot.
+     *
+     * <p>
+     * Elements are hashed from the bytes that the funnel writes, without allocation. The MURMUR128 strategies hash
+     * them as Guava's murmur3_128 does and {@code long} keys with the murmur3 finalizer. The XXH3 and WYHASH strategies
+     * hash them, or the 8 little-endian bytes of a {@code long} key, with XXH3-64 and wyhash respectively. The IDENTITY
+     * strategies use the key, or the first 8 bytes the funnel writes, as it is, and are only for keys that are already
+     * hashed.
+     * </p>
+     *
+     * <p>
+     * The number at the end of the name is the bits per slot, which trades the size for the false positive rate of
+     * about {@code 2^-bits}. 8, 16 and 32 bits are stored in arrays of the primitive type, and the other widths are
+     * packed into a {@code long[]} without gaps.
+     * </p>
+     *
+     * <p>
+     * The BLOCKED strategies confine the slots of an element to one 64-byte block, so that a lookup usually reads a
+     * single cache line instead of three; the elements of the few blocks that cannot be peeled are kept in a small
+     * xor filter, which is also read for about 9% of the blocks. They take about 16 bits per element, and suit filters
+     * much larger than the CPU caches. Only 8-bit values are supported: a block of 32 16-bit slots holds so few
+     * elements that the layout would take about 44 bits per element.
+     * </p>
+     *
+     * <p>
+     * The PLUS strategies are the xor+ filters: the slots of the third block that are left empty are not stored, at
+     * the cost of a bitmap of the third block, which saves about 7% of the space for 8-bit values and 10% for 16-bit
+     * ones. A lookup reads the bitmap in addition to the three values. The size of their values is known only after
+     * building, so they are not supported by {@link OffHeapLongXorFilter} and {@link OffHeapXorFilter}.
+     * </p>
+     */
     public enum Strategy {
-        MURMUR128_XOR8 {
-            @Override
-            HashFunction newHashFunction(int seed) {
-                return Hashing.murmur3_128(seed);
+        MURMUR128_XOR8(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 8),
+        MURMUR128_XOR16(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 16),
+        MURMUR128_BINARY_FUSE8(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 8),
+        MURMUR128_BINARY_FUSE16(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 16),
+        XXH3_XOR8(ElementHashing.XXH3, SlotLayout.Type.XOR, 8),
+        XXH3_XOR16(ElementHashing.XXH3, SlotLayout.Type.XOR, 16),
+        XXH3_BINARY_FUSE8(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 8),
+        XXH3_BINARY_FUSE16(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 16),
+        WYHASH_XOR8(ElementHashing.WYHASH, SlotLayout.Type.XOR, 8),
+        WYHASH_XOR16(ElementHashing.WYHASH, SlotLayout.Type.XOR, 16),
+        WYHASH_BINARY_FUSE8(ElementHashing.WYHASH, SlotLayout.Type.BINARY_FUSE, 8),
+        WYHASH_BINARY_FUSE16(ElementHashing.WYHASH, SlotLayout.Type.BINARY_FUSE, 16),
+        IDENTITY_XOR8(ElementHashing.IDENTITY, SlotLayout.Type.XOR, 8),
+        IDENTITY_XOR16(ElementHashing.IDENTITY, SlotLayout.Type.XOR, 16),
+        IDENTITY_BINARY_FUSE8(ElementHashing.IDENTITY, SlotLayout.Type.BINARY_FUSE, 8),
+        IDENTITY_BINARY_FUSE16(ElementHashing.IDENTITY, SlotLayout.Type.BINARY_FUSE, 16),
+        MURMUR128_XOR4(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 4),
+        MURMUR128_XOR10(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 10),
+        MURMUR128_XOR12(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 12),
+        MURMUR128_XOR20(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 20),
+        MURMUR128_XOR32(ElementHashing.MURMUR128, SlotLayout.Type.XOR, 32),
+        MURMUR128_BINARY_FUSE4(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 4),
+        MURMUR128_BINARY_FUSE10(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 10),
+        MURMUR128_BINARY_FUSE12(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 12),
+        MURMUR128_BINARY_FUSE20(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 20),
+        MURMUR128_BINARY_FUSE32(ElementHashing.MURMUR128, SlotLayout.Type.BINARY_FUSE, 32),
+        XXH3_XOR4(ElementHashing.XXH3, SlotLayout.Type.XOR, 4),
+        XXH3_XOR10(ElementHashing.XXH3, SlotLayout.Type.XOR, 10),
+        XXH3_XOR12(ElementHashing.XXH3, SlotLayout.Type.XOR, 12),
+        XXH3_XOR20(ElementHashing.XXH3, SlotLayout.Type.XOR, 20),
+        XXH3_XOR32(ElementHashing.XXH3, SlotLayout.Type.XOR, 32),
+        XXH3_BINARY_FUSE4(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 4),
+        XXH3_BINARY_FUSE10(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 10),
+        XXH3_BINARY_FUSE12(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 12),
+        XXH3_BINARY_FUSE20(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 20),
+        XXH3_BINARY_FUSE32(ElementHashing.XXH3, SlotLayout.Type.BINARY_FUSE, 32),
+        MURMUR128_BLOCKED8(ElementHashing.MURMUR128, SlotLayout.Type.BLOCKED, 8),
+        XXH3_BLOCKED8(ElementHashing.XXH3, SlotLayout.Type.BLOCKED, 8),
+        MURMUR128_XOR8_PLUS(ElementHashing.MURMUR128, SlotLayout.Type.XOR_PLUS, 8),
+        MURMUR128_XOR16_PLUS(ElementHashing.MURMUR128, SlotLayout.Type.XOR_PLUS, 16);
+
+        final ElementHashing hashing;
+        final SlotLayout.Type layoutType;
+        final int bitsPerValue;
+
+        Strategy(ElementHashing hashing, SlotLayout.Type layoutType, int bitsPerValue) {
+            this.hashing = hashing;
+            this.layoutType = layoutType;
+            this.bitsPerValue = bitsPerValue;
+        }
+
+        <T> ToLongFunction<T> newElementHasher(int seed, Funnel<? super T> funnel) {
+            return hashing.newElementHasher(seed, funnel);
+        }
+
+        long hash(long seed, long key) {
+            return hashing.hash(seed, key);
+        }
+
+        SlotLayout newLayout(int numElements) {
+            return layoutType.forElements(numElements, bitsPerValue);
+        }
+
+        SlotLayout restoreLayout(int capacity, int parameter) {
+            return layoutType.restore(capacity, parameter, bitsPerValue);
+        }
+
+        /**
+         * Reads the layout from the header of the unversioned format.
+         */
+        SlotLayout readLayout(DataInputStream in) throws IOException {
+            return layoutType.read(in, bitsPerValue);
+        }
+
+        /**
+         * Returns the largest number of elements for which {@link #newLayout(int)} has no more than {@code capacity}
+         * slots, i.e. the number of elements that a filter of the capacity has been built for, give or take rounding.
+         */
+        int estimateElements(int capacity) {
+            // Every layout has at least 1.125 slots per element.
+            int lo = 1;
+            int hi = (int) (capacity / 1.125);
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (fits(mid, capacity)) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
             }
+            return lo;
+        }
+
+        private boolean fits(int numElements, int capacity) {
+            try {
+                return newLayout(numElements).capacity <= capacity;
+            } catch (ArithmeticException e) {
+                return false;
+            }
+        }
 
-            @Override
-            KBitValueArray newArray(int capacity) {
-                return new KBitValueArray._8(capacity);
+        KBitValueArray newArray(SlotLayout layout) {
+            if (layout instanceof SlotLayout.XorPlus) {
+                return new KBitValueArray.Plus((SlotLayout.XorPlus) layout, bitsPerValue);
             }
-        },
+            return KBitValueArray.newArray(layout, bitsPerValue);
+        }
 
-        MURMUR128_XOR16 {
-            @Override
-            HashFunction newHashFunction(int seed) {
-                return Hashing.murmur3_128(seed);
+        /**
+         * Wraps {@code buffer}, which must hold {@link #valuesSize(SlotLayout)} bytes, as the array of values.
+         */
+        KBitValueArray wrapArray(SlotLayout layout, ByteBuffer buffer) {
+            if (layout instanceof SlotLayout.XorPlus) {
+                return new KBitValueArray.Plus((SlotLayout.XorPlus) layout, bitsPerValue, buffer);
+            }
+            switch (bitsPerValue) {
+                case 8:
+                    return new KBitValueArray.Buffer8(layout, buffer);
+                case 16:
+                    return new KBitValueArray.Buffer16(layout, buffer);
+                case 32:
+                    return new KBitValueArray.Buffer32(layout, buffer);
+                default:
+                    return new KBitValueArray.BufferPacked(layout, bitsPerValue, buffer);
             }
+        }
 
-            @Override
-            KBitValueArray newArray(int capacity) {
-                return new KBitValueArray._16(capacity);
+        long valuesSize(SlotLayout layout) {
+            if (layout instanceof SlotLayout.XorPlus) {
+                return KBitValueArray.Plus.sizeInBytes((SlotLayout.XorPlus) layout, bitsPerValue);
             }
-        };
+            int capacity = layout.capacity;
+            switch (bitsPerValue) {
+                case 8:
+                case 16:
+                case 32:
+                    return (long) capacity * bitsPerValue / Byte.SIZE;
+                default:
+                    return (long) KBitValueArray.Packed.numWords(capacity, bitsPerValue) * Long.BYTES;
+            }
+        }
+    }
 
-        abstract HashFunction newHashFunction(int seed);
+    // ---
 
-        abstract KBitValueArray newArray(int capacity);
+    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy) {
+        return build(funnel, elements, strategy, ThreadLocalRandom.current().nextInt());
     }
 
-    private static abstract class KBitValueArray {
-        static class _8 extends KBitValueArray {
-            private final byte[] b;
+    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy, int rngSeed) {
+        return build(funnel, elements, strategy, rngSeed, new BuildMonitor());
+    }
 
-            _8(int capacity) {
-                super(capacity);
-                b = new byte[capacity];
-            }
+    private static <T> XorFilter<T> build(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            Strategy strategy,
+            int rngSeed,
+            BuildMonitor monitor) {
+
+        SlotLayout layout = strategy.newLayout(elements.size());
+        Mapping mapping = buildMapping(
+                elements.size(),
+                (seed, hashedElements) -> hashedElements.hashAll(strategy.newElementHasher(seed, funnel), elements),
+                layout,
+                rngSeed,
+                false,
+                monitor);
+        KBitValueArray b = assign(strategy.newArray(layout), mapping.stack, monitor);
+        monitor.complete(elements.size(), scratchBytes(elements.size(), strategy, false));
+        return new XorFilter<>(strategy, mapping.seed, mapping.remix, funnel, b);
+    }
 
-            private byte fingerprint(long x) {
-                return (byte) (x >>> 56);
-            }
+    public static <T> CompletableFuture<XorFilter<T>> buildAsync(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            Strategy strategy,
+            Executor executor) {
 
-            @Override
-            public void put(int index, long x, int h0, int h1, int h2) {
-                b[index] = 0;
-                b[index] = (byte) (fingerprint(x) ^ b[h0] ^ b[h1] ^ b[h2]);
-            }
+        return buildAsync(funnel, elements, strategy, ThreadLocalRandom.current().nextInt(), executor, null);
+    }
 
-            @Override
-            boolean contains(long x, int h0, int h1, int h2) {
-                return fingerprint(x) == (b[h0] ^ b[h1] ^ b[h2]);
-            }
+    /**
+     * Builds the filter on {@code executor}. The result is identical to that of
+     * {@link #build(Funnel, Collection, Strategy, int)} with the same {@code rngSeed}.
+     *
+     * <p>
+     * Cancelling the future, or interrupting the thread of the build, aborts the build within a few milliseconds
+     * once it has started peeling; hashing the elements is not interrupted. {@code elements} must not be modified
+     * until the future completes.
+     * </p>
+     *
+     * @param listener receives the progress and the {@link BuildStats}, or {@code null}
+     */
+    public static <T> CompletableFuture<XorFilter<T>> buildAsync(
+            Funnel<? super T> funnel,
+            Collection<T> elements,
+            Strategy strategy,
+            int rngSeed,
+            Executor executor,
+            BuildListener listener) {
 
-            @Override
-            void writeTo(DataOutputStream out) throws IOException {
-                for (byte value : b) {
-                    out.writeByte(value);
-                }
-            }
+        return BuildMonitor.supplyAsync(executor, listener, monitor -> build(funnel, elements, strategy, rngSeed, monitor));
+    }
 
-            @Override
-            void readFrom(DataInputStream in) throws IOException {
-                for (int i = 0; i < b.length; i++) {
-                    b[i] = in.readByte();
-                }
-            }
+    public static <T> XorFilter<T> buildWithLowMemory(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy) {
+        return buildWithLowMemory(funnel, elements, strategy, ThreadLocalRandom.current().nextInt());
+    }
 
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (o == null || getClass() != o.getClass()) return false;
-                _8 that = (_8) o;
-                return Arrays.equals(b, that.b);
-            }
+    /**
+     * Builds the filter with less scratch memory than {@link #build(Funnel, Collection, Strategy, int)}, at a small
+     * cost in speed. The result is identical to that of {@code build} with the same {@code rngSeed}.
+     *
+     * <p>
+     * The scratch memory is 1.85 to 1.9 times less, not half: the hashed elements, which are kept to be remixed when
+     * peeling fails, and the xor of the indexes, the count and the queue of each slot are still needed, about 19
+     * bytes per element for the XOR strategies. The BLOCKED and PLUS strategies are built as by {@code build}, with
+     * the same scratch memory.
+     * </p>
+     *
+     * @see #scratchBytes(int, Strategy, boolean)
+     */
+    public static <T> XorFilter<T> buildWithLowMemory(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy, int rngSeed) {
+        SlotLayout layout = strategy.newLayout(elements.size());
+        Mapping mapping = buildMappingWithLowMemory(
+                elements.size(),
+                (seed, hashedElements) -> hashedElements.hashAll(strategy.newElementHasher(seed, funnel), elements),
+                layout,
+                rngSeed);
+        KBitValueArray b = assign(strategy.newArray(layout), mapping.stack);
+        return new XorFilter<>(strategy, mapping.seed, mapping.remix, funnel, b);
+    }
 
-            @Override
-            public int hashCode() {
-                return Arrays.hashCode(b);
-            }
+    /**
+     * Builds the filter using the threads of {@code pool} for hashing, sorting and filling the slots.
+     * The result is identical to that of {@link #build(Funnel, Collection, Strategy, int)} with the same
+     * {@code rngSeed}.
+     */
+    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy, ForkJoinPool pool) {
+        return build(funnel, elements, strategy, ThreadLocalRandom.current().nextInt(), pool);
+    }
+
+    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy, int rngSeed, ForkJoinPool pool) {
+        Object[] array = elements.toArray();
+        SlotLayout layout = strategy.newLayout(array.length);
+        Mapping mapping = pool.submit(() -> buildMapping(
+                array.length,
+                (seed, hashedElements) -> {
+                    ToLongFunction<T> elementHasher = strategy.newElementHasher(seed, funnel);
+                    hashedElements.hashAllInParallel(o -> {
+                        @SuppressWarnings("unchecked")
+                        T element = (T) o;
+                        return elementHasher.applyAsLong(element);
+                    }, array);
+                },
+                layout,
+                rngSeed,
+                true)).join();
+        KBitValueArray b = assign(strategy.newArray(layout), mapping.stack);
+        return new XorFilter<>(strategy, mapping.seed, mapping.remix, funnel, b);
+    }
+
+    /**
+     * Maximum number of remixes of the hashed elements, which is stored in a byte of the serialized form.
+     */
+    static final int MAX_REMIX = 255;
+
+    /**
+     * Finds a seed and a peeling order of the hashed elements.
+     *
+     * <p>
+     * The elements are hashed only once. When peeling fails, the hashed elements are remixed in place with
+     * {@link MurmurHashFinalizer#remix(long, int, int)} and peeled again, instead of being hashed again with another
+     * seed. A query derives the remixed hashed element in one step, whatever the number of remixes.
+     * Only after {@link #MAX_REMIX} remixes are they hashed again.
+     * </p>
+     *
+     * <p>
+     * If {@code parallel} is {@code true}, this method must be called from a {@link ForkJoinPool}, whose threads are
+     * used to fill the slots. Peeling is always sequential, so the result does not depend on {@code parallel}.
+     * </p>
+     */
+    static Mapping buildMapping(
+            int numElements,
+            ElementsHasher hasher,
+            SlotLayout layout,
+            int rngSeed,
+            boolean parallel) {
+
+        return buildMapping(numElements, hasher, layout, rngSeed, parallel, new BuildMonitor());
+    }
+
+    static Mapping buildMapping(
+            int numElements,
+            ElementsHasher hasher,
+            SlotLayout layout,
+            int rngSeed,
+            boolean parallel,
+            BuildMonitor monitor) {
+
+        if (layout instanceof SlotLayout.Blocked) {
+            return buildBlockedMapping(numElements, hasher, (SlotLayout.Blocked) layout, rngSeed, monitor);
         }
 
-        static class _16 extends KBitValueArray {
-            private final short[] b;
+        final int capacity = layout.capacity;
+        HashedElements hashedElements = new HashedElements(numElements);
+        HashedElementSets h = new HashedElementSets(capacity);
+        IntQueue q = new IntQueue(capacity);
+        ArrayPairStack s = new ArrayPairStack(numElements);
+        SplittableRandom r = new SplittableRandom(rngSeed);
 
-            _16(int capacity) {
-                super(capacity);
-                b = new short[capacity];
-            }
+        int seed = r.nextInt();
+        int remix = 0;
+        monitor.startHashing(false);
+        hasher.hashAll(seed, hashedElements);
+        monitor.endHashing(hashedElements);
 
-            private short fingerprint(long x) {
-                return (short) (x >>> 48);
+        do {
+            monitor.startPeeling();
+            boolean peeled = peel(hashedElements, layout, h, q, s, parallel, monitor);
+            monitor.endPeeling();
+            if (peeled) {
+                return new Mapping(seed, remix, s);
             }
 
-            @Override
-            void put(int index, long x, int h0, int h1, int h2) {
-                b[index] = 0;
-                b[index] = (short) (fingerprint(x) ^ b[h0] ^ b[h1] ^ b[h2]);
-            }
+            h.clear();
+            q.clear();
+            s.clear();
 
-            @Override
-            boolean contains(long x, int h0, int h1, int h2) {
-                return fingerprint(x) == (b[h0] ^ b[h1] ^ b[h2]);
+            monitor.startHashing(remix == MAX_REMIX);
+            if (remix < MAX_REMIX) {
+                remix++;
+                hashedElements.remix(remix - 1, remix, parallel, layout.prefersSortedElements());
+            } else {
+                seed = r.nextInt();
+                remix = 0;
+                hasher.hashAll(seed, hashedElements);
             }
+            monitor.endHashing(hashedElements);
 
-            @Override
-            void writeTo(DataOutputStream out) throws IOException {
-                for (short value : b) {
-                    out.writeShort(value);
-                }
-            }
+        } while (true);
+    }
 
-            @Override
-            void readFrom(DataInputStream in) throws IOException {
-                for (int i = 0; i < b.length; i++) {
-                    b[i] = in.readShort();
-                }
-            }
+    /**
+     * Peels the hashed elements from the slots of {@code layout}, pushing the pairs onto {@code s}, and returns
+     * {@code true} if all of them have been peeled.
+     */
+    private static boolean peel(
+            HashedElements hashedElements,
+            SlotLayout layout,
+            HashedElementSets h,
+            IntQueue q,
+            ArrayPairStack s,
+            boolean parallel,
+            BuildMonitor monitor) {
+
+        final int capacity = layout.capacity;
+        if (parallel && layout.hasDisjointSlotRanges()) {
+            // Each task owns the range of slots of one of h0, h1 and h2, so no slot is written concurrently.
+            ForkJoinTask.invokeAll(
+                    ForkJoinTask.adapt(() -> appendAll(h, hashedElements, layout, 0)),
+                    ForkJoinTask.adapt(() -> appendAll(h, hashedElements, layout, 1)),
+                    ForkJoinTask.adapt(() -> appendAll(h, hashedElements, layout, 2)));
+
+        } else {
+            for (int i = 0; i < hashedElements.size(); i++) {
+                long x = hashedElements.get(i);
+                long x2 = layout.mix(x);
 
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (o == null || getClass() != o.getClass()) return false;
-                _16 that = (_16) o;
-                return Arrays.equals(b, that.b);
+                h.append(layout.h0(x, x2), x);
+                h.append(layout.h1(x, x2), x);
+                h.append(layout.h2(x, x2), x);
             }
+        }
 
-            @Override
-            public int hashCode() {
-                return Arrays.hashCode(b);
+        for (int i = 0; i < capacity; i++) {
+            if (h.containsOnlyOneValue(i)) {
+                q.enqueue(i);
             }
         }
 
-        final int capacity;
-        private final int blockLength;
+        // The preferred slots are taken first by putting them at the head of the queue.
+        final int preferredSlots = layout.preferredSlots();
+        IntConsumer enqueue = preferredSlots == capacity
+                ? q::enqueue
+                : i -> {
+                    if (i < preferredSlots) {
+                        q.enqueueFirst(i);
+                    } else {
+                        q.enqueue(i);
+                    }
+                };
+
+        final int size = hashedElements.size();
+        while (q.isNotEmpty()) {
+            int i = q.dequeue();
+            if (h.containsOnlyOneValue(i)) {
+                long x = h.getSoleValue(i);
+                long x2 = layout.mix(x);
+                s.push(i, x);
+                if ((s.size() & BuildMonitor.POLL_INTERVAL_MASK) == 0) {
+                    monitor.poll(BuildStats.Phase.PEELING, s.size(), size);
+                }
 
-        KBitValueArray(int capacity) {
-            this.capacity = capacity;
-            this.blockLength = capacity / 3;
+                h.remove(layout.h0(x, x2), x, enqueue);
+                h.remove(layout.h1(x, x2), x, enqueue);
+                h.remove(layout.h2(x, x2), x, enqueue);
+            }
         }
 
-        void put(int index, long x) {
-            long x2 = MurmurHashFinalizer.hash(0, x);
-            put(index, x, h0(x, blockLength), h1(x2, blockLength), h2(x2, blockLength));
-        }
+        return s.size() == size;
+    }
 
-        boolean contains(long x) {
-            long x2 = MurmurHashFinalizer.hash(0, x);
-            return contains(x, h0(x, blockLength), h1(x2, blockLength), h2(x2, blockLength));
+    private static void appendAll(HashedElementSets h, HashedElements hashedElements, SlotLayout layout, int hashIndex) {
+        for (int i = 0; i < hashedElements.size(); i++) {
+            long x = hashedElements.get(i);
+            long x2 = layout.mix(x);
+
+            switch (hashIndex) {
+                case 0:
+                    h.append(layout.h0(x, x2), x);
+                    break;
+                case 1:
+                    h.append(layout.h1(x, x2), x);
+                    break;
+                default:
+                    h.append(layout.h2(x, x2), x);
+                    break;
+            }
         }
+    }
 
-        abstract void put(int index, long x, int h0, int h1, int h2);
-
-        abstract boolean contains(long x, int h0, int h1, int h2);
+    /**
+     * Peels the blocks of the blocked layout, and finds a peeling order of the stash.
+     *
+     * <p>
+     * The blocks are peeled one by one over the sorted hashed elements, and the elements that a block cannot peel go
+     * to the stash. Nothing is kept of the blocks; {@link BlockStack} peels each block again while the values are
+     * assigned, so the scratch memory is little more than the hashed elements. The attempt fails only if the stash
+     * overflows or cannot be peeled, and then the hashed elements are remixed as in {@code buildMapping}.
+     * </p>
+     */
+    private static Mapping buildBlockedMapping(
+            int numElements,
+            ElementsHasher hasher,
+            SlotLayout.Blocked layout,
+            int rngSeed,
+            BuildMonitor monitor) {
+
+        final int stashCapacity = layout.stash.capacity;
+        HashedElements hashedElements = new HashedElements(numElements);
+        HashedElements stashed = new HashedElements(stashCapacity);
+        HashedElementSets h = new HashedElementSets(stashCapacity);
+        IntQueue q = new IntQueue(stashCapacity);
+        ArrayPairStack s = new ArrayPairStack(stashCapacity);
+        BlockPeeler peeler = new BlockPeeler(layout);
+        SplittableRandom r = new SplittableRandom(rngSeed);
 
-        abstract void writeTo(DataOutputStream out) throws IOException;
+        int seed = r.nextInt();
+        int remix = 0;
+        monitor.startHashing(false);
+        hasher.hashAll(seed, hashedElements);
+        monitor.endHashing(hashedElements);
 
-        abstract void readFrom(DataInputStream in) throws IOException;
+        do {
+            monitor.startPeeling();
+            boolean peeled = peelBlocks(hashedElements, layout, peeler, stashed, stashCapacity, monitor)
+                    && peel(stashed, layout.stash, h, q, s, false, monitor);
+            monitor.endPeeling();
+            if (peeled) {
+                return new Mapping(seed, remix, new BlockStack(layout, hashedElements, peeler, s));
+            }
 
-        @Override
-        public String toString() {
-            return getClass().getSimpleName() + "{" +
-                    "capacity=" + capacity +
-                    '}';
-        }
-    }
+            stashed.clear();
+            h.clear();
+            q.clear();
+            s.clear();
 
-    // ---
+            monitor.startHashing(remix == MAX_REMIX);
+            if (remix < MAX_REMIX) {
+                remix++;
+                hashedElements.remix(remix - 1, remix, false, true);
+            } else {
+                seed = r.nextInt();
+                remix = 0;
+                hasher.hashAll(seed, hashedElements);
+            }
+            monitor.endHashing(hashedElements);
 
-    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy) {
-        return build(funnel, elements, strategy, ThreadLocalRandom.current().nextInt());
+        } while (true);
     }
 
-    public static <T> XorFilter<T> build(Funnel<? super T> funnel, Collection<T> elements, Strategy strategy, int rngSeed) {
-        final int capacity = (int) ((1.23 * elements.size() + 32 + 2) / 3) * 3;
-        Mapping mapping = buildMapping(funnel, elements, strategy, capacity, rngSeed);
-        KBitValueArray b = strategy.newArray(capacity);
-        assign(b, mapping.stack);
-        return new XorFilter<>(strategy, mapping.seed, funnel, b);
+    /**
+     * Peels each block, and adds the elements that are not peeled to {@code stashed}. Returns {@code false} if they
+     * exceed {@code maxStashed}.
+     */
+    private static boolean peelBlocks(
+            HashedElements hashedElements,
+            SlotLayout.Blocked layout,
+            BlockPeeler peeler,
+            HashedElements stashed,
+            int maxStashed,
+            BuildMonitor monitor) {
+
+        final int size = hashedElements.size();
+        for (int block = 0, from = 0; block < layout.numBlocks; block++) {
+            if ((block & (BuildMonitor.POLL_INTERVAL_MASK >>> 5)) == 0) {
+                monitor.poll(BuildStats.Phase.PEELING, from, size);
+            }
+            int to = from;
+            while (to < size && layout.block(hashedElements.get(to)) == block) {
+                to++;
+            }
+
+            if (!peeler.peel(hashedElements, from, to)) {
+                if (stashed.size() + (to - from - peeler.size()) > maxStashed) {
+                    return false;
+                }
+                for (int i = from; i < to; i++) {
+                    if (!peeler.isPeeled(i - from)) {
+                        stashed.add(hashedElements.get(i));
+                    }
+                }
+            }
+            from = to;
+        }
+        return true;
     }
 
-    private static <T> Mapping buildMapping(
-            Funnel<? super T> funnel,
-            Collection<T> elements,
-            Strategy strategy,
-            int capacity,
+    /**
+     * Same as {@link #buildMapping(int, ElementsHasher, SlotLayout, int, boolean)} without {@code parallel}, but with
+     * less scratch memory:
+     *
+     * <ul>
+     * <li>Each slot holds the xor of the indexes of its hashed elements, an {@code int}, instead of the xor of the
+     * hashed elements themselves.</li>
+     * <li>The queue of the slots to peel and the stack of the peeled slots share one array of slot indexes, because
+     * every slot is enqueued at most once and a slot is pushed only after it has been dequeued.</li>
+     * <li>The index of the peeled hashed element is left in its slot instead of being copied to the stack.</li>
+     * </ul>
+     *
+     * The peeling order, and therefore the filter, is the same as that of {@code buildMapping}. The hashed elements
+     * are kept intact, so that a failed attempt remixes them in place without hashing the elements again.
+     */
+    static Mapping buildMappingWithLowMemory(
+            int numElements,
+            ElementsHasher hasher,
+            SlotLayout layout,
             int rngSeed) {
 
-        int blockLength = capacity / 3;
-        HashedElements hashedElements = new HashedElements(elements.size());
-        HashedElementSets h = new HashedElementSets(capacity);
-        IntQueue q = new IntQueue(elements.size());
-        PairStack s = new PairStack(elements.size());
-        SplittableRandom r = new SplittableRandom(rngSeed);
+        if (layout instanceof SlotLayout.Blocked) {
+            return buildBlockedMapping(numElements, hasher, (SlotLayout.Blocked) layout, rngSeed, new BuildMonitor());
+        }
+        if (layout.preferredSlots() != layout.capacity) {
+            // The shared array has no room to put the preferred slots ahead of the others.
+            return buildMapping(numElements, hasher, layout, rngSeed, false);
+        }
 
-        do {
-            int seed = r.nextInt();
-            HashFunction hashFunction = strategy.newHashFunction(seed);
-            hashedElements.hashAll(o -> hashFunction.hashObject(o, funnel).asLong(), elements);
+        final int capacity = layout.capacity;
+        HashedElements hashedElements = new HashedElements(numElements);
+        int[] xorIndexes = new int[capacity];
+        byte[] counts = new byte[capacity];
+        int[] slots = new int[capacity];
+        SplittableRandom r = new SplittableRandom(rngSeed);
 
-            for (int i = 0; i < hashedElements.size(); i++) {
-                long x = hashedElements.get(i);
-                long x2 = MurmurHashFinalizer.hash(0, x);
+        int seed = r.nextInt();
+        int remix = 0;
+        hasher.hashAll(seed, hashedElements);
 
-                h.append(h0(x, blockLength), x);
-                h.append(h1(x2, blockLength), x);
-                h.append(h2(x2, blockLength), x);
+        do {
+            int size = hashedElements.size();
+            for (int index = 0; index < size; index++) {
+                long x = hashedElements.get(index);
+                long x2 = layout.mix(x);
+
+                int h0 = layout.h0(x, x2);
+                int h1 = layout.h1(x, x2);
+                int h2 = layout.h2(x, x2);
+                xorIndexes[h0] ^= index;
+                xorIndexes[h1] ^= index;
+                xorIndexes[h2] ^= index;
+                counts[h0]++;
+                counts[h1]++;
+                counts[h2]++;
             }
 
+            int putIndex = 0;
             for (int i = 0; i < capacity; i++) {
-                if (h.containsOnlyOneValue(i)) {
-                    q.enqueue(i);
+                if (counts[i] == 1) {
+                    slots[putIndex++] = i;
                 }
             }
 
-            while (q.isNotEmpty()) {
-                int i = q.dequeue();
-                if (h.containsOnlyOneValue(i)) {
-                    long x = h.getSoleValue(i);
-                    long x2 = MurmurHashFinalizer.hash(0, x);
-                    s.push(i, x);
+            int takeIndex = 0;
+            int stackIndex = 0;
+            while (takeIndex < putIndex) {
+                int i = slots[takeIndex++];
+                if (counts[i] != 1) {
+                    continue;
+                }
 
-                    h.remove(h0(x, blockLength), x, q::enqueue);
-                    h.remove(h1(x2, blockLength), x, q::enqueue);
-                    h.remove(h2(x2, blockLength), x, q::enqueue);
+                // Keep the index of x in slot i for assign(), and mark the slot as peeled.
+                int index = xorIndexes[i];
+                counts[i] = 0;
+                slots[stackIndex++] = i;
+
+                long x = hashedElements.get(index);
+                long x2 = layout.mix(x);
+                int h0 = layout.h0(x, x2);
+                int h1 = layout.h1(x, x2);
+                int h2 = layout.h2(x, x2);
+                if (h0 != i) {
+                    xorIndexes[h0] ^= index;
+                    if (--counts[h0] == 1) {
+                        slots[putIndex++] = h0;
+                    }
+                }
+                if (h1 != i) {
+                    xorIndexes[h1] ^= index;
+                    if (--counts[h1] == 1) {
+                        slots[putIndex++] = h1;
+                    }
+                }
+                if (h2 != i) {
+                    xorIndexes[h2] ^= index;
+                    if (--counts[h2] == 1) {
+                        slots[putIndex++] = h2;
+                    }
                 }
             }
 
-            if (s.size() == hashedElements.size()) {
-                return new Mapping(seed, s);
+            if (stackIndex == size) {
+                return new Mapping(seed, remix, new SlotStack(slots, stackIndex, xorIndexes, hashedElements));
             }
 
-            h.clear();
-            q.clear();
-            s.clear();
+            Arrays.fill(xorIndexes, 0);
+            Arrays.fill(counts, (byte) 0);
+
+            if (remix < MAX_REMIX) {
+                remix++;
+                hashedElements.remix(remix - 1, remix, false, layout.prefersSortedElements());
+            } else {
+                seed = r.nextInt();
+                remix = 0;
+                hasher.hashAll(seed, hashedElements);
+            }
 
         } while (true);
     }
 
-    private static void assign(KBitValueArray b, PairStack s) {
-        while (s.isNotEmpty()) {
-            int index = s.peekIndex();
-            long x = s.popHashedElements();
-            b.put(index, x);
+    /**
+     * Returns the number of bytes of the scratch arrays allocated while building a filter of {@code numElements}
+     * elements, excluding the filter itself and the elements.
+     *
+     * @param lowMemory {@code true} for {@link #buildWithLowMemory(Funnel, Collection, Strategy, int)}, which makes no
+     *                  difference for the BLOCKED and PLUS strategies
+     */
+    public static long scratchBytes(int numElements, Strategy strategy, boolean lowMemory) {
+        long n = numElements;
+        SlotLayout layout = strategy.newLayout(numElements);
+        if (layout instanceof SlotLayout.Blocked) {
+            // HashedElements, and those of buildMapping for the stash
+            long stashCapacity = ((SlotLayout.Blocked) layout).stash.capacity;
+            return Long.BYTES * n + (Long.BYTES + Long.BYTES + 1 + Integer.BYTES + Integer.BYTES + Long.BYTES) * stashCapacity;
         }
+        long capacity = layout.capacity;
+        if (lowMemory && layout.preferredSlots() == capacity) {
+            // HashedElements, the xor of the indexes and the count of each slot, and the slot indexes
+            return Long.BYTES * n + (Integer.BYTES + 1 + Integer.BYTES) * capacity;
+        }
+        // HashedElements, HashedElementSets, IntQueue and ArrayPairStack
+        return Long.BYTES * n + (Long.BYTES + 1) * capacity + Integer.BYTES * (capacity + 1) + (Integer.BYTES + Long.BYTES) * n;
     }
 
-    private static int h0(long x, int blockLength) {
-        return (int) ((x & 0xffffffffL) * blockLength >>> 32);
-    }
-
-    private static int h1(long x2, int blockLength) {
-        return (int) (((x2 & 0xffffffffL) * blockLength >>> 32) + blockLength);
+    /**
+     * Puts the pairs of {@code s} into {@code b}, and returns the array that holds the values in the least space,
+     * which is {@code b} itself unless its strategy compacts the values.
+     */
+    static KBitValueArray assign(KBitValueArray b, PairStack s) {
+        return assign(b, s, new BuildMonitor());
     }
 
-    private static int h2(long x2, int blockLength) {
-        return (int) (((x2 >>> 32) * blockLength >>> 32) + blockLength + blockLength);
+    /**
+     * Same as {@link #assign(KBitValueArray, PairStack)}, but polls {@code monitor} while assigning.
+     */
+    static KBitValueArray assign(KBitValueArray b, PairStack s, BuildMonitor monitor) {
+        monitor.startAssigning();
+        for (long n = 1; s.isNotEmpty(); n++) {
+            int index = s.peekIndex();
+            long x = s.popHashedElements();
+            b.put(index, x);
+            if ((n & BuildMonitor.POLL_INTERVAL_MASK) == 0) {
+                monitor.poll(BuildStats.Phase.ASSIGNING, n, monitor.distinctElements());
+            }
+        }
+        KBitValueArray compacted = b.compact();
+        monitor.endAssigning();
+        return compacted;
     }
 
     // ---
 
     private final Strategy strategy;
     private final int seed;
-    private final HashFunction hashFunction;
+    private final int remix;
+    private final ToLongFunction<T> elementHasher;
     private final Funnel<? super T> funnel;
     private final KBitValueArray b;
 
-    private XorFilter(Strategy strategy, int seed, Funnel<? super T> funnel, KBitValueArray b) {
+    private XorFilter(Strategy strategy, int seed, int remix, Funnel<? super T> funnel, KBitValueArray b) {
         this.strategy = strategy;
         this.seed = seed;
-        this.hashFunction = strategy.newHashFunction(seed);
+        this.remix = remix;
+        this.elementHasher = strategy.newElementHasher(seed, funnel);
         this.funnel = funnel;
         this.b = b;
     }
 
     public boolean mightContain(T element) {
-        long x = hashFunction.hashObject(element, funnel).asLong();
+        long x = MurmurHashFinalizer.remix(elementHasher.applyAsLong(element), remix);
         return b.contains(x);
     }
 
+    /**
+     * Tests {@code elements[off]} to {@code elements[off + len - 1]} in a batch.
+     *
+     * @param resultBitmap bitmap that receives the results; bit {@code i % 64} of {@code resultBitmap[i / 64]} is set
+     *                     if {@code elements[off + i]} might be contained, and cleared otherwise.
+     *                     The first {@code ceil(len / 64)} words are overwritten.
+     * @see LongXorFilter#mightContainAll(long[], int, int, long[])
+     */
+    public void mightContainAll(T[] elements, int off, int len, long[] resultBitmap) {
+        KBitValueArray.checkBatchArguments(elements.length, off, len, resultBitmap);
+
+        long[] xs = new long[KBitValueArray.BATCH_SIZE];
+        int[] h = new int[KBitValueArray.BATCH_SIZE * 3];
+
+        for (int i = 0; i < len; i += KBitValueArray.BATCH_SIZE) {
+            int n = Math.min(KBitValueArray.BATCH_SIZE, len - i);
+            for (int j = 0; j < n; j++) {
+                xs[j] = MurmurHashFinalizer.remix(elementHasher.applyAsLong(elements[off + i + j]), remix);
+            }
+            resultBitmap[i / KBitValueArray.BATCH_SIZE] = b.containsAll(xs, n, h);
+        }
+    }
+
     @Override
     public boolean test(T t) {
         return mightContain(t);
     }
 
+    /**
+     * Returns the number of bytes of the values, which take nearly all the memory of the filter, on or off the heap.
+     */
+    public long estimatedSizeInBytes() {
+        return b.sizeInBytes();
+    }
+
+    /**
+     * Returns the bits of the values per element. The number of elements is not serialized, so it is estimated as the
+     * number that the capacity of the filter is sized for, which slightly understates the bits if the elements have
+     * duplicates.
+     */
+    public double bitsPerKey() {
+        return (double) b.sizeInBytes() * Byte.SIZE / strategy.estimateElements(b.capacity);
+    }
+
+    /**
+     * Returns the probability that {@link #mightContain(Object)} returns {@code true} for an element that has not been
+     * added, which the positive rate of such queries should approach.
+     */
+    public double expectedFpp() {
+        return b.layout.falsePositiveProbability(b, strategy.bitsPerValue);
+    }
+
+    /**
+     * Writes the filter in a versioned and checksummed format, and closes {@code out}.
+     */
     public void writeTo(OutputStream out) throws IOException {
-        try (DataOutputStream dos = new DataOutputStream(out)) {
-            dos.writeByte(strategy.ordinal());
-            dos.writeInt(seed);
-            dos.writeInt(b.capacity);
-            b.writeTo(dos);
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeTo(channel);
         }
     }
 
+    /**
+     * Writes the filter in bulk to {@code out}, which is left open.
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        serializedForm().writeTo(out);
+    }
+
+    /**
+     * Reads the filter written by {@link #writeTo(OutputStream)} or by 0.1.x, and closes {@code in}.
+     *
+     * @throws IOException if the input is not a serialized filter, or it is truncated or corrupted
+     */
     public static <T> XorFilter<T> readFrom(InputStream in, Funnel<? super T> funnel) throws IOException {
-        try (DataInputStream dis = new DataInputStream(in)) {
-            Strategy strategy = Strategy.values()[dis.readByte()];
-            int seed = dis.readInt();
-            int capacity = dis.readInt();
-            KBitValueArray b = strategy.newArray(capacity);
-            b.readFrom(dis);
-            return new XorFilter<>(strategy, seed, funnel, b);
+        try (ReadableByteChannel channel = Channels.newChannel(in)) {
+            return readFrom(channel, funnel);
         }
     }
 
+    /**
+     * Reads the filter in bulk from {@code in}, which is left open right after the filter.
+     *
+     * @throws IOException if the input is not a serialized filter, or it is truncated or corrupted
+     */
+    public static <T> XorFilter<T> readFrom(ReadableByteChannel in, Funnel<? super T> funnel) throws IOException {
+        return of(SerializedForm.readFrom(in, SerializedForm.KeyKind.OBJECT), funnel);
+    }
+
+    /**
+     * Maps the filter written by {@link #writeTo(OutputStream)} to {@code path} into memory, instead of reading it
+     * onto the heap. The values are read directly from the read-only mapped file.
+     * Only the header is verified; the checksum of the values is not.
+     */
+    public static <T> XorFilter<T> map(Path path, Funnel<? super T> funnel) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, funnel);
+        }
+    }
+
+    /**
+     * Maps the filter stored at the current position of {@code channel} into memory, and advances the position past
+     * the filter. The mapping stays valid after {@code channel} is closed.
+     */
+    public static <T> XorFilter<T> map(FileChannel channel, Funnel<? super T> funnel) throws IOException {
+        return of(SerializedForm.map(channel, SerializedForm.KeyKind.OBJECT), funnel);
+    }
+
+    static <T> XorFilter<T> of(SerializedForm form, Funnel<? super T> funnel) {
+        return new XorFilter<>(form.strategy, form.seed, form.remix, funnel, form.b);
+    }
+
+    SerializedForm serializedForm() {
+        return new SerializedForm(SerializedForm.KeyKind.OBJECT, strategy, seed, remix, b);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         XorFilter<?> xorFilter = (XorFilter<?>) o;
         return seed == xorFilter.seed &&
+                remix == xorFilter.remix &&
                 strategy == xorFilter.strategy &&
-                Objects.equals(hashFunction, xorFilter.hashFunction) &&
                 Objects.equals(funnel, xorFilter.funnel) &&
                 Objects.equals(b, xorFilter.b);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(strategy, seed, hashFunction, funnel, b);
+        return Objects.hash(strategy, seed, remix, funnel, b);
     }
 
     @Override
@@ -347,7 +922,7 @@ public class XorFilter<T> implements Predicate<T> {
         return "XorFilter{" +
                 "strategy=" + strategy +
                 ", seed=" + seed +
-                ", hashFunction=" + hashFunction +
+                ", remix=" + remix +
                 ", funnel=" + funnel +
                 ", b=" + b +
                 '}';
@@ -357,6 +932,7 @@ public class XorFilter<T> implements Predicate<T> {
 class HashedElements {
     private final long[] hashedElements;
     private int actualSize;
+    private long sortNanos;
 
     HashedElements(int size) {
         this.hashedElements = new long[size];
@@ -368,8 +944,89 @@ class HashedElements {
             hashedElements[i0++] = hashFunction.applyAsLong(o);
         }
 
-        Arrays.sort(hashedElements);
+        sortAndDeduplicate(false);
+    }
+
+    void hashAll(ElementHashing hashing, long seed, long[] elements) {
+        for (int i = 0; i < elements.length; i++) {
+            hashedElements[i] = hashing.hash(seed, elements[i]);
+        }
+
+        sortAndDeduplicate(false);
+    }
+
+    void hashAllInParallel(ToLongFunction<Object> hashFunction, Object[] elements) {
+        IntStream.range(0, elements.length)
+                .parallel()
+                .forEach(i -> hashedElements[i] = hashFunction.applyAsLong(elements[i]));
+
+        sortAndDeduplicate(true);
+    }
+
+    void hashAllInParallel(ElementHashing hashing, long seed, long[] elements) {
+        IntStream.range(0, elements.length)
+                .parallel()
+                .forEach(i -> hashedElements[i] = hashing.hash(seed, elements[i]));
+
+        sortAndDeduplicate(true);
+    }
+
+    /**
+     * Turns the hashed elements of the round {@code fromRemix} into those of the round {@code toRemix}, with
+     * {@link MurmurHashFinalizer#remix(long, int, int)}. Remixing is a bijection, so the hashed elements stay distinct;
+     * they are sorted again only if {@code sort}.
+     */
+    void remix(int fromRemix, int toRemix, boolean parallel, boolean sort) {
+        IntStream indexes = IntStream.range(0, actualSize);
+        if (parallel) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> hashedElements[i] = MurmurHashFinalizer.remix(hashedElements[i], fromRemix, toRemix));
+
+        if (sort) {
+            long start = System.nanoTime();
+            if (parallel) {
+                Arrays.parallelSort(hashedElements, 0, actualSize);
+            } else {
+                Arrays.sort(hashedElements, 0, actualSize);
+            }
+            sortNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Sorts the hashed elements, which fill the whole of {@link #buffer()}, and drops the duplicates.
+     */
+    void sortAndDeduplicate(boolean parallel) {
+        long start = System.nanoTime();
+        if (parallel) {
+            Arrays.parallelSort(hashedElements);
+        } else {
+            Arrays.sort(hashedElements);
+        }
+        deduplicate();
+        sortNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the total time of sorting and deduplicating so far, for {@link BuildStats}.
+     */
+    long sortNanos() {
+        return sortNanos;
+    }
 
+    /**
+     * Appends {@code x}, which must differ from the hashed elements so far, instead of hashing all of them at once.
+     */
+    void add(long x) {
+        hashedElements[actualSize++] = x;
+    }
+
+    void clear() {
+        actualSize = 0;
+    }
+
+    private void deduplicate() {
         int p = 0;
         for (int i1 = 1; i1 < hashedElements.length; i1++) {
             if (hashedElements[p] != hashedElements[i1]) {
@@ -377,7 +1034,7 @@ class HashedElements {
             }
         }
 
-        actualSize = p + 1;
+        actualSize = hashedElements.length == 0 ? 0 : p + 1;
     }
 
     int size() {
@@ -387,6 +1044,13 @@ class HashedElements {
     long get(int index) {
         return hashedElements[index];
     }
+
+    /**
+     * Returns the underlying array, which the caller may use as scratch until the next call of {@code hashAll}.
+     */
+    long[] buffer() {
+        return hashedElements;
+    }
 }
 
 class HashedElementSets {
@@ -449,6 +1113,16 @@ class IntQueue {
         }
     }
 
+    /**
+     * Puts {@code value} at the head of the queue, so that it is dequeued next.
+     */
+    void enqueueFirst(int value) {
+        if (takeIndex == 0) {
+            takeIndex = queue.length;
+        }
+        queue[--takeIndex] = value;
+    }
+
     int dequeue() {
         int result = queue[takeIndex++];
         if (takeIndex == queue.length) {
@@ -458,12 +1132,23 @@ class IntQueue {
     }
 }
 
-class PairStack {
+/**
+ * Pairs of a slot index and the hashed element peeled from the slot, popped in the reverse order of peeling.
+ */
+interface PairStack {
+    boolean isNotEmpty();
+
+    int peekIndex();
+
+    long popHashedElements();
+}
+
+class ArrayPairStack implements PairStack {
     private final int[] indexes;
     private final long[] hashedElements;
     private int stackIndex;
 
-    PairStack(int size) {
+    ArrayPairStack(int size) {
         this.indexes = new int[size];
         this.hashedElements = new long[size];
     }
@@ -472,7 +1157,8 @@ class PairStack {
         return stackIndex;
     }
 
-    boolean isNotEmpty() {
+    @Override
+    public boolean isNotEmpty() {
         return stackIndex > 0;
     }
 
@@ -486,21 +1172,237 @@ class PairStack {
         stackIndex++;
     }
 
-    int peekIndex() {
+    @Override
+    public int peekIndex() {
         return indexes[stackIndex - 1];
     }
 
-    long popHashedElements() {
+    @Override
+    public long popHashedElements() {
         return hashedElements[--stackIndex];
     }
 }
 
+/**
+ * Stack of the low-memory build, which holds only the slot indexes. The index of the hashed element peeled from a
+ * slot is left in the slot's xor of the indexes.
+ */
+class SlotStack implements PairStack {
+    private final int[] slots;
+    private final int[] xorIndexes;
+    private final HashedElements hashedElements;
+    private int stackIndex;
+
+    SlotStack(int[] slots, int size, int[] xorIndexes, HashedElements hashedElements) {
+        this.slots = slots;
+        this.xorIndexes = xorIndexes;
+        this.hashedElements = hashedElements;
+        this.stackIndex = size;
+    }
+
+    @Override
+    public boolean isNotEmpty() {
+        return stackIndex > 0;
+    }
+
+    @Override
+    public int peekIndex() {
+        return slots[stackIndex - 1];
+    }
+
+    @Override
+    public long popHashedElements() {
+        return hashedElements.get(xorIndexes[slots[--stackIndex]]);
+    }
+}
+
+/**
+ * Peels the hashed elements of one block of {@link SlotLayout.Blocked}, using arrays of the size of a block.
+ */
+class BlockPeeler {
+    private final SlotLayout.Blocked layout;
+    private final int[] xorIndexes;
+    private final byte[] counts;
+    private final int[] queue;
+    private final int[] slots;
+    private final int[] peeled;
+    private final boolean[] isPeeled;
+    private int size;
+
+    BlockPeeler(SlotLayout.Blocked layout) {
+        int slotsPerBlock = layout.slotsPerBlock;
+        this.layout = layout;
+        this.xorIndexes = new int[slotsPerBlock];
+        this.counts = new byte[slotsPerBlock];
+        // Every slot is enqueued at most once, when it holds or is left with one element.
+        this.queue = new int[slotsPerBlock];
+        this.slots = new int[slotsPerBlock];
+        this.peeled = new int[slotsPerBlock];
+        this.isPeeled = new boolean[slotsPerBlock];
+    }
+
+    /**
+     * Peels the hashed elements {@code from} to {@code to - 1} as far as possible, and returns {@code true} if all of
+     * them have been peeled. The peeled pairs are then {@link #slot(int)} and {@link #element(int)} of {@code 0} to
+     * {@code size() - 1}, in the order of peeling.
+     */
+    boolean peel(HashedElements hashedElements, int from, int to) {
+        size = 0;
+        if (to - from >= counts.length) {
+            // More elements than slots, which are all stashed.
+            Arrays.fill(isPeeled, false);
+            return false;
+        }
+
+        Arrays.fill(xorIndexes, 0);
+        Arrays.fill(counts, (byte) 0);
+        for (int i = 0; i < to - from; i++) {
+            long y = layout.blockHash(hashedElements.get(from + i));
+            append(layout.slot0(y), i);
+            append(layout.slot1(y), i);
+            append(layout.slot2(y), i);
+            isPeeled[i] = false;
+        }
+
+        int putIndex = 0;
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] == 1) {
+                queue[putIndex++] = i;
+            }
+        }
+
+        for (int takeIndex = 0; takeIndex < putIndex; takeIndex++) {
+            int slot = queue[takeIndex];
+            if (counts[slot] != 1) {
+                continue;
+            }
+
+            int i = xorIndexes[slot];
+            slots[size] = slot;
+            peeled[size++] = from + i;
+            isPeeled[i] = true;
+
+            long y = layout.blockHash(hashedElements.get(from + i));
+            putIndex = remove(layout.slot0(y), i, putIndex);
+            putIndex = remove(layout.slot1(y), i, putIndex);
+            putIndex = remove(layout.slot2(y), i, putIndex);
+        }
+        return size == to - from;
+    }
+
+    private void append(int slot, int i) {
+        xorIndexes[slot] ^= i;
+        counts[slot]++;
+    }
+
+    private int remove(int slot, int i, int putIndex) {
+        xorIndexes[slot] ^= i;
+        if (--counts[slot] == 1) {
+            queue[putIndex++] = slot;
+        }
+        return putIndex;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int slot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Returns the index in the hashed elements of the {@code i}-th peeled element.
+     */
+    int element(int i) {
+        return peeled[i];
+    }
+
+    /**
+     * Returns {@code true} if the {@code i}-th element of the block has been peeled.
+     */
+    boolean isPeeled(int i) {
+        return i < isPeeled.length && isPeeled[i];
+    }
+}
+
+/**
+ * Stack of the blocked layout, which peels each block again when the block is reached.
+ * For each block, the pair of the first slot and the flag of the block is popped first, followed by the peeled pairs
+ * of the block in the reverse order of peeling. The pairs of the stash come last.
+ */
+class BlockStack implements PairStack {
+    private final SlotLayout.Blocked layout;
+    private final HashedElements hashedElements;
+    private final BlockPeeler peeler;
+    private final ArrayPairStack stash;
+
+    private int block = -1;
+    private int nextElement;
+    private boolean flagPending;
+    private long flag;
+    private int peeledIndex;
+
+    BlockStack(SlotLayout.Blocked layout, HashedElements hashedElements, BlockPeeler peeler, ArrayPairStack stash) {
+        this.layout = layout;
+        this.hashedElements = hashedElements;
+        this.peeler = peeler;
+        this.stash = stash;
+    }
+
+    @Override
+    public boolean isNotEmpty() {
+        while (!flagPending && peeledIndex == 0 && block + 1 < layout.numBlocks) {
+            block++;
+            int from = nextElement;
+            while (nextElement < hashedElements.size() && layout.block(hashedElements.get(nextElement)) == block) {
+                nextElement++;
+            }
+            flag = peeler.peel(hashedElements, from, nextElement) ? 0 : 1;
+            flagPending = true;
+            peeledIndex = peeler.size();
+        }
+        return flagPending || peeledIndex > 0 || stash.isNotEmpty();
+    }
+
+    @Override
+    public int peekIndex() {
+        int start = block * layout.slotsPerBlock;
+        if (flagPending) {
+            return start;
+        }
+        if (peeledIndex > 0) {
+            return start + peeler.slot(peeledIndex - 1);
+        }
+        return layout.blocksCapacity + stash.peekIndex();
+    }
+
+    @Override
+    public long popHashedElements() {
+        if (flagPending) {
+            flagPending = false;
+            return flag;
+        }
+        if (peeledIndex > 0) {
+            return hashedElements.get(peeler.element(--peeledIndex));
+        }
+        return stash.popHashedElements();
+    }
+}
+
+@FunctionalInterface
+interface ElementsHasher {
+    void hashAll(int seed, HashedElements hashedElements);
+}
+
 class Mapping {
     final int seed;
+    final int remix;
     final PairStack stack;
 
-    Mapping(int seed, PairStack stack) {
+    Mapping(int seed, int remix, PairStack stack) {
         this.seed = seed;
+        this.remix = remix;
         this.stack = stack;
     }
 }
@@ -0,0 +1,482 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * File that packs many filters, each identified by a string, with an index of them.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number "XORC"
+ *      4     1  format version (1)
+ *      5     1  byte order of the following fields and the index (1: little-endian)
+ *      6     2  reserved (0)
+ *      8     8  offset of the index
+ *     16     8  length of the index in bytes
+ *     24     4  number of the filters
+ *     28     4  CRC-32 of the bytes 0 to 27
+ *     32        filters in the form of {@link XorFilter#writeTo(java.io.OutputStream)}, each at a multiple of 8 bytes
+ * </pre>
+ *
+ * <p>
+ * The index lists, for each filter, the length of its id, the UTF-8 bytes of the id, its offset, its length, its
+ * strategy ordinal and its seed, and ends with the CRC-32 of the entries. Only the header and the index are read on
+ * open; a filter is read onto the heap or mapped into memory when it is asked for, and its checksums are verified as
+ * those of a single filter.
+ * </p>
+ *
+ * <p>
+ * Appended filters are written after the end of the file, and a new index is written after them by {@link #flush()}
+ * or {@link #close()}, which at last points the header to it. Until then the file is read with the previous index,
+ * so a crash in the middle of appending loses only the filters appended since the last flush.
+ * The methods are synchronized, and a mapped filter stays valid after the container is closed.
+ * </p>
+ *
+ * <p>
+ * The previous indexes are left in the file and never reused, so flush once per batch of appends rather than after
+ * each filter. {@link #compactTo(Path)} copies the filters to a new file with a single index.
+ * </p>
+ */
+public final class XorFilterContainer implements Closeable {
+    private static final byte[] MAGIC = {'X', 'O', 'R', 'C'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_CHECKSUM_OFFSET = 28;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int MAX_ID_LENGTH = 0xffff;
+
+    /**
+     * Entry of the index.
+     */
+    public static final class Entry {
+        private final String id;
+        private final long offset;
+        private final long length;
+        private final XorFilter.Strategy strategy;
+        private final int seed;
+
+        Entry(String id, long offset, long length, XorFilter.Strategy strategy, int seed) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+            this.strategy = strategy;
+            this.seed = seed;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Returns the offset of the filter in the file.
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the serialized filter in bytes.
+         */
+        public long length() {
+            return length;
+        }
+
+        public XorFilter.Strategy strategy() {
+            return strategy;
+        }
+
+        public int seed() {
+            return seed;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "id='" + id + '\'' +
+                    ", offset=" + offset +
+                    ", length=" + length +
+                    ", strategy=" + strategy +
+                    ", seed=" + seed +
+                    '}';
+        }
+    }
+
+    /**
+     * Opens the container to read its filters.
+     */
+    public static XorFilterContainer open(Path path) throws IOException {
+        return open(FileChannel.open(path, StandardOpenOption.READ), false);
+    }
+
+    /**
+     * Opens the container to read its filters and to append new ones, creating an empty one if the file does not exist
+     * or is empty.
+     */
+    public static XorFilterContainer openForAppend(Path path) throws IOException {
+        return open(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE), true);
+    }
+
+    private static XorFilterContainer open(FileChannel channel, boolean writable) throws IOException {
+        try {
+            XorFilterContainer container = new XorFilterContainer(channel, writable);
+            if (writable && channel.size() == 0) {
+                container.writeIndex();
+            } else {
+                container.readIndex();
+            }
+            return container;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // ---
+
+    private final FileChannel channel;
+    private final boolean writable;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    /** Position at which the next filter or index is written. */
+    private long end = HEADER_SIZE;
+    private boolean dirty;
+
+    private XorFilterContainer(FileChannel channel, boolean writable) {
+        this.channel = channel;
+        this.writable = writable;
+    }
+
+    private void readIndex() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = readAt(0, HEADER_SIZE, size);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                throw new IOException("Not a filter container: wrong magic number");
+            }
+        }
+        if (header.get(4) != VERSION) {
+            throw new IOException("Unsupported container format version: " + header.get(4));
+        }
+        if (header.get(5) != 1) {
+            throw new IOException("Corrupted filter container: unknown byte order " + header.get(5));
+        }
+        checkCrc(header, HEADER_CHECKSUM_OFFSET, "header");
+
+        long indexOffset = header.getLong(8);
+        long indexLength = header.getLong(16);
+        int numEntries = header.getInt(24);
+        if (indexOffset < HEADER_SIZE || indexLength < Integer.BYTES || indexLength > Integer.MAX_VALUE || numEntries < 0) {
+            throw new IOException(String.format(
+                    "Corrupted filter container: index of %d bytes at %d", indexLength, indexOffset));
+        }
+
+        ByteBuffer index = readAt(indexOffset, (int) indexLength, size);
+        checkCrc(index, (int) indexLength - Integer.BYTES, "index");
+        index.limit((int) indexLength - Integer.BYTES);
+        try {
+            XorFilter.Strategy[] strategies = XorFilter.Strategy.values();
+            for (int i = 0; i < numEntries; i++) {
+                byte[] id = new byte[index.getShort() & 0xffff];
+                index.get(id);
+                long offset = index.getLong();
+                long length = index.getLong();
+                int strategy = index.get();
+                int seed = index.getInt();
+                if (offset < HEADER_SIZE || length <= 0 || offset + length > indexOffset
+                        || strategy < 0 || strategy >= strategies.length) {
+                    throw new IOException(String.format("Corrupted filter container: entry %d", i));
+                }
+                Entry e = new Entry(new String(id, StandardCharsets.UTF_8), offset, length, strategies[strategy], seed);
+                entries.put(e.id, e);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted filter container: truncated index", e);
+        }
+
+        end = align(indexOffset + indexLength);
+    }
+
+    private ByteBuffer readAt(long position, int length, long size) throws IOException {
+        if (position + length > size) {
+            throw new IOException(String.format(
+                    "Truncated filter container: expected %d bytes at %d, but the file has %d bytes", length, position, size));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the filter container");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void checkCrc(ByteBuffer buffer, int length, String part) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, length);
+        if (buffer.getInt(length) != (int) checksum.getValue()) {
+            throw new IOException("Checksum mismatch: the " + part + " of the filter container is corrupted");
+        }
+    }
+
+    private static long align(long position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * Returns the entry of {@code id}, or {@code null} if there is none.
+     */
+    public synchronized Entry entry(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Returns the entries in the order the filters have been appended.
+     */
+    public synchronized Collection<Entry> entries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Reads the filter of {@code id} onto the heap.
+     *
+     * @throws IllegalArgumentException if there is no filter of {@code id}
+     */
+    public <T> XorFilter<T> read(String id, Funnel<? super T> funnel) throws IOException {
+        return XorFilter.of(load(id, false, SerializedForm.KeyKind.OBJECT), funnel);
+    }
+
+    /**
+     * Maps the filter of {@code id} into memory as {@link XorFilter#map(Path, Funnel)} does.
+     *
+     * @throws IllegalArgumentException if there is no filter of {@code id}
+     */
+    public <T> XorFilter<T> map(String id, Funnel<? super T> funnel) throws IOException {
+        return XorFilter.of(load(id, true, SerializedForm.KeyKind.OBJECT), funnel);
+    }
+
+    public LongXorFilter readLong(String id) throws IOException {
+        return LongXorFilter.of(load(id, false, SerializedForm.KeyKind.LONG));
+    }
+
+    public LongXorFilter mapLong(String id) throws IOException {
+        return LongXorFilter.of(load(id, true, SerializedForm.KeyKind.LONG));
+    }
+
+    public BytesXorFilter readBytes(String id) throws IOException {
+        return BytesXorFilter.of(load(id, false, SerializedForm.KeyKind.BYTES));
+    }
+
+    public BytesXorFilter mapBytes(String id) throws IOException {
+        return BytesXorFilter.of(load(id, true, SerializedForm.KeyKind.BYTES));
+    }
+
+    /**
+     * @throws IOException if the filter is corrupted, or is not of {@code keyKind}
+     */
+    private synchronized SerializedForm load(String id, boolean map, SerializedForm.KeyKind keyKind) throws IOException {
+        checkOpen();
+        Entry e = entries.get(id);
+        if (e == null) {
+            throw new IllegalArgumentException("No filter of id: " + id);
+        }
+
+        channel.position(e.offset);
+        SerializedForm form = map ? SerializedForm.map(channel, keyKind) : SerializedForm.readFrom(channel, keyKind);
+        if (channel.position() != e.offset + e.length || form.strategy != e.strategy || form.seed != e.seed) {
+            throw new IOException(String.format("Corrupted filter container: the filter does not match %s", e));
+        }
+        return form;
+    }
+
+    /**
+     * Appends {@code filter} with the id, which is written to the index by {@link #flush()} or {@link #close()}.
+     *
+     * @throws IllegalArgumentException if the container already has a filter of {@code id}
+     */
+    public void append(String id, XorFilter<?> filter) throws IOException {
+        append(id, filter.serializedForm());
+    }
+
+    public void append(String id, LongXorFilter filter) throws IOException {
+        append(id, filter.serializedForm());
+    }
+
+    public void append(String id, BytesXorFilter filter) throws IOException {
+        append(id, filter.serializedForm());
+    }
+
+    private synchronized void append(String id, SerializedForm form) throws IOException {
+        checkOpen();
+        if (!writable) {
+            throw new IllegalStateException("The container has been opened read-only");
+        }
+        if (entries.containsKey(Objects.requireNonNull(id))) {
+            throw new IllegalArgumentException("Duplicate id: " + id);
+        }
+        if (id.getBytes(StandardCharsets.UTF_8).length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Too long id: " + id);
+        }
+
+        long offset = end;
+        channel.position(offset);
+        form.writeTo(channel);
+        long length = channel.position() - offset;
+
+        entries.put(id, new Entry(id, offset, length, form.strategy, form.seed));
+        end = align(offset + length);
+        dirty = true;
+    }
+
+    /**
+     * Writes the index of the appended filters, and points the header to it. The previous index is left in the file
+     * as garbage.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (dirty) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Writes a new container of the filters of this one, including those not flushed yet, with no garbage between
+     * them. {@code target} must not exist; it is deleted if the copy fails.
+     * Replacing the file of this container by {@code target}, e.g. by
+     * {@link Files#move(Path, Path, java.nio.file.CopyOption...)}, is up to the caller, who must then open it again.
+     */
+    public synchronized void compactTo(Path target) throws IOException {
+        checkOpen();
+        FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        try (XorFilterContainer compacted = new XorFilterContainer(out, true)) {
+            for (Entry e : entries.values()) {
+                compacted.copy(channel, e);
+            }
+            compacted.writeIndex();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private void copy(FileChannel source, Entry e) throws IOException {
+        long offset = end;
+        channel.position(offset);
+        for (long copied = 0; copied < e.length; ) {
+            long n = source.transferTo(e.offset + copied, e.length - copied, channel);
+            if (n <= 0) {
+                throw new IOException(String.format("Truncated filter container: %s", e));
+            }
+            copied += n;
+        }
+
+        entries.put(e.id, new Entry(e.id, offset, e.length, e.strategy, e.seed));
+        end = align(offset + e.length);
+    }
+
+    private void writeIndex() throws IOException {
+        int length = Integer.BYTES;
+        for (Entry e : entries.values()) {
+            length += Short.BYTES + e.id.getBytes(StandardCharsets.UTF_8).length + Long.BYTES + Long.BYTES + 1 + Integer.BYTES;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(length).order(BYTE_ORDER);
+        for (Entry e : entries.values()) {
+            byte[] id = e.id.getBytes(StandardCharsets.UTF_8);
+            index.putShort((short) id.length)
+                    .put(id)
+                    .putLong(e.offset)
+                    .putLong(e.length)
+                    .put((byte) e.strategy.ordinal())
+                    .putInt(e.seed);
+        }
+        putCrc(index, length - Integer.BYTES);
+        long indexOffset = end;
+        writeAt(index, indexOffset);
+        channel.force(false);
+
+        // The header is replaced only after the index has reached the disk.
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        header.put(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) 1)
+                .putShort((short) 0)
+                .putLong(indexOffset)
+                .putLong(length)
+                .putInt(entries.size());
+        putCrc(header, HEADER_CHECKSUM_OFFSET);
+        writeAt(header, 0);
+        channel.force(false);
+
+        end = align(indexOffset + length);
+        dirty = false;
+    }
+
+    private static void putCrc(ByteBuffer buffer, int length) {
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, length);
+        buffer.putInt(length, (int) checksum.getValue());
+    }
+
+    private void writeAt(ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void checkOpen() {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("The container has been closed");
+        }
+    }
+
+    /**
+     * Flushes the appended filters, and closes the file. Calling it more than once has no effect.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (dirty) {
+                writeIndex();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "XorFilterContainer{" +
+                "filters=" + entries.size() +
+                ", end=" + end +
+                '}';
+    }
+}
@@ -0,0 +1,247 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable map from the keys to {@code bits}-bit values, built in the same way as {@link XorFilter}
+ * (a Bloomier filter, or a static function).
+ *
+ * <p>
+ * The three slots of a key hold values whose xor is the value of the key instead of its fingerprint, so the map takes
+ * about {@code 1.23 * bits} bits per key and does not store the keys. {@link #get(Object)} returns an arbitrary value
+ * for a key that is not in the map.
+ * </p>
+ */
+public class XorStaticMap<T> implements ToIntFunction<T> {
+    private static final int MAX_ATTEMPTS = 8;
+
+    public static <T> XorStaticMap<T> build(Funnel<? super T> funnel, Map<T, Integer> values, int bits) {
+        return build(funnel, values, bits, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * @param bits number of the bits of the values, in the range of 1 to 32; the values must be less than
+     *             {@code 2^bits} as unsigned integers
+     */
+    public static <T> XorStaticMap<T> build(Funnel<? super T> funnel, Map<T, Integer> values, int bits, int rngSeed) {
+        if (bits < 1 || bits > Integer.SIZE) {
+            throw new IllegalArgumentException("bits must be in the range of 1 to 32: " + bits);
+        }
+        for (Map.Entry<T, Integer> e : values.entrySet()) {
+            if (bits < Integer.SIZE && e.getValue() >>> bits != 0) {
+                throw new IllegalArgumentException(String.format(
+                        "The value of %s does not fit in %d bits: %d", e.getKey(), bits, e.getValue()));
+            }
+        }
+
+        SlotLayout layout = SlotLayout.Xor.forElements(values.size());
+        SplittableRandom r = new SplittableRandom(rngSeed);
+
+        T[] collision = null;
+        for (int attempt = 1; ; attempt++) {
+            Mapping mapping = XorFilter.buildMapping(
+                    values.size(),
+                    (seed, hashedElements) -> hashedElements.hashAll(
+                            ElementHashing.MURMUR128.newElementHasher(seed, funnel), values.keySet()),
+                    layout,
+                    r.nextInt(),
+                    false);
+
+            ToLongFunction<T> elementHasher = ElementHashing.MURMUR128.newElementHasher(mapping.seed, funnel);
+            ToLongFunction<T> hasher = key -> MurmurHashFinalizer.remix(elementHasher.applyAsLong(key), mapping.remix);
+            if (collision != null && hasher.applyAsLong(collision[0]) == hasher.applyAsLong(collision[1])) {
+                // Colliding again with another seed, the keys are most likely funneled into the same bytes.
+                throw new IllegalArgumentException(String.format(
+                        "The keys %s and %s of different values have the same hash with any seed", collision[0], collision[1]));
+            }
+
+            HashedValues hashedValues = new HashedValues(values.size());
+            T collided = null;
+            for (Map.Entry<T, Integer> e : values.entrySet()) {
+                if (!hashedValues.put(hasher.applyAsLong(e.getKey()), e.getValue())) {
+                    collided = e.getKey();
+                    break;
+                }
+            }
+
+            if (collided == null) {
+                KBitValueArray b = assign(KBitValueArray.newArray(layout, bits), mapping.stack, hashedValues);
+                return new XorStaticMap<>(bits, mapping.seed, mapping.remix, funnel, b);
+            }
+
+            // Two keys of different values have the same hash, which the filter ignores but the map cannot.
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IllegalArgumentException(String.format(
+                        "Keys of different values have the same hash with %d seeds", attempt));
+            }
+            collision = collidingPair(values, hasher, collided);
+        }
+    }
+
+    /**
+     * Returns {@code collided} and another key of a different value and the same hash.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] collidingPair(Map<T, Integer> values, ToLongFunction<T> hasher, T collided) {
+        long x = hasher.applyAsLong(collided);
+        int value = values.get(collided);
+        for (Map.Entry<T, Integer> e : values.entrySet()) {
+            if (e.getValue() != value && hasher.applyAsLong(e.getKey()) == x) {
+                return (T[]) new Object[]{e.getKey(), collided};
+            }
+        }
+        throw new AssertionError("No key collides with " + collided);
+    }
+
+    /**
+     * Sets the values in the peeling order so that the xor of the three slots of each hashed element equals its value.
+     */
+    private static KBitValueArray assign(KBitValueArray b, PairStack s, HashedValues hashedValues) {
+        SlotLayout layout = b.layout;
+        while (s.isNotEmpty()) {
+            int index = s.peekIndex();
+            long x = s.popHashedElements();
+            long x2 = layout.mix(x);
+
+            b.set(index, 0);
+            b.set(index, hashedValues.get(x)
+                    ^ b.get(layout.h0(x, x2))
+                    ^ b.get(layout.h1(x, x2))
+                    ^ b.get(layout.h2(x, x2)));
+        }
+        return b;
+    }
+
+    // ---
+
+    private final int bits;
+    private final int seed;
+    private final int remix;
+    private final ToLongFunction<T> elementHasher;
+    private final Funnel<? super T> funnel;
+    private final KBitValueArray b;
+
+    private XorStaticMap(int bits, int seed, int remix, Funnel<? super T> funnel, KBitValueArray b) {
+        this.bits = bits;
+        this.seed = seed;
+        this.remix = remix;
+        this.elementHasher = ElementHashing.MURMUR128.newElementHasher(seed, funnel);
+        this.funnel = funnel;
+        this.b = b;
+    }
+
+    /**
+     * Returns the value of {@code key}, or an arbitrary value less than {@code 2^bits} if the map does not contain it.
+     */
+    public int get(T key) {
+        SlotLayout layout = b.layout;
+        long x = MurmurHashFinalizer.remix(elementHasher.applyAsLong(key), remix);
+        long x2 = layout.mix(x);
+        return (int) (b.get(layout.h0(x, x2)) ^ b.get(layout.h1(x, x2)) ^ b.get(layout.h2(x, x2)));
+    }
+
+    @Override
+    public int applyAsInt(T key) {
+        return get(key);
+    }
+
+    public int bitsPerValue() {
+        return bits;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        XorStaticMap<?> that = (XorStaticMap<?>) o;
+        return bits == that.bits &&
+                seed == that.seed &&
+                remix == that.remix &&
+                Objects.equals(funnel, that.funnel) &&
+                Objects.equals(b, that.b);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bits, seed, remix, funnel, b);
+    }
+
+    @Override
+    public String toString() {
+        return "XorStaticMap{" +
+                "bits=" + bits +
+                ", seed=" + seed +
+                ", remix=" + remix +
+                ", funnel=" + funnel +
+                ", b=" + b +
+                '}';
+    }
+
+    /**
+     * Open addressing table from the hashed elements to the values, used only while building.
+     */
+    static final class HashedValues {
+        private final long[] keys;
+        private final int[] values;
+        private final int shift;
+        private boolean hasZero;
+        private int zeroValue;
+
+        HashedValues(int maxSize) {
+            // At most half full, so that a probe always reaches an empty slot.
+            int bits = Math.max(1, 33 - Integer.numberOfLeadingZeros(Math.max(1, maxSize) - 1));
+            this.keys = new long[1 << bits];
+            this.values = new int[1 << bits];
+            this.shift = Long.SIZE - bits;
+        }
+
+        /**
+         * Puts the value of {@code x}, and returns {@code false} if {@code x} already has a different value.
+         */
+        boolean put(long x, int value) {
+            if (x == 0) {
+                if (hasZero) {
+                    return zeroValue == value;
+                }
+                hasZero = true;
+                zeroValue = value;
+                return true;
+            }
+
+            int mask = keys.length - 1;
+            for (int i = (int) (x >>> shift); ; i = (i + 1) & mask) {
+                if (keys[i] == x) {
+                    return values[i] == value;
+                }
+                if (keys[i] == 0) {
+                    keys[i] = x;
+                    values[i] = value;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns the value of {@code x} as an unsigned integer; {@code x} must have been put.
+         */
+        long get(long x) {
+            if (x == 0) {
+                return zeroValue & 0xffffffffL;
+            }
+
+            int mask = keys.length - 1;
+            int i = (int) (x >>> shift);
+            while (keys[i] != x) {
+                i = (i + 1) & mask;
+            }
+            return values[i] & 0xffffffffL;
+        }
+    }
+}
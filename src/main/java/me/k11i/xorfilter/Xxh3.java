@@ -0,0 +1,241 @@
+package me.k11i.xorfilter;
+
+import static me.k11i.xorfilter.HashPrimitives.getInt;
+import static me.k11i.xorfilter.HashPrimitives.getLong;
+import static me.k11i.xorfilter.HashPrimitives.multiplyHigh;
+
+/**
+ * XXH3-64 of xxHash 0.8 (https://github.com/Cyan4973/xxHash) with a seed, which allocates nothing except for inputs
+ * longer than 240 bytes with a non-zero seed.
+ */
+final class Xxh3 {
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final int STRIPE_LENGTH = 64;
+    private static final int SECRET_SIZE = 192;
+    private static final int STRIPES_PER_BLOCK = (SECRET_SIZE - STRIPE_LENGTH) / 8;
+    private static final int BLOCK_LENGTH = STRIPE_LENGTH * STRIPES_PER_BLOCK;
+
+    private static final byte[] SECRET = {
+            (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+            (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+            (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+            (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+            (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+            (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+            (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+            (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+            (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+            (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+            (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+            (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+            (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+            (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+            (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+            (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+            (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+            (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+            (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+            (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+            (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+            (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+            (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+            (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e,
+    };
+
+    private static final long SECRET_8 = getLong(SECRET, 8);
+    private static final long SECRET_16 = getLong(SECRET, 16);
+
+    private Xxh3() {
+    }
+
+    /**
+     * Hashes the 8 little-endian bytes of {@code x}.
+     */
+    static long hash(long seed, long x) {
+        seed ^= Long.reverseBytes(seed) >>> 32 << 32;
+        long bitflip = (SECRET_8 ^ SECRET_16) - seed;
+        return rrmxmx(((x << 32) | (x >>> 32)) ^ bitflip, 8);
+    }
+
+    static long hash(long seed, byte[] b, int off, int len) {
+        if (len <= 16) {
+            if (len > 8) {
+                return hash9To16(seed, b, off, len);
+            }
+            if (len >= 4) {
+                return hash4To8(seed, b, off, len);
+            }
+            if (len > 0) {
+                return hash1To3(seed, b, off, len);
+            }
+            return xxh64Avalanche(seed ^ getLong(SECRET, 56) ^ getLong(SECRET, 64));
+        }
+        if (len <= 128) {
+            return hash17To128(seed, b, off, len);
+        }
+        if (len <= 240) {
+            return hash129To240(seed, b, off, len);
+        }
+        return hashLong(b, off, len, seed == 0 ? SECRET : customSecret(seed));
+    }
+
+    private static long hash1To3(long seed, byte[] b, int off, int len) {
+        long c1 = b[off] & 0xffL;
+        long c2 = b[off + (len >>> 1)] & 0xffL;
+        long c3 = b[off + len - 1] & 0xffL;
+        long combined = (c1 << 16) | (c2 << 24) | c3 | ((long) len << 8);
+        long bitflip = ((getInt(SECRET, 0) ^ getInt(SECRET, 4)) & 0xffffffffL) + seed;
+        return xxh64Avalanche(combined ^ bitflip);
+    }
+
+    private static long hash4To8(long seed, byte[] b, int off, int len) {
+        seed ^= Long.reverseBytes(seed) >>> 32 << 32;
+        long input1 = getInt(b, off);
+        long input2 = getInt(b, off + len - 4);
+        long bitflip = (SECRET_8 ^ SECRET_16) - seed;
+        return rrmxmx((input2 + (input1 << 32)) ^ bitflip, len);
+    }
+
+    private static long hash9To16(long seed, byte[] b, int off, int len) {
+        long bitflip1 = (getLong(SECRET, 24) ^ getLong(SECRET, 32)) + seed;
+        long bitflip2 = (getLong(SECRET, 40) ^ getLong(SECRET, 48)) - seed;
+        long inputLo = getLong(b, off) ^ bitflip1;
+        long inputHi = getLong(b, off + len - 8) ^ bitflip2;
+        long acc = len + Long.reverseBytes(inputLo) + inputHi + multiplyFold(inputLo, inputHi);
+        return avalanche(acc);
+    }
+
+    private static long hash17To128(long seed, byte[] b, int off, int len) {
+        long acc = len * PRIME64_1;
+        if (len > 32) {
+            if (len > 64) {
+                if (len > 96) {
+                    acc += mix16(b, off + 48, 96, seed);
+                    acc += mix16(b, off + len - 64, 112, seed);
+                }
+                acc += mix16(b, off + 32, 64, seed);
+                acc += mix16(b, off + len - 48, 80, seed);
+            }
+            acc += mix16(b, off + 16, 32, seed);
+            acc += mix16(b, off + len - 32, 48, seed);
+        }
+        acc += mix16(b, off, 0, seed);
+        acc += mix16(b, off + len - 16, 16, seed);
+        return avalanche(acc);
+    }
+
+    private static long hash129To240(long seed, byte[] b, int off, int len) {
+        long acc = len * PRIME64_1;
+        int rounds = len / 16;
+        for (int i = 0; i < 8; i++) {
+            acc += mix16(b, off + 16 * i, 16 * i, seed);
+        }
+        acc = avalanche(acc);
+        for (int i = 8; i < rounds; i++) {
+            acc += mix16(b, off + 16 * i, 16 * (i - 8) + 3, seed);
+        }
+        acc += mix16(b, off + len - 16, 136 - 17, seed);
+        return avalanche(acc);
+    }
+
+    private static byte[] customSecret(long seed) {
+        byte[] secret = new byte[SECRET_SIZE];
+        for (int i = 0; i < SECRET_SIZE; i += 16) {
+            putLong(secret, i, getLong(SECRET, i) + seed);
+            putLong(secret, i + 8, getLong(SECRET, i + 8) - seed);
+        }
+        return secret;
+    }
+
+    private static void putLong(byte[] b, int off, long x) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            b[off + i] = (byte) (x >>> (i * 8));
+        }
+    }
+
+    private static long hashLong(byte[] b, int off, int len, byte[] secret) {
+        long[] acc = {PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1};
+
+        int blocks = (len - 1) / BLOCK_LENGTH;
+        for (int n = 0; n < blocks; n++) {
+            accumulate(acc, b, off + n * BLOCK_LENGTH, secret, STRIPES_PER_BLOCK);
+            scramble(acc, secret, SECRET_SIZE - STRIPE_LENGTH);
+        }
+
+        int stripes = ((len - 1) - BLOCK_LENGTH * blocks) / STRIPE_LENGTH;
+        accumulate(acc, b, off + blocks * BLOCK_LENGTH, secret, stripes);
+        accumulate512(acc, b, off + len - STRIPE_LENGTH, secret, SECRET_SIZE - STRIPE_LENGTH - 7);
+
+        long result = len * PRIME64_1;
+        for (int i = 0; i < 4; i++) {
+            result += multiplyFold(acc[2 * i] ^ getLong(secret, 11 + 16 * i), acc[2 * i + 1] ^ getLong(secret, 11 + 16 * i + 8));
+        }
+        return avalanche(result);
+    }
+
+    private static void accumulate(long[] acc, byte[] b, int off, byte[] secret, int stripes) {
+        for (int n = 0; n < stripes; n++) {
+            accumulate512(acc, b, off + n * STRIPE_LENGTH, secret, n * 8);
+        }
+    }
+
+    private static void accumulate512(long[] acc, byte[] b, int off, byte[] secret, int secretOff) {
+        for (int i = 0; i < 8; i++) {
+            long data = getLong(b, off + 8 * i);
+            long key = data ^ getLong(secret, secretOff + 8 * i);
+            acc[i ^ 1] += data;
+            acc[i] += (key & 0xffffffffL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(long[] acc, byte[] secret, int secretOff) {
+        for (int i = 0; i < 8; i++) {
+            long a = acc[i];
+            a ^= a >>> 47;
+            a ^= getLong(secret, secretOff + 8 * i);
+            acc[i] = a * PRIME32_1;
+        }
+    }
+
+    private static long mix16(byte[] b, int off, int secretOff, long seed) {
+        return multiplyFold(
+                getLong(b, off) ^ (getLong(SECRET, secretOff) + seed),
+                getLong(b, off + 8) ^ (getLong(SECRET, secretOff + 8) - seed));
+    }
+
+    private static long multiplyFold(long a, long b) {
+        return (a * b) ^ multiplyHigh(a, b);
+    }
+
+    private static long rrmxmx(long h, int len) {
+        h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+        h *= PRIME_MX2;
+        h ^= (h >>> 35) + len;
+        h *= PRIME_MX2;
+        return h ^ (h >>> 28);
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,51 @@
+package me.k11i.xorfilter;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link LongBatchHasher} that applies {@link MurmurHashFinalizer} to as many keys at once as the preferred vector
+ * holds. Loaded only on Java 16 or later, from {@code META-INF/versions/16} of the multi-release JAR.
+ */
+class VectorLongBatchHasher extends LongBatchHasher {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    void hashAll(ElementHashing hashing, long seed, int remix, long[] keys, int off, int n, long[] xs) {
+        if (hashing != ElementHashing.MURMUR128 && hashing != ElementHashing.IDENTITY) {
+            super.hashAll(hashing, seed, remix, keys, off, n, xs);
+            return;
+        }
+
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            LongVector x = LongVector.fromArray(SPECIES, keys, off + i);
+            if (hashing == ElementHashing.MURMUR128) {
+                x = hash(seed, x);
+            }
+            for (int r = 1; r <= remix; r++) {
+                x = hash(r, x);
+            }
+            x.intoArray(xs, i);
+        }
+        for (; i < n; i++) {
+            xs[i] = MurmurHashFinalizer.remix(hashing.hash(seed, keys[off + i]), remix);
+        }
+    }
+
+    /**
+     * @see MurmurHashFinalizer#hash(long, long)
+     */
+    private static LongVector hash(long seed, LongVector x) {
+        LongVector h = x.add(seed);
+        h = h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 33)).mul(0xff51afd7ed558ccdL);
+        h = h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 33)).mul(0xc4ceb9fe1a85ec53L);
+        return h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 33));
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+}
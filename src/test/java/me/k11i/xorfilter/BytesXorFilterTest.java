@@ -0,0 +1,123 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class BytesXorFilterTest {
+    static Stream<XorFilter.Strategy> strategies() {
+        // The keys share their first 8 bytes, which is all that the identity takes.
+        return Stream.of(XorFilter.Strategy.values())
+                .filter(strategy -> strategy.hashing != ElementHashing.IDENTITY);
+    }
+
+    private static String key(int i) {
+        return "key-" + i + (i % 3 == 0 ? "-\u00e9\u3042" : "");
+    }
+
+    private static List<String> keys(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(BytesXorFilterTest::key)
+                .collect(Collectors.toList());
+    }
+
+    private static List<byte[]> utf8(List<String> keys) {
+        return keys.stream()
+                .map(s -> s.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldReturnTrue(XorFilter.Strategy strategy) {
+        List<String> keys = keys(0, 10000);
+        BytesXorFilter filter = BytesXorFilter.build(utf8(keys), strategy);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        for (String key : keys) {
+            byte[] b = key.getBytes(StandardCharsets.UTF_8);
+            assertTrue(filter.mightContain(b), key);
+            assertTrue(filter.mightContain(new StringBuilder(key)), key);
+
+            // As a slice of larger buffers.
+            byte[] padded = new byte[b.length + 5];
+            System.arraycopy(b, 0, padded, 3, b.length);
+            assertTrue(filter.mightContain(padded, 3, b.length), key);
+            assertTrue(filter.mightContain(ByteBuffer.wrap(padded, 1, padded.length - 1).slice(), 2, b.length), key);
+            assertTrue(filter.mightContain(ByteBuffer.wrap(padded).asReadOnlyBuffer(), 3, b.length), key);
+
+            direct.clear();
+            direct.put((byte) 0).put(b);
+            assertTrue(filter.mightContain(direct, 1, b.length), key);
+            assertEquals(b.length + 1, direct.position());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldNotReturnTrue(XorFilter.Strategy strategy) {
+        BytesXorFilter filter = BytesXorFilter.buildFromStrings(keys(0, 10000), strategy);
+
+        long falsePositiveCount = keys(10000, 20000).stream()
+                .filter(filter::mightContain)
+                .count();
+
+        double falsePositiveRate = falsePositiveCount / 10000.0;
+        System.out.printf("False positive rate: %f%n", falsePositiveRate);
+
+        assertTrue(falsePositiveRate < Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBuildInputsShouldBeEquivalent(XorFilter.Strategy strategy) {
+        List<String> keys = keys(0, 10000);
+        List<ByteBuffer> buffers = utf8(keys).stream()
+                .map(b -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(b.length + 2);
+                    buffer.put(b).put((byte) 0).put((byte) 0);
+                    buffer.position(0).limit(b.length);
+                    return buffer;
+                })
+                .collect(Collectors.toList());
+
+        BytesXorFilter filter = BytesXorFilter.build(utf8(keys), strategy, 12345);
+        assertEquals(filter, BytesXorFilter.buildFromStrings(keys, strategy, 12345));
+        assertEquals(filter, BytesXorFilter.buildFromByteBuffers(buffers, strategy, 12345));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testSameHashesAsByteArrayFunnel(XorFilter.Strategy strategy) throws IOException {
+        List<byte[]> keys = utf8(keys(0, 10000));
+        XorFilter<byte[]> xorFilter = XorFilter.build(Funnels.byteArrayFunnel(), keys, strategy, 12345);
+        BytesXorFilter filter = BytesXorFilter.build(keys, strategy, 12345);
+
+        for (byte[] key : utf8(keys(0, 20000))) {
+            assertEquals(xorFilter.mightContain(key), filter.mightContain(key));
+        }
+
+        // But the serialized form records the class, so each reads only its own filters.
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            xorFilter.writeTo(out);
+            assertThrows(IOException.class, () -> BytesXorFilter.readFrom(new ByteArrayInputStream(out.toByteArray())));
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            assertEquals(filter, BytesXorFilter.readFrom(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class DynamicXorFilterTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+
+    static Stream<XorFilter.Strategy> strategies() {
+        return Stream.of(XorFilter.Strategy.values());
+    }
+
+    private static List<String> elements(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContain(XorFilter.Strategy strategy) throws InterruptedException {
+        try (DynamicXorFilter<CharSequence> filter = DynamicXorFilter.create(FUNNEL, strategy, 1000, 8)) {
+            List<String> elements = elements(0, 20000);
+            for (String element : elements) {
+                filter.put(element);
+                assertTrue(filter.mightContain(element), element);
+            }
+            filter.putAll(elements.subList(0, 100));
+
+            filter.awaitCompaction();
+            // The elements inserted again are in the buffer as well as in the levels.
+            assertEquals(20100, filter.size());
+            assertTrue(filter.numLevels() <= 5, String.format("numLevels: %d", filter.numLevels()));
+            for (String element : elements) {
+                assertTrue(filter.mightContain(element), element);
+            }
+
+            long falsePositiveCount = elements(20000, 40000).stream()
+                    .filter(filter::mightContain)
+                    .count();
+            double falsePositiveRate = falsePositiveCount / 20000.0;
+            assertTrue(falsePositiveRate < Math.max(0.01, (filter.numLevels() + 1) * 2.0 / (1L << strategy.bitsPerValue)));
+        }
+    }
+
+    @Test
+    void testMaxLevels() throws InterruptedException {
+        for (int maxLevels : new int[]{1, 2, 3}) {
+            try (DynamicXorFilter<CharSequence> filter = DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR16, 1000, maxLevels)) {
+                List<String> elements = elements(0, 50000);
+                filter.putAll(elements);
+                filter.awaitCompaction();
+
+                // The levels of all sizes are still merged.
+                assertTrue(filter.numLevels() <= maxLevels, String.format("numLevels: %d", filter.numLevels()));
+                assertEquals(50000, filter.size());
+                assertTrue(elements.stream().allMatch(filter::mightContain));
+            }
+        }
+    }
+
+    @Test
+    void testFilesOfLevels() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("xor-filter");
+        try {
+            DynamicXorFilter<CharSequence> filter = DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR8, 1000, 4, dir);
+            List<String> elements = elements(0, 30000);
+            filter.putAll(elements);
+            filter.awaitCompaction();
+
+            // One file per built level, and the merged ones have been deleted.
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(filter.numLevels(), files.count());
+            }
+            assertTrue(elements.stream().allMatch(filter::mightContain));
+
+            filter.close();
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(0, files.count());
+            }
+            assertTrue(elements.stream().allMatch(filter::mightContain));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testConcurrentPutAndMightContain() throws InterruptedException {
+        List<String> elements = elements(0, 200000);
+        AtomicInteger inserted = new AtomicInteger();
+        AtomicInteger missing = new AtomicInteger();
+
+        try (DynamicXorFilter<CharSequence> filter = DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR8, 1000, 4)) {
+            Thread reader = new Thread(() -> {
+                SplittableRandom r = new SplittableRandom(0);
+                while (inserted.get() < elements.size()) {
+                    int n = inserted.get();
+                    if (n > 0 && !filter.mightContain(elements.get(r.nextInt(n)))) {
+                        missing.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+
+            for (String element : elements) {
+                filter.put(element);
+                inserted.incrementAndGet();
+            }
+            reader.join();
+            filter.awaitCompaction();
+
+            assertEquals(0, missing.get());
+            assertTrue(elements.stream().allMatch(filter::mightContain));
+        }
+    }
+
+    @Test
+    void testClose() {
+        DynamicXorFilter<CharSequence> filter = DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR8, 10, 4);
+        filter.putAll(elements(0, 15));
+        filter.close();
+        filter.close();
+
+        assertTrue(filter.mightContain("0"));
+        assertThrows(IllegalStateException.class, () -> filter.put("15"));
+        assertThrows(IllegalStateException.class, filter::awaitCompaction);
+
+        assertThrows(IllegalArgumentException.class, () -> DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR8, 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> DynamicXorFilter.create(FUNNEL, XorFilter.Strategy.MURMUR128_XOR8, 100, 0));
+    }
+
+    @Test
+    void testLongHashSet() {
+        DynamicXorFilter.LongHashSet set = new DynamicXorFilter.LongHashSet(4);
+        for (long x : new long[]{0, -1, 1L << 63, 5}) {
+            assertFalse(set.contains(x));
+            assertTrue(set.add(x));
+            assertFalse(set.add(x));
+            assertTrue(set.contains(x));
+        }
+        assertEquals(4, set.size());
+        assertArrayEquals(new long[]{1L << 63, -1, 0, 5}, set.toSortedArray());
+    }
+}
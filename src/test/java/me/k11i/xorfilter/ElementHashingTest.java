@@ -0,0 +1,147 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class ElementHashingTest {
+    static Stream<ElementHashing> hashings() {
+        return Stream.of(ElementHashing.values());
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) (i * 7 + 1);
+        }
+        return b;
+    }
+
+    @Test
+    void testWyHashTestVectors() {
+        String[] messages = {
+                "",
+                "a",
+                "abc",
+                "message digest",
+                "abcdefghijklmnopqrstuvwxyz",
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789",
+                "12345678901234567890123456789012345678901234567890123456789012345678901234567890",
+        };
+        long[] expected = {
+                0x93228a4de0eec5a2L,
+                0xc5bac3db178713c4L,
+                0xa97f2f7b1d9b3314L,
+                0x786d1f1df3801df4L,
+                0xdca5a8138ad37c87L,
+                0xb9e734f117cfaf70L,
+                0x6cc5eab49a92d617L,
+        };
+
+        for (int i = 0; i < messages.length; i++) {
+            byte[] b = messages[i].getBytes(StandardCharsets.US_ASCII);
+            assertEquals(expected[i], WyHash.hash(i, b, 0, b.length), messages[i]);
+        }
+    }
+
+    @Test
+    void testXxh3TestVectors() {
+        int[] lengths = {0, 3, 8, 16, 100, 240, 1000};
+        long[] expected = {
+                0x2d06800538d394c2L, 0xb029411ff43d84d2L,
+                0x5c83885a0fb5d516L, 0x4d629dedfa4a1ebfL,
+                0x96cc97a6768fd7a9L, 0xd108df704dd8b358L,
+                0x913bd4a8038027a7L, 0x125ad96bf3142cb2L,
+                0x985c0aa35f523fe6L, 0x611996587f149276L,
+                0x3c0bb96864e543a1L, 0x143fa3089bd95630L,
+                0xb8b406a98622d913L, 0xc49d9fc07a657352L,
+        };
+
+        for (int i = 0; i < lengths.length; i++) {
+            // Also at a non-zero offset.
+            byte[] b = bytes(lengths[i]);
+            byte[] shifted = new byte[b.length + 3];
+            System.arraycopy(b, 0, shifted, 3, b.length);
+
+            assertEquals(expected[i * 2], Xxh3.hash(0, b, 0, b.length), String.format("length: %d", b.length));
+            assertEquals(expected[i * 2 + 1], Xxh3.hash(42, b, 0, b.length), String.format("length: %d", b.length));
+            assertEquals(expected[i * 2 + 1], Xxh3.hash(42, shifted, 3, b.length), String.format("length: %d", b.length));
+        }
+    }
+
+    @Test
+    void testMurmur128ShouldEqualGuava() {
+        for (int length = 0; length < 100; length++) {
+            byte[] b = bytes(length + 3);
+            for (int seed : new int[]{0, 1, -1, 12345}) {
+                assertEquals(
+                        Hashing.murmur3_128(seed).hashBytes(b, 3, length).asLong(),
+                        ElementHashing.MURMUR128.hash(seed, b, 3, length),
+                        String.format("length: %d, seed: %d", length, seed));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("hashings")
+    void testHashLongShouldEqualHashBytes(ElementHashing hashing) {
+        if (hashing == ElementHashing.MURMUR128) {
+            // The finalizer of long keys is not a hash of their bytes.
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (long key : new long[]{0, 1, -1, 0x0123456789abcdefL, Long.MIN_VALUE}) {
+            buffer.putLong(0, key);
+            assertEquals(hashing.hash(12345, buffer.array(), 0, Long.BYTES), hashing.hash(12345, key));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("hashings")
+    void testElementHasherShouldHashFunneledBytes(ElementHashing hashing) {
+        Funnel<CharSequence> funnel = Funnels.stringFunnel(StandardCharsets.UTF_8);
+        ToLongFunction<CharSequence> elementHasher = hashing.newElementHasher(12345, funnel);
+
+        // ASCII, 2-, 3- and 4-byte sequences and an unpaired surrogate, longer than the initial sink.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("a\u00e9\u3042\ud83d\ude00\ud800");
+        }
+        for (String s : new String[]{"", "abc", "\u00e9\u3042\ud83d\ude00", sb.toString()}) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            long expected = hashing == ElementHashing.MURMUR128
+                    ? Hashing.murmur3_128(12345).hashBytes(b).asLong()
+                    : hashing.hash(12345, b, 0, b.length);
+            assertEquals(expected, elementHasher.applyAsLong(s), s);
+        }
+    }
+
+    @Test
+    void testRemixShouldBeDerivedFromAnyRound() {
+        for (long x : new long[]{0, 1, -1, 0x0123456789abcdefL, Long.MIN_VALUE}) {
+            assertEquals(x, MurmurHashFinalizer.unhash(-12345, MurmurHashFinalizer.hash(-12345, x)));
+            assertEquals(x, MurmurHashFinalizer.remix(x, 0));
+            assertEquals(MurmurHashFinalizer.hash(255, x), MurmurHashFinalizer.remix(x, 255));
+
+            for (int from : new int[]{0, 1, 7}) {
+                long remixed = MurmurHashFinalizer.remix(x, from);
+                for (int to : new int[]{0, 1, 8, 255}) {
+                    assertEquals(MurmurHashFinalizer.remix(x, to), MurmurHashFinalizer.remix(remixed, from, to));
+                }
+            }
+        }
+    }
+}
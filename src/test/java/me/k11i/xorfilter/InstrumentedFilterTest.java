@@ -0,0 +1,88 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class InstrumentedFilterTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+
+    @Test
+    void testCounters() {
+        List<String> elements = IntStream.range(0, 10000)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+        XorFilter<String> filter = XorFilter.build(FUNNEL, elements, XorFilter.Strategy.MURMUR128_XOR8);
+        InstrumentedFilter<String> instrumented = InstrumentedFilter.of(filter, 1);
+        QueryMetrics metrics = instrumented.metrics();
+
+        assertTrue(Double.isNaN(metrics.positiveRate()));
+        assertEquals(0, metrics.latencyQuantileNanos(0.5));
+
+        IntStream.range(0, 20000).parallel().forEach(i -> {
+            String element = String.valueOf(i);
+            assertEquals(filter.mightContain(element), instrumented.test(element));
+        });
+
+        long falsePositives = IntStream.range(10000, 20000).mapToObj(String::valueOf).filter(filter).count();
+        assertEquals(20000, metrics.queryCount());
+        assertEquals(10000 + falsePositives, metrics.positiveCount());
+        assertEquals((10000 + falsePositives) / 20000.0, metrics.positiveRate());
+
+        // Every query has been timed.
+        long[] counts = metrics.latencyCounts();
+        assertEquals(20000, IntStream.range(0, counts.length).mapToLong(i -> counts[i]).sum());
+        long p50 = metrics.latencyQuantileNanos(0.5);
+        assertTrue(p50 > 0 && p50 <= metrics.latencyQuantileNanos(0.99));
+        assertEquals(Long.bitCount(p50), 1);
+
+        metrics.reset();
+        assertEquals(0, metrics.queryCount());
+        assertEquals(0, metrics.positiveCount());
+        assertEquals(0, metrics.latencyQuantileNanos(1));
+        assertSame(filter, instrumented.filter());
+    }
+
+    @Test
+    void testSampling() {
+        long[] keys = new SplittableRandom(0).longs(1000).toArray();
+        LongXorFilter filter = LongXorFilter.build(keys, XorFilter.Strategy.MURMUR128_XOR16);
+
+        InstrumentedLongFilter unsampled = InstrumentedLongFilter.of(filter, 0);
+        InstrumentedLongFilter sampled = InstrumentedLongFilter.of(filter);
+        for (int i = 0; i < 100; i++) {
+            for (long key : keys) {
+                assertTrue(unsampled.mightContain(key));
+                assertTrue(sampled.test(key));
+            }
+        }
+
+        assertEquals(100000, unsampled.metrics().queryCount());
+        assertEquals(1.0, unsampled.metrics().positiveRate());
+        assertEquals(0, unsampled.metrics().latencyQuantileNanos(1));
+
+        // One in 1024 on average, i.e. 98 queries or so.
+        long timed = 0;
+        for (long c : sampled.metrics().latencyCounts()) {
+            timed += c;
+        }
+        assertTrue(timed > 40 && timed < 200, String.valueOf(timed));
+    }
+
+    @Test
+    void testInvalidSamplingInterval() {
+        LongXorFilter filter = LongXorFilter.build(new long[]{1, 2, 3}, XorFilter.Strategy.MURMUR128_XOR8);
+        assertThrows(IllegalArgumentException.class, () -> InstrumentedLongFilter.of(filter, 3));
+        assertThrows(IllegalArgumentException.class, () -> InstrumentedLongFilter.of(filter, -1));
+        assertThrows(IllegalArgumentException.class, () -> InstrumentedLongFilter.of(filter).metrics().latencyQuantileNanos(1.5));
+    }
+}
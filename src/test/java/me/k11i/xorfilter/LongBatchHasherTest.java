@@ -0,0 +1,52 @@
+package me.k11i.xorfilter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBatchHasherTest {
+    @Test
+    void testPreferred() {
+        // Set by the testJava16 task, which must not fall back to the scalar hasher silently.
+        if (Boolean.getBoolean("me.k11i.xorfilter.expectVector")) {
+            assertEquals("VectorLongBatchHasher", LongBatchHasher.PREFERRED.getClass().getSimpleName());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ElementHashing.class)
+    void testHashAll(ElementHashing hashing) {
+        long[] keys = new SplittableRandom(0).longs(100).toArray();
+        long[] expected = new long[keys.length];
+        long[] actual = new long[keys.length];
+
+        // Odd offsets and lengths leave a tail shorter than a vector.
+        for (int remix : new int[]{0, 1, 3}) {
+            for (int n : new int[]{0, 1, 7, 64, 99}) {
+                LongBatchHasher.SCALAR.hashAll(hashing, -12345, remix, keys, 1, n, expected);
+                LongBatchHasher.PREFERRED.hashAll(hashing, -12345, remix, keys, 1, n, actual);
+                assertArrayEquals(expected, actual, String.format("remix: %d, n: %d", remix, n));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = XorFilter.Strategy.class, names = {"MURMUR128_XOR8", "MURMUR128_BINARY_FUSE16", "IDENTITY_XOR8"})
+    void testMightContainAll(XorFilter.Strategy strategy) {
+        long[] keys = new SplittableRandom(1).longs(10000).toArray();
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        long[] queries = new SplittableRandom(2).longs(5000).toArray();
+        System.arraycopy(keys, 0, queries, 0, 2500);
+
+        long[] expected = new long[(queries.length + 63) / 64];
+        long[] actual = new long[expected.length];
+        filter.mightContainAll(queries, 0, queries.length, expected, LongBatchHasher.SCALAR);
+        filter.mightContainAll(queries, 0, queries.length, actual, LongBatchHasher.PREFERRED);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,288 @@
+package me.k11i.xorfilter;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongXorFilterTest {
+    static Stream<XorFilter.Strategy> strategies() {
+        return Stream.of(XorFilter.Strategy.values());
+    }
+
+    private static long[] keys(int numEntries) {
+        return new SplittableRandom(0).longs(numEntries).toArray();
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldReturnTrue(XorFilter.Strategy strategy) {
+        long[] keys = keys(10000);
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        for (int i = 0; i < keys.length; i++) {
+            assertTrue(filter.mightContain(keys[i]), String.format("[%d]: %d", i, keys[i]));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldNotReturnTrue(XorFilter.Strategy strategy) {
+        final int numEntries = 10000;
+        LongXorFilter filter = LongXorFilter.build(
+                LongStream.range(0, numEntries).toArray(),
+                strategy);
+
+        final double expectedMaxFalsePositiveRate = Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue));
+
+        long falsePositiveCount = LongStream.range(numEntries, numEntries * 2)
+                .filter(filter::mightContain)
+                .count();
+
+        double falsePositiveRate = falsePositiveCount / (double) numEntries;
+        System.out.printf("False positive rate: %f%n", falsePositiveRate);
+
+        assertTrue(falsePositiveRate < expectedMaxFalsePositiveRate);
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBitsPerValue(XorFilter.Strategy strategy) throws IOException {
+        final int numEntries = 100000;
+        LongXorFilter filter = LongXorFilter.build(LongStream.range(0, numEntries).toArray(), strategy);
+
+        // The values take the given bits per slot, and the packed ones at most one word more.
+        int capacity = strategy.newLayout(numEntries).capacity;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            long valuesSize = out.size() - SerializedForm.HEADER_SIZE - SerializedForm.TRAILER_SIZE;
+            if (strategy.layoutType == SlotLayout.Type.XOR_PLUS) {
+                // The empty slots of the third block are not stored.
+                assertTrue(valuesSize < 0.95 * capacity * strategy.bitsPerValue / 8);
+            } else {
+                assertTrue(valuesSize >= (long) capacity * strategy.bitsPerValue / 8);
+                assertTrue(valuesSize <= (long) capacity * strategy.bitsPerValue / 8 + 16);
+            }
+        }
+
+        if (strategy.bitsPerValue <= 12) {
+            final int numQueries = 1_000_000;
+            long falsePositiveCount = LongStream.range(numEntries, numEntries + numQueries)
+                    .filter(filter::mightContain)
+                    .count();
+            double ratio = falsePositiveCount / (numQueries / (double) (1 << strategy.bitsPerValue));
+            assertTrue(ratio > 0.8 && ratio < 1.2, String.format("%s: %f", strategy, ratio));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testDuplicatedKeys(XorFilter.Strategy strategy) {
+        long[] keys = LongStream.range(0, 10000).map(l -> l % 100).toArray();
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testSerialization(XorFilter.Strategy strategy) throws IOException {
+        long[] keys = keys(10000);
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        LongXorFilter deserialized;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            deserialized = LongXorFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        }
+
+        assertEquals(filter, deserialized);
+
+        for (long key : keys(20000)) {
+            assertEquals(filter.mightContain(key), deserialized.mightContain(key));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainAll(XorFilter.Strategy strategy) {
+        long[] keys = keys(10000);
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        long[] queries = keys(20000);
+        final int off = 3;
+        final int len = queries.length - 10;
+        long[] resultBitmap = new long[(len + 63) / 64];
+        filter.mightContainAll(queries, off, len, resultBitmap);
+
+        for (int i = 0; i < len; i++) {
+            boolean result = (resultBitmap[i / 64] & (1L << i)) != 0;
+            assertEquals(filter.mightContain(queries[off + i]), result, String.format("[%d]", i));
+        }
+        assertEquals(0, resultBitmap[resultBitmap.length - 1] >>> (len % 64));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testRemixedFilters(XorFilter.Strategy strategy) throws IOException {
+        long[] keys = keys(10000);
+
+        int numRemixed = 0;
+        for (int rngSeed = 0; rngSeed < 200; rngSeed++) {
+            LongXorFilter filter = LongXorFilter.build(keys, strategy, rngSeed);
+            if (filter.toString().contains("remix=0")) {
+                continue;
+            }
+            numRemixed++;
+
+            for (long key : keys) {
+                assertTrue(filter.mightContain(key));
+            }
+            assertEquals(filter, LongXorFilter.buildWithLowMemory(keys, strategy, rngSeed));
+
+            // The retries remix the hashed elements in place instead of hashing the keys again.
+            AtomicInteger numHashed = new AtomicInteger();
+            Mapping mapping = XorFilter.buildMappingWithLowMemory(
+                    keys.length,
+                    (seed, hashedElements) -> {
+                        numHashed.incrementAndGet();
+                        hashedElements.hashAll(strategy.hashing, seed, keys);
+                    },
+                    strategy.newLayout(keys.length),
+                    rngSeed);
+            assertTrue(mapping.remix > 0);
+            assertEquals(1, numHashed.get());
+
+            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                filter.writeTo(out);
+                assertEquals(filter, LongXorFilter.readFrom(new ByteArrayInputStream(out.toByteArray())));
+            }
+        }
+        // The identity ignores the seed, so the random keys take the same, usually successful, first attempt.
+        // The blocked layout remixes only when its stash cannot be peeled.
+        assertTrue(numRemixed > 0
+                || strategy.hashing == ElementHashing.IDENTITY
+                || strategy.layoutType == SlotLayout.Type.BLOCKED);
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBuildWithLowMemory(XorFilter.Strategy strategy) {
+        long[] keys = keys(100000);
+        assertEquals(LongXorFilter.build(keys, strategy, 12345), LongXorFilter.buildWithLowMemory(keys, strategy, 12345));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testParallelBuild(XorFilter.Strategy strategy) {
+        long[] keys = keys(100000);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LongXorFilter parallel = LongXorFilter.build(keys, strategy, 12345, pool);
+            LongXorFilter serial = LongXorFilter.build(keys, strategy, 12345);
+
+            assertEquals(serial, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMap(XorFilter.Strategy strategy) throws IOException {
+        long[] keys = keys(10000);
+        LongXorFilter filter = LongXorFilter.build(keys, strategy);
+
+        Path path = Files.createTempFile("xor-filter", ".bin");
+        try {
+            // Two filters in a row, to check that mapping starts at and advances the position of the channel.
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                filter.writeTo(channel);
+                filter.writeTo(channel);
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                LongXorFilter first = LongXorFilter.map(channel);
+                LongXorFilter second = LongXorFilter.map(channel);
+                assertEquals(channel.size(), channel.position());
+
+                for (long key : keys(20000)) {
+                    assertEquals(filter.mightContain(key), first.mightContain(key));
+                    assertEquals(filter.mightContain(key), second.mightContain(key));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBuildAsyncCancellation(XorFilter.Strategy strategy) throws InterruptedException {
+        long[] keys = keys(1_000_000);
+        AtomicReference<CompletableFuture<LongXorFilter>> future = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger polls = new AtomicInteger();
+        AtomicBoolean completed = new AtomicBoolean();
+
+        BuildListener listener = new BuildListener() {
+            @Override
+            public void onProgress(BuildStats.Phase phase, int attempt, double fraction) {
+                polls.incrementAndGet();
+                if (phase == BuildStats.Phase.PEELING && fraction > 0) {
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    future.get().cancel(false);
+                }
+            }
+
+            @Override
+            public void onComplete(BuildStats stats) {
+                completed.set(true);
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            future.set(LongXorFilter.buildAsync(keys, strategy, 12345, executor, listener));
+            started.countDown();
+            assertThrows(CancellationException.class, () -> future.get().join());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        // The build stops at the first poll after the cancellation.
+        assertTrue(future.get().isCancelled());
+        assertFalse(completed.get());
+        int numPolls = polls.get();
+        assertTrue(numPolls >= 3 && numPolls < 10, String.valueOf(numPolls));
+    }
+}
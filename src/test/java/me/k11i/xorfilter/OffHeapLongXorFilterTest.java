@@ -0,0 +1,183 @@
+package me.k11i.xorfilter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapLongXorFilterTest {
+    static Stream<XorFilter.Strategy> strategies() {
+        return Stream.of(XorFilter.Strategy.values())
+                .filter(strategy -> strategy.layoutType != SlotLayout.Type.XOR_PLUS);
+    }
+
+    private static long[] keys(int numEntries) {
+        return new SplittableRandom(0).longs(numEntries).toArray();
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldReturnTrue(XorFilter.Strategy strategy) {
+        long[] keys = keys(100000);
+
+        // About 128 buckets built in 13 passes.
+        try (OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(() -> LongStream.of(keys), strategy, 0, 1000, 8000)) {
+            for (int i = 0; i < keys.length; i++) {
+                assertTrue(filter.mightContain(keys[i]), String.format("[%d]: %d", i, keys[i]));
+            }
+            assertTrue(filter.capacity() > keys.length);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainShouldNotReturnTrue(XorFilter.Strategy strategy) {
+        final int numEntries = 100000;
+        try (OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(
+                () -> LongStream.range(0, numEntries), strategy, 0, 1000, 8000)) {
+
+            final double expectedMaxFalsePositiveRate = Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue));
+
+            long falsePositiveCount = LongStream.range(numEntries, numEntries * 2)
+                    .filter(filter::mightContain)
+                    .count();
+
+            double falsePositiveRate = falsePositiveCount / (double) numEntries;
+            System.out.printf("False positive rate: %f%n", falsePositiveRate);
+
+            assertTrue(falsePositiveRate < expectedMaxFalsePositiveRate);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testSingleBucket(XorFilter.Strategy strategy) {
+        long[] keys = LongStream.range(0, 10000).map(l -> l % 100).toArray();
+        try (OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(() -> LongStream.of(keys), strategy)) {
+            for (long key : keys) {
+                assertTrue(filter.mightContain(key));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testClose(XorFilter.Strategy strategy) {
+        OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(() -> LongStream.of(keys(1000)), strategy);
+        filter.close();
+        filter.close();
+        assertThrows(IllegalStateException.class, () -> filter.mightContain(0));
+    }
+
+    @Test
+    void testCloseWhileQueried() throws InterruptedException {
+        long[] keys = keys(10000);
+        OffHeapLongXorFilter filter = OffHeapLongXorFilter.build(() -> LongStream.of(keys), XorFilter.Strategy.MURMUR128_XOR8);
+
+        // The queries in flight either see the values or fail with IllegalStateException, but never read freed memory.
+        // More threads than CPUs, so that some share a stripe of the reader count.
+        AtomicLong missed = new AtomicLong();
+        Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors() * 8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; ; i = (i + 1) % keys.length) {
+                        if (!filter.mightContain(keys[i])) {
+                            missed.incrementAndGet();
+                        }
+                    }
+                } catch (IllegalStateException expected) {
+                    // closed
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(100);
+        filter.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, missed.get());
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testKeysChangedBetweenPasses(XorFilter.Strategy strategy) {
+        SplittableRandom r = new SplittableRandom(0);
+        assertThrows(IllegalStateException.class, () -> OffHeapLongXorFilter.build(
+                () -> r.longs(10000), strategy, 0, 1000, 8000));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testExternalSort(XorFilter.Strategy strategy) throws IOException {
+        // Every key appears twice, in separate runs.
+        long[] keys = LongStream.concat(LongStream.of(keys(50000)), LongStream.of(keys(50000))).toArray();
+
+        Path dir = Files.createTempDirectory("xor-filter");
+        try {
+            // About 64 buckets, and 15 runs of 7000 hashed keys.
+            try (OffHeapLongXorFilter external = OffHeapLongXorFilter.build(LongStream.of(keys).iterator(), strategy, 0, dir, 1000, 7000);
+                 OffHeapLongXorFilter inMemory = OffHeapLongXorFilter.build(() -> LongStream.of(keys), strategy, 0, 1000, 8000)) {
+
+                try (Stream<Path> files = Files.list(dir)) {
+                    assertEquals(0, files.count());
+                }
+
+                for (int i = 0; i < keys.length; i++) {
+                    assertTrue(external.mightContain(keys[i]), String.format("[%d]: %d", i, keys[i]));
+                }
+                // The same hashed keys and seeds give the same filter.
+                for (long key : new SplittableRandom(1).longs(100000).toArray()) {
+                    assertEquals(inMemory.mightContain(key), external.mightContain(key));
+                }
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testDuplicatedKeys(XorFilter.Strategy strategy) throws IOException {
+        // Each key appears ten times, and the buckets are sized by the distinct keys only.
+        long[] distinct = keys(20000);
+        long[] keys = LongStream.range(0, 10).flatMap(i -> LongStream.of(distinct)).toArray();
+
+        Path dir = Files.createTempDirectory("xor-filter");
+        // The bucket size of a tenth gives as many buckets as for the keys with the duplicates.
+        try (OffHeapLongXorFilter expected = OffHeapLongXorFilter.build(() -> LongStream.of(distinct), strategy, 0, 100, 8000);
+             OffHeapLongXorFilter inMemory = OffHeapLongXorFilter.build(() -> LongStream.of(keys), strategy, 0, 1000, 80000);
+             OffHeapLongXorFilter external = OffHeapLongXorFilter.build(LongStream.of(keys).iterator(), strategy, 0, dir, 1000, 7000)) {
+
+            assertEquals(expected.capacity(), inMemory.capacity());
+            assertEquals(expected.capacity(), external.capacity());
+            for (long key : distinct) {
+                assertTrue(inMemory.mightContain(key));
+                assertTrue(external.mightContain(key));
+            }
+            for (long key : new SplittableRandom(1).longs(100000).toArray()) {
+                assertEquals(expected.mightContain(key), inMemory.mightContain(key));
+                assertEquals(expected.mightContain(key), external.mightContain(key));
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testXorPlusIsNotSupported() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> OffHeapLongXorFilter.build(() -> LongStream.range(0, 100), XorFilter.Strategy.MURMUR128_XOR8_PLUS));
+    }
+}
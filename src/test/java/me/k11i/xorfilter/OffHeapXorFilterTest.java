@@ -0,0 +1,49 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class OffHeapXorFilterTest {
+    static Stream<XorFilter.Strategy> strategies() {
+        // The keys share their first 8 bytes, which is all that the identity takes.
+        return Stream.of(XorFilter.Strategy.values())
+                .filter(strategy -> strategy.hashing != ElementHashing.IDENTITY)
+                .filter(strategy -> strategy.layoutType != SlotLayout.Type.XOR_PLUS);
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContain(XorFilter.Strategy strategy) throws IOException {
+        final int numEntries = 10000;
+        Path dir = Files.createTempDirectory("xor-filter");
+        try (OffHeapXorFilter<CharSequence> filter = OffHeapXorFilter.build(
+                Funnels.stringFunnel(StandardCharsets.UTF_8),
+                IntStream.range(0, numEntries).mapToObj(i -> "key-" + i).iterator(),
+                strategy,
+                dir)) {
+
+            for (int i = 0; i < numEntries; i++) {
+                assertTrue(filter.mightContain("key-" + i));
+            }
+
+            long falsePositiveCount = IntStream.range(numEntries, numEntries * 2)
+                    .filter(i -> filter.mightContain("key-" + i))
+                    .count();
+            assertTrue(falsePositiveCount / (double) numEntries < Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue)));
+
+        } finally {
+            Files.delete(dir);
+        }
+    }
+}
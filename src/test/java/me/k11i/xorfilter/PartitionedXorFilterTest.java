@@ -0,0 +1,164 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class PartitionedXorFilterTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+
+    static Stream<XorFilter.Strategy> strategies() {
+        return Stream.of(XorFilter.Strategy.values());
+    }
+
+    private static List<String> elements(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContain(XorFilter.Strategy strategy) {
+        List<String> elements = elements(0, 10000);
+        PartitionedXorFilter<String> filter = PartitionedXorFilter.build(FUNNEL, elements, strategy, 8);
+
+        for (String element : elements) {
+            assertTrue(filter.mightContain(element), element);
+        }
+
+        long falsePositiveCount = elements(10000, 20000).stream()
+                .filter(filter::mightContain)
+                .count();
+        assertTrue(falsePositiveCount / 10000.0 < Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testRebuildShard(XorFilter.Strategy strategy) {
+        PartitionedXorFilter<String> filter = PartitionedXorFilter.build(FUNNEL, elements(0, 10000), strategy, 4);
+
+        // The shard 1 now has the elements of 5000 to 15000 instead.
+        PartitionedXorFilter<String> rebuilt = filter.rebuildShard(1, elements(5000, 15000));
+
+        for (String element : elements(0, 15000)) {
+            int i = Integer.parseInt(element);
+            if (filter.shardOf(element) != 1) {
+                assertEquals(filter.mightContain(element), rebuilt.mightContain(element), element);
+            } else if (i >= 5000) {
+                assertTrue(rebuilt.mightContain(element), element);
+            }
+        }
+        assertNotEquals(filter, rebuilt);
+        assertEquals(filter.shardOf("0"), rebuilt.shardOf("0"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testParallelBuild(XorFilter.Strategy strategy) {
+        List<String> elements = elements(0, 100000);
+
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertEquals(
+                    PartitionedXorFilter.build(FUNNEL, elements, strategy, 16, 12345),
+                    PartitionedXorFilter.build(FUNNEL, elements, strategy, 16, 12345, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testSerialization(XorFilter.Strategy strategy) throws IOException {
+        List<String> elements = elements(0, 10000);
+        PartitionedXorFilter<String> filter = PartitionedXorFilter.build(FUNNEL, elements.subList(0, 5000), strategy, 4);
+
+        PartitionedXorFilter<String> deserialized;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            deserialized = PartitionedXorFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), FUNNEL);
+        }
+        assertEquals(filter, deserialized);
+
+        Path path = Files.createTempFile("xor-filter", ".bin");
+        try {
+            try (OutputStream out = Files.newOutputStream(path)) {
+                filter.writeTo(out);
+            }
+
+            PartitionedXorFilter<String> mapped = PartitionedXorFilter.map(path, FUNNEL);
+            for (String element : elements) {
+                assertEquals(filter.mightContain(element), mapped.mightContain(element), element);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testDeserializationShouldDetectCorruption(XorFilter.Strategy strategy) throws IOException {
+        PartitionedXorFilter<String> filter = PartitionedXorFilter.build(FUNNEL, elements(0, 1000), strategy, 4);
+
+        byte[] serialized;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            serialized = out.toByteArray();
+        }
+
+        // A flipped bit in the header, in the index and in the values of the first shard.
+        for (int offset : new int[]{9, 30, 160}) {
+            byte[] corrupted = serialized.clone();
+            corrupted[offset] ^= 0x10;
+            assertThrows(
+                    IOException.class,
+                    () -> PartitionedXorFilter.readFrom(new ByteArrayInputStream(corrupted), FUNNEL),
+                    String.format("offset: %d", offset));
+        }
+
+        byte[] truncated = Arrays.copyOf(serialized, serialized.length - 10);
+        assertThrows(IOException.class, () -> PartitionedXorFilter.readFrom(new ByteArrayInputStream(truncated), FUNNEL));
+    }
+
+    @Test
+    void testNumShards() {
+        List<String> elements = elements(0, 1000);
+        XorFilter.Strategy strategy = XorFilter.Strategy.MURMUR128_XOR8;
+
+        PartitionedXorFilter<String> single = PartitionedXorFilter.build(FUNNEL, elements, strategy, 1);
+        assertEquals(1, single.numShards());
+        assertTrue(elements.stream().allMatch(single::mightContain));
+
+        PartitionedXorFilter<String> empty = PartitionedXorFilter.build(FUNNEL, Collections.emptyList(), strategy, 2);
+        assertEquals(2, empty.numShards());
+
+        for (int numShards : new int[]{0, 3, -4, 1 << 17}) {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> PartitionedXorFilter.build(FUNNEL, elements, strategy, numShards),
+                    String.format("numShards: %d", numShards));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> single.rebuildShard(1, elements));
+    }
+}
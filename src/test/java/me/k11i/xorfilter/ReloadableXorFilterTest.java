@@ -0,0 +1,250 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class ReloadableXorFilterTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+    private static final XorFilter.Strategy STRATEGY = XorFilter.Strategy.MURMUR128_XOR16;
+
+    private static List<String> elements(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static XorFilter<CharSequence> filter(int from, int to) {
+        return XorFilter.build(FUNNEL, new ArrayList<CharSequence>(elements(from, to)), STRATEGY);
+    }
+
+    /**
+     * Writes the filter to a temporary file in the same directory, and renames it to {@code path}.
+     */
+    private static void publish(XorFilter<CharSequence> filter, Path path) throws IOException {
+        Path temp = path.resolveSibling("." + path.getFileName());
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            filter.writeTo(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    void testWatchFile() throws IOException, InterruptedException {
+        for (boolean map : new boolean[]{false, true}) {
+            Path dir = Files.createTempDirectory("xor-filter");
+            Path path = dir.resolve("filter.bin");
+            try {
+                publish(filter(0, 1000), path);
+                try (ReloadableXorFilter<CharSequence> filter = ReloadableXorFilter.watch(
+                        path, FUNNEL, map, 10, TimeUnit.MILLISECONDS)) {
+
+                    assertEquals(1, filter.generation());
+                    assertTrue(filter.lastLoadNanos() > 0);
+                    assertTrue(elements(0, 1000).stream().allMatch(filter));
+
+                    publish(filter(1000, 2000), path);
+                    await(() -> filter.generation() == 2);
+                    assertTrue(elements(1000, 2000).stream().allMatch(filter), String.format("map: %s", map));
+                    assertTrue(elements(0, 1000).stream().filter(filter).count() < 10);
+                    assertFalse(filter.reload());
+                    assertEquals(0, filter.failureCount());
+                }
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+    }
+
+    @Test
+    void testWatchDirectory() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("xor-filter");
+        try {
+            publish(filter(0, 1000), dir.resolve("1.bin"));
+            try (OutputStream out = Files.newOutputStream(dir.resolve(".2.bin"))) {
+                out.write(new byte[]{1, 2, 3});
+            }
+
+            try (ReloadableXorFilter<CharSequence> filter = ReloadableXorFilter.watch(
+                    dir, FUNNEL, true, 10, TimeUnit.MILLISECONDS)) {
+
+                assertTrue(filter.mightContain("0"));
+
+                // The most recently modified file is loaded, and a corrupted one leaves the current filter in place.
+                Path second = dir.resolve("2.bin");
+                publish(filter(1000, 2000), second);
+                Files.setLastModifiedTime(second, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+                await(() -> filter.generation() == 2);
+                assertTrue(filter.mightContain("1000"));
+
+                Path third = dir.resolve("3.bin");
+                Files.write(third, new byte[]{'X', 'O', 'R', 'F', 0});
+                Files.setLastModifiedTime(third, FileTime.fromMillis(System.currentTimeMillis() + 120_000));
+                await(() -> filter.failureCount() > 0);
+                assertEquals(2, filter.generation());
+                assertNotNull(filter.lastFailure());
+                assertTrue(filter.mightContain("1000"));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void testReplacedWhileQueried() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("xor-filter");
+        Path path = dir.resolve("filter.bin");
+        try {
+            publish(filter(0, 1000), path);
+            try (ReloadableXorFilter<CharSequence> filter = ReloadableXorFilter.watch(
+                    path, FUNNEL, true, 10, TimeUnit.MILLISECONDS)) {
+
+                // The first version stays mapped while it is used, even after it has been replaced.
+                long count = filter.apply(first -> {
+                    try {
+                        publish(filter(1000, 2000), path);
+                        await(() -> filter.generation() == 2);
+                    } catch (IOException | InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    return elements(0, 1000).stream().filter(first::mightContain).count();
+                });
+                assertEquals(1000, count);
+                assertTrue(filter.mightContain("1000"));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void testReaderCount() {
+        int[] released = new int[1];
+        ReaderCount readers = new ReaderCount(() -> released[0]++);
+        int stripe = readers.acquire();
+        assertTrue(stripe >= 0);
+        assertEquals(stripe, readers.acquire());
+        readers.release(stripe);
+
+        readers.retire();
+        assertTrue(readers.isRetired());
+        assertEquals(-1, readers.acquire());
+        assertEquals(0, released[0]);
+
+        readers.release(stripe);
+        assertEquals(1, released[0]);
+        readers.retire();
+        assertEquals(1, released[0]);
+
+        ReaderCount idle = new ReaderCount(() -> released[0]++);
+        idle.retire();
+        assertEquals(2, released[0]);
+    }
+
+    @Test
+    void testReaderCountWhileRetired() throws InterruptedException {
+        for (int trial = 0; trial < 100; trial++) {
+            AtomicInteger reading = new AtomicInteger();
+            AtomicInteger released = new AtomicInteger();
+            AtomicInteger readAfterRelease = new AtomicInteger();
+            ReaderCount readers = new ReaderCount(() -> {
+                if (reading.get() != 0) {
+                    readAfterRelease.incrementAndGet();
+                }
+                released.incrementAndGet();
+            });
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    int stripe;
+                    while ((stripe = readers.acquire()) >= 0) {
+                        reading.incrementAndGet();
+                        if (released.get() != 0) {
+                            readAfterRelease.incrementAndGet();
+                        }
+                        reading.decrementAndGet();
+                        readers.release(stripe);
+                    }
+                });
+                threads[t].start();
+            }
+            Thread.sleep(1);
+            readers.retire();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(1, released.get());
+            assertEquals(0, readAfterRelease.get());
+        }
+    }
+
+    @Test
+    void testSwapAndRebuild() throws ExecutionException, InterruptedException {
+        ReloadableXorFilter<CharSequence> filter = ReloadableXorFilter.of(filter(0, 1000));
+        assertEquals(1, filter.generation());
+        assertTrue(filter.test("0"));
+
+        assertEquals(2, filter.swap(filter(1000, 2000)));
+        assertTrue(filter.mightContain("1000"));
+
+        assertEquals(3, filter.rebuild(() -> filter(2000, 3000)).get().longValue());
+        assertEquals(3, filter.generation());
+        assertTrue(filter.mightContain("2000"));
+
+        filter.close();
+        filter.close();
+        assertThrows(IllegalStateException.class, () -> filter.mightContain("0"));
+        assertThrows(IllegalStateException.class, () -> filter.swap(filter(0, 10)));
+        assertEquals(3, filter.generation());
+    }
+
+    @Test
+    void testWatchMissingFile() throws IOException {
+        Path dir = Files.createTempDirectory("xor-filter");
+        try {
+            assertThrows(IOException.class, () -> ReloadableXorFilter.watch(dir, FUNNEL, false));
+            assertThrows(IOException.class, () -> ReloadableXorFilter.watch(dir.resolve("missing.bin"), FUNNEL, false));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class XorFilterContainerTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+
+    private static List<CharSequence> elements(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static XorFilter<CharSequence> filter(int from, int to, XorFilter.Strategy strategy) {
+        return XorFilter.build(FUNNEL, elements(from, to), strategy, from);
+    }
+
+    @Test
+    void testAppendAndRead() throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".xorc");
+        try {
+            XorFilter.Strategy[] strategies = XorFilter.Strategy.values();
+            long[] keys = new SplittableRandom(0).longs(1000).toArray();
+            LongXorFilter longFilter = LongXorFilter.build(keys, XorFilter.Strategy.MURMUR128_XOR16);
+            BytesXorFilter bytesFilter = BytesXorFilter.buildFromStrings(elements(0, 100), XorFilter.Strategy.XXH3_XOR8);
+
+            try (XorFilterContainer container = XorFilterContainer.openForAppend(path)) {
+                assertEquals(0, container.size());
+                for (int i = 0; i < strategies.length; i++) {
+                    container.append("filter-" + i, filter(i * 1000, i * 1000 + 1000, strategies[i]));
+                }
+                container.append("long", longFilter);
+                container.append("bytes", bytesFilter);
+                assertThrows(IllegalArgumentException.class, () -> container.append("long", longFilter));
+            }
+
+            // Appending to the reopened container keeps the filters so far.
+            try (XorFilterContainer container = XorFilterContainer.openForAppend(path)) {
+                assertEquals(strategies.length + 2, container.size());
+                container.append("\u30d5\u30a3\u30eb\u30bf", filter(0, 10, XorFilter.Strategy.MURMUR128_BLOCKED8));
+            }
+
+            try (XorFilterContainer container = XorFilterContainer.open(path)) {
+                assertEquals(strategies.length + 3, container.size());
+
+                List<String> ids = new ArrayList<>();
+                long previousEnd = 32;
+                for (XorFilterContainer.Entry e : container.entries()) {
+                    ids.add(e.id());
+                    assertEquals(0, e.offset() % 8);
+                    assertTrue(e.offset() >= previousEnd);
+                    previousEnd = e.offset() + e.length();
+                }
+                assertEquals("filter-0", ids.get(0));
+                assertEquals("\u30d5\u30a3\u30eb\u30bf", ids.get(ids.size() - 1));
+
+                for (int i = 0; i < strategies.length; i++) {
+                    String id = "filter-" + i;
+                    XorFilter<CharSequence> expected = filter(i * 1000, i * 1000 + 1000, strategies[i]);
+                    assertEquals(strategies[i], container.entry(id).strategy());
+                    assertEquals(expected, container.read(id, FUNNEL));
+
+                    XorFilter<CharSequence> mapped = container.map(id, FUNNEL);
+                    assertTrue(elements(i * 1000, i * 1000 + 1000).stream().allMatch(mapped), id);
+                }
+
+                assertEquals(longFilter, container.readLong("long"));
+                assertTrue(LongStream.of(keys).allMatch(container.mapLong("long")));
+                assertEquals(bytesFilter, container.readBytes("bytes"));
+                assertTrue(container.mapBytes("bytes").mightContain("42"));
+                assertTrue(container.read("\u30d5\u30a3\u30eb\u30bf", FUNNEL).mightContain("9"));
+
+                assertFalse(container.contains("missing"));
+                assertNull(container.entry("missing"));
+                assertThrows(IllegalArgumentException.class, () -> container.read("missing", FUNNEL));
+                assertThrows(IllegalStateException.class, () -> container.append("new", longFilter));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testUnflushedFiltersAreNotVisible() throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".xorc");
+        try (XorFilterContainer writer = XorFilterContainer.openForAppend(path)) {
+            writer.append("a", filter(0, 100, XorFilter.Strategy.MURMUR128_XOR8));
+            writer.flush();
+            writer.append("b", filter(100, 200, XorFilter.Strategy.MURMUR128_XOR8));
+
+            try (XorFilterContainer reader = XorFilterContainer.open(path)) {
+                assertTrue(reader.contains("a"));
+                assertFalse(reader.contains("b"));
+                assertTrue(reader.read("a", FUNNEL).mightContain("0"));
+            }
+
+            writer.flush();
+            try (XorFilterContainer reader = XorFilterContainer.open(path)) {
+                assertTrue(reader.read("b", FUNNEL).mightContain("100"));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testCompactTo() throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".xorc");
+        Path compactedPath = path.resolveSibling(path.getFileName() + ".compacted");
+        try {
+            try (XorFilterContainer container = XorFilterContainer.openForAppend(path)) {
+                for (int i = 0; i < 10; i++) {
+                    container.append("filter-" + i, filter(i * 100, i * 100 + 100, XorFilter.Strategy.MURMUR128_XOR8));
+                    container.flush();
+                }
+                container.append("unflushed", filter(0, 10, XorFilter.Strategy.XXH3_XOR16));
+
+                container.compactTo(compactedPath);
+                assertThrows(IOException.class, () -> container.compactTo(compactedPath));
+            }
+            assertTrue(Files.size(compactedPath) < Files.size(path));
+
+            try (XorFilterContainer original = XorFilterContainer.open(path);
+                 XorFilterContainer compacted = XorFilterContainer.open(compactedPath)) {
+
+                List<String> ids = compacted.entries().stream().map(XorFilterContainer.Entry::id).collect(Collectors.toList());
+                assertEquals(original.entries().stream().map(XorFilterContainer.Entry::id).collect(Collectors.toList()), ids);
+                assertEquals("unflushed", ids.get(ids.size() - 1));
+
+                long previousEnd = 32;
+                for (XorFilterContainer.Entry e : compacted.entries()) {
+                    assertTrue(e.offset() >= previousEnd && e.offset() < previousEnd + 8);
+                    previousEnd = e.offset() + e.length();
+                    assertEquals(original.read(e.id(), FUNNEL), compacted.read(e.id(), FUNNEL));
+                }
+                // The header, the filters and the index, each at a multiple of 8 bytes.
+                assertTrue(Files.size(compactedPath) < previousEnd + 8 + 11 * 40);
+            }
+        } finally {
+            Files.deleteIfExists(compactedPath);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testCorruption() throws IOException {
+        Path path = Files.createTempFile("xor-filter", ".xorc");
+        try {
+            assertThrows(IOException.class, () -> XorFilterContainer.open(path));
+
+            try (XorFilterContainer container = XorFilterContainer.openForAppend(path)) {
+                container.append("a", filter(0, 100, XorFilter.Strategy.MURMUR128_XOR8));
+            }
+            long size = Files.size(path);
+
+            // The checksum of the index, the length of the index in the header, and the values of the filter.
+            for (long position : new long[]{size - 1, 20, 100}) {
+                byte[] original = Files.readAllBytes(path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(new byte[]{(byte) ~original[(int) position]}), position);
+                }
+                assertThrows(IOException.class, () -> {
+                    try (XorFilterContainer container = XorFilterContainer.open(path)) {
+                        container.read("a", FUNNEL);
+                    }
+                }, String.valueOf(position));
+                Files.write(path, original);
+            }
+
+            XorFilterContainer container = XorFilterContainer.open(path);
+            // A filter of another class is rejected.
+            assertThrows(IOException.class, () -> container.readLong("a"));
+            assertThrows(IOException.class, () -> container.mapBytes("a"));
+            container.close();
+            container.close();
+            assertThrows(IllegalStateException.class, () -> container.read("a", FUNNEL));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
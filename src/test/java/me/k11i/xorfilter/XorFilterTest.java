@@ -2,14 +2,28 @@ package me.k11i.xorfilter;
 
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -24,6 +38,15 @@ class XorFilterTest {
         return Stream.of(XorFilter.Strategy.values());
     }
 
+    /**
+     * The strategies that the format of 0.1.x can express.
+     */
+    static Stream<XorFilter.Strategy> unversionedStrategies() {
+        return Stream.of(
+                XorFilter.Strategy.MURMUR128_XOR8,
+                XorFilter.Strategy.MURMUR128_XOR16);
+    }
+
     @ParameterizedTest
     @MethodSource("strategies")
     void testMightContainShouldReturnTrue(XorFilter.Strategy strategy) {
@@ -58,7 +81,7 @@ class XorFilterTest {
                 elements,
                 strategy);
 
-        final double expectedMaxFalsePositiveRate = 0.01;
+        final double expectedMaxFalsePositiveRate = Math.max(0.01, 2.0 / (1L << strategy.bitsPerValue));
 
         System.out.print("False positives:");
         long falsePositiveCount = IntStream.range(numEntries, numEntries * 2)
@@ -103,4 +126,304 @@ class XorFilterTest {
                     String.format("[%d]: %s", i, element));
         }
     }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMightContainAll(XorFilter.Strategy strategy) {
+        final int numEntries = 10000;
+        String[] elements = IntStream.range(0, numEntries)
+                .mapToObj(String::valueOf)
+                .toArray(String[]::new);
+
+        XorFilter<String> filter = XorFilter.build(
+                FUNNEL,
+                Arrays.asList(elements).subList(0, numEntries / 2),
+                strategy);
+
+        long[] resultBitmap = new long[(numEntries + 63) / 64];
+        filter.mightContainAll(elements, 0, numEntries, resultBitmap);
+
+        for (int i = 0; i < numEntries; i++) {
+            boolean result = (resultBitmap[i / 64] & (1L << i)) != 0;
+            assertEquals(filter.mightContain(elements[i]), result, String.format("[%d]: %s", i, elements[i]));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBuildWithLowMemory(XorFilter.Strategy strategy) {
+        // With duplicates, and few enough that the binary fuse filters have more than twice as many slots.
+        for (int numEntries : new int[]{100000, 100}) {
+            List<String> elements = IntStream.range(0, numEntries)
+                    .mapToObj(i -> String.valueOf(i % (numEntries - 10)))
+                    .collect(Collectors.toList());
+
+            XorFilter<String> lowMemory = XorFilter.buildWithLowMemory(FUNNEL, elements, strategy, 12345);
+            XorFilter<String> filter = XorFilter.build(FUNNEL, elements, strategy, 12345);
+
+            assertEquals(filter, lowMemory);
+        }
+
+        if (strategy.layoutType == SlotLayout.Type.BLOCKED || strategy.layoutType == SlotLayout.Type.XOR_PLUS) {
+            // The blocked layout peels the blocks again instead of keeping them either way, and xor+ always builds
+            // with the queue that puts the first two blocks ahead.
+            assertEquals(XorFilter.scratchBytes(100000, strategy, false), XorFilter.scratchBytes(100000, strategy, true));
+        } else {
+            // As documented by buildWithLowMemory.
+            assertTrue(XorFilter.scratchBytes(100000, strategy, false) >= 1.85 * XorFilter.scratchBytes(100000, strategy, true));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testParallelBuild(XorFilter.Strategy strategy) {
+        final int numEntries = 100000;
+        List<String> elements = IntStream.range(0, numEntries)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            XorFilter<String> parallel = XorFilter.build(FUNNEL, elements, strategy, 12345, pool);
+            XorFilter<String> serial = XorFilter.build(FUNNEL, elements, strategy, 12345);
+
+            assertEquals(serial, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testMap(XorFilter.Strategy strategy) throws IOException {
+        final int numEntries = 10000;
+        List<String> elements = IntStream.range(0, numEntries)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        XorFilter<String> filter = XorFilter.build(
+                FUNNEL,
+                elements.stream().limit(numEntries / 2).collect(Collectors.toList()),
+                strategy);
+
+        Path path = Files.createTempFile("xor-filter", ".bin");
+        try {
+            try (OutputStream out = Files.newOutputStream(path)) {
+                filter.writeTo(out);
+            }
+
+            XorFilter<String> mapped = XorFilter.map(path, FUNNEL);
+
+            for (int i = 0; i < elements.size(); i++) {
+                String element = elements.get(i);
+                assertEquals(
+                        filter.mightContain(element),
+                        mapped.mightContain(element),
+                        String.format("[%d]: %s", i, element));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testDeserializationShouldDetectCorruption(XorFilter.Strategy strategy) throws IOException {
+        XorFilter<String> filter = XorFilter.build(
+                FUNNEL,
+                IntStream.range(0, 1000).mapToObj(String::valueOf).collect(Collectors.toList()),
+                strategy);
+
+        byte[] serialized;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            filter.writeTo(out);
+            serialized = out.toByteArray();
+        }
+
+        // A flipped bit in the header, in the values and in the trailer.
+        for (int offset : new int[]{13, 100, serialized.length - 1}) {
+            byte[] corrupted = serialized.clone();
+            corrupted[offset] ^= 0x10;
+            assertThrows(
+                    IOException.class,
+                    () -> XorFilter.readFrom(new ByteArrayInputStream(corrupted), FUNNEL),
+                    String.format("offset: %d", offset));
+        }
+
+        byte[] truncated = Arrays.copyOf(serialized, serialized.length - 10);
+        assertThrows(IOException.class, () -> XorFilter.readFrom(new ByteArrayInputStream(truncated), FUNNEL));
+
+        byte[] notFilter = "not a filter".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(IOException.class, () -> XorFilter.readFrom(new ByteArrayInputStream(notFilter), FUNNEL));
+    }
+
+    @ParameterizedTest
+    @MethodSource("unversionedStrategies")
+    void testReadUnversionedFormat(XorFilter.Strategy strategy) throws IOException {
+        final int numEntries = 10000;
+        List<String> elements = IntStream.range(0, numEntries)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        // The format of 0.1.x cannot tell remixed hashed elements, so take a filter built without any retry.
+        XorFilter<String> filter;
+        ByteBuffer serialized;
+        int rngSeed = 0;
+        do {
+            filter = XorFilter.build(FUNNEL, elements.subList(0, numEntries / 2), strategy, rngSeed++);
+            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                filter.writeTo(out);
+                serialized = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } while (serialized.get(7) != 0);
+
+        // Rewrite in the format of 0.1.x: strategy, seed, layout and big-endian values without any checksum.
+        int capacity = serialized.getInt(16);
+        int valueSize = (int) (serialized.getLong(24) / capacity);
+        ByteArrayOutputStream unversioned = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(unversioned)) {
+            out.writeByte(serialized.get(6));
+            out.writeInt(serialized.getInt(12));
+            out.writeInt(capacity);
+            for (int i = 0; i < capacity; i++) {
+                int offset = SerializedForm.HEADER_SIZE + i * valueSize;
+                if (valueSize == 1) {
+                    out.writeByte(serialized.get(offset));
+                } else {
+                    out.writeShort(serialized.getShort(offset));
+                }
+            }
+        }
+
+        XorFilter<String> deserialized = XorFilter.readFrom(
+                new ByteArrayInputStream(unversioned.toByteArray()),
+                FUNNEL);
+        assertEquals(filter, deserialized);
+    }
+
+    @Test
+    void testReadFilterOfAnotherClass() throws IOException {
+        List<String> elements = IntStream.range(0, 1000).mapToObj(String::valueOf).collect(Collectors.toList());
+        XorFilter.Strategy strategy = XorFilter.Strategy.MURMUR128_XOR8;
+        byte[] objects;
+        byte[] longs;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            XorFilter.build(FUNNEL, elements, strategy).writeTo(out);
+            objects = out.toByteArray();
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            LongXorFilter.build(new long[]{1, 2, 3}, strategy).writeTo(out);
+            longs = out.toByteArray();
+        }
+
+        // Each class hashes the keys in its own way, so it rejects the filters of the others.
+        assertThrows(IOException.class, () -> LongXorFilter.readFrom(new ByteArrayInputStream(objects)));
+        assertThrows(IOException.class, () -> BytesXorFilter.readFrom(new ByteArrayInputStream(objects)));
+        assertThrows(IOException.class, () -> XorFilter.readFrom(new ByteArrayInputStream(longs), FUNNEL));
+        assertThrows(IOException.class, () -> BytesXorFilter.readFrom(new ByteArrayInputStream(longs)));
+
+        Path path = Files.createTempFile("xor-filter", ".bin");
+        try {
+            Files.write(path, objects);
+            assertThrows(IOException.class, () -> LongXorFilter.map(path));
+            assertThrows(IOException.class, () -> BytesXorFilter.map(path));
+            assertNotNull(XorFilter.map(path, FUNNEL));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+
+        // Only XorFilter of MURMUR128_XOR8 and MURMUR128_XOR16 wrote the unversioned format.
+        int capacity = XorFilter.Strategy.MURMUR128_XOR8.newLayout(0).capacity;
+        byte[] unversioned = ByteBuffer.allocate(9 + capacity)
+                .put((byte) XorFilter.Strategy.MURMUR128_XOR8.ordinal())
+                .putInt(0)
+                .putInt(capacity)
+                .array();
+        assertNotNull(XorFilter.readFrom(new ByteArrayInputStream(unversioned), FUNNEL));
+        assertThrows(IOException.class, () -> LongXorFilter.readFrom(new ByteArrayInputStream(unversioned)));
+        unversioned[0] = (byte) XorFilter.Strategy.MURMUR128_BINARY_FUSE8.ordinal();
+        assertThrows(IOException.class, () -> XorFilter.readFrom(new ByteArrayInputStream(unversioned), FUNNEL));
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testFootprint(XorFilter.Strategy strategy) throws IOException {
+        for (int numEntries : new int[]{10, 10000, 123457}) {
+            List<String> elements = IntStream.range(0, numEntries)
+                    .mapToObj(String::valueOf)
+                    .collect(Collectors.toList());
+            XorFilter<String> filter = XorFilter.build(FUNNEL, elements, strategy);
+
+            int estimatedElements = strategy.estimateElements(strategy.newLayout(numEntries).capacity);
+            String message = String.format("%d elements estimated as %d", numEntries, estimatedElements);
+            assertTrue(estimatedElements >= numEntries && estimatedElements <= numEntries * 1.1 + 64, message);
+
+            long sizeInBytes = filter.estimatedSizeInBytes();
+            assertEquals(sizeInBytes * Byte.SIZE / (double) estimatedElements, filter.bitsPerKey(), 1e-9);
+            if (numEntries > 10000) {
+                assertTrue(filter.bitsPerKey() > strategy.bitsPerValue * 0.9, message);
+                assertTrue(filter.bitsPerKey() < strategy.bitsPerValue * 3, message);
+            }
+
+            double fpp = filter.expectedFpp();
+            assertTrue(fpp >= Math.scalb(1.0, -strategy.bitsPerValue) && fpp < Math.scalb(1.0, 1 - strategy.bitsPerValue));
+
+            XorFilter<String> deserialized;
+            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                filter.writeTo(out);
+                deserialized = XorFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), FUNNEL);
+            }
+            assertEquals(sizeInBytes, deserialized.estimatedSizeInBytes());
+            assertEquals(filter.bitsPerKey(), deserialized.bitsPerKey());
+            assertEquals(fpp, deserialized.expectedFpp());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("strategies")
+    void testBuildAsync(XorFilter.Strategy strategy) throws ExecutionException, InterruptedException {
+        final int numEntries = 100000;
+        List<String> elements = IntStream.range(0, numEntries * 2)
+                .mapToObj(i -> String.valueOf(i % numEntries))
+                .collect(Collectors.toList());
+
+        List<BuildStats.Phase> phases = new ArrayList<>();
+        AtomicReference<BuildStats> stats = new AtomicReference<>();
+        BuildListener listener = new BuildListener() {
+            @Override
+            public void onProgress(BuildStats.Phase phase, int attempt, double fraction) {
+                assertTrue(attempt >= 1 && fraction >= 0 && fraction <= 1);
+                if (phases.isEmpty() || phases.get(phases.size() - 1) != phase) {
+                    phases.add(phase);
+                }
+            }
+
+            @Override
+            public void onComplete(BuildStats s) {
+                assertTrue(stats.compareAndSet(null, s));
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            XorFilter<String> filter = XorFilter.buildAsync(FUNNEL, elements, strategy, 12345, executor, listener).get();
+            assertEquals(XorFilter.build(FUNNEL, elements, strategy, 12345), filter);
+            assertNotNull(XorFilter.buildAsync(FUNNEL, elements, strategy, executor).get());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(BuildStats.Phase.HASHING, phases.get(0));
+        assertEquals(BuildStats.Phase.PEELING, phases.get(1));
+        assertEquals(BuildStats.Phase.ASSIGNING, phases.get(phases.size() - 1));
+
+        BuildStats s = stats.get();
+        assertEquals(numEntries * 2, s.numElements());
+        assertEquals(numEntries, s.distinctElements());
+        assertEquals(s.attempts() - 1, s.retries());
+        assertEquals((phases.size() - 1) / 2, s.attempts());
+        assertTrue(s.peelingNanos() > 0 && s.assigningNanos() > 0 && s.sortingNanos() > 0);
+        assertTrue(s.hashingNanos() + s.sortingNanos() + s.peelingNanos() + s.assigningNanos() <= s.totalNanos());
+        assertEquals(XorFilter.scratchBytes(numEntries * 2, strategy, false), s.estimatedScratchBytes());
+    }
 }
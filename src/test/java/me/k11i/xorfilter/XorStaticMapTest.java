@@ -0,0 +1,94 @@
+package me.k11i.xorfilter;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("UnstableApiUsage")
+class XorStaticMapTest {
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.ISO_8859_1);
+
+    private static Map<String, Integer> values(int numKeys, int bits, long seed) {
+        SplittableRandom r = new SplittableRandom(seed);
+        Map<String, Integer> values = new HashMap<>();
+        for (int i = 0; i < numKeys; i++) {
+            values.put(String.valueOf(i), r.nextInt() >>> (Integer.SIZE - bits));
+        }
+        return values;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 7, 8, 12, 16, 20, 31, 32})
+    void testGet(int bits) {
+        Map<String, Integer> values = values(100000, bits, bits);
+        XorStaticMap<String> map = XorStaticMap.build(FUNNEL, values, bits);
+
+        assertEquals(bits, map.bitsPerValue());
+        values.forEach((key, value) -> assertEquals(value.intValue(), map.get(key), key));
+
+        // The keys not in the map have arbitrary values, which still fit in the bits.
+        for (int i = 100000; i < 101000; i++) {
+            int value = map.applyAsInt(String.valueOf(i));
+            assertTrue(bits == Integer.SIZE || value >>> bits == 0, String.format("value: %d", value));
+        }
+    }
+
+    @Test
+    void testBuildIsDeterministic() {
+        Map<String, Integer> values = values(10000, 12, 0);
+        assertEquals(XorStaticMap.build(FUNNEL, values, 12, 12345), XorStaticMap.build(FUNNEL, values, 12, 12345));
+        assertEquals(0, XorStaticMap.build(FUNNEL, Collections.singletonMap("a", 0), 1).get("a"));
+        XorStaticMap.build(FUNNEL, Collections.<String, Integer>emptyMap(), 8);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        Map<String, Integer> values = Collections.singletonMap("a", 256);
+        assertThrows(IllegalArgumentException.class, () -> XorStaticMap.build(FUNNEL, values, 8));
+        assertThrows(IllegalArgumentException.class, () -> XorStaticMap.build(FUNNEL, Collections.singletonMap("a", -1), 31));
+        assertThrows(IllegalArgumentException.class, () -> XorStaticMap.build(FUNNEL, values, 0));
+        assertThrows(IllegalArgumentException.class, () -> XorStaticMap.build(FUNNEL, values, 33));
+        assertEquals(256, XorStaticMap.build(FUNNEL, values, 9).get("a"));
+    }
+
+    @Test
+    void testKeysOfTheSameBytes() {
+        // Both are funneled into "?", so they collide with any seed.
+        Map<String, Integer> values = values(1000, 8, 0);
+        values.put("\u4e2d", 1);
+        values.put("\u56fd", 2);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> XorStaticMap.build(FUNNEL, values, 8));
+        assertTrue(e.getMessage().contains("\u4e2d") && e.getMessage().contains("\u56fd"), e.getMessage());
+
+        // The same bytes of the same value are a single key.
+        values.put("\u56fd", 1);
+        assertEquals(1, XorStaticMap.build(FUNNEL, values, 8).get("\u56fd"));
+    }
+
+    @Test
+    void testHashedValues() {
+        XorStaticMap.HashedValues hashedValues = new XorStaticMap.HashedValues(3);
+        assertTrue(hashedValues.put(0, -1));
+        assertTrue(hashedValues.put(1L << 63, 5));
+        assertTrue(hashedValues.put(-1, 7));
+
+        assertTrue(hashedValues.put(0, -1));
+        assertFalse(hashedValues.put(0, 1));
+        assertTrue(hashedValues.put(-1, 7));
+        assertFalse(hashedValues.put(-1, 8));
+
+        assertEquals(0xffffffffL, hashedValues.get(0));
+        assertEquals(5, hashedValues.get(1L << 63));
+        assertEquals(7, hashedValues.get(-1));
+    }
+}